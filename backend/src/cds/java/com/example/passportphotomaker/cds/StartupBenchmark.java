@@ -0,0 +1,250 @@
+package com.example.passportphotomaker.cds;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cold start times with and without the class-data-sharing archive from the
+ * cds build profile. Every run starts a fresh JVM on the unpacked classpath
+ * and measures the time until /actuator/health answers, plus the startup time
+ * Spring reports. The two modes alternate, so drift on the machine hits both.
+ * Without the archive the JVM still maps the JDK's default archive, which is
+ * what a plain java -jar start gets.
+ */
+public class StartupBenchmark {
+    static final String USAGE = String.join("\n",
+            "Options (all optional):",
+            "  --dir=target/cds                  output of mvn -Pcds package: java.args and app.jsa",
+            "  --main=<class>                    application main class",
+            "  --runs=5                          starts per mode",
+            "  --timeout=180s                    how long a start may take",
+            "  --jvm-args=                       extra JVM options for both modes, comma separated");
+
+    private static final Pattern STARTED = Pattern.compile("Started \\S+ in ([0-9.]+) seconds");
+
+    private Path dir = Paths.get("target/cds");
+    private String mainClass = "com.example.passportphotomaker.PassportPhotoMakerApplication";
+    private int runs = 5;
+    private Duration timeout = Duration.ofSeconds(180);
+    private final List<String> jvmArgs = new ArrayList<>();
+
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+    public static void main(String[] args) {
+        StartupBenchmark benchmark = new StartupBenchmark();
+        try {
+            benchmark.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        try {
+            benchmark.run();
+        } catch (IOException e) {
+            System.err.println("Startup benchmark failed: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "dir":
+                    dir = Paths.get(value);
+                    break;
+                case "main":
+                    mainClass = value;
+                    break;
+                case "runs":
+                    runs = Integer.parseInt(value);
+                    break;
+                case "timeout":
+                    timeout = Duration.ofSeconds(Long.parseLong(value.replaceAll("s$", "")));
+                    break;
+                case "jvm-args":
+                    for (String option : value.split(",")) {
+                        if (!option.isBlank()) {
+                            jvmArgs.add(option.trim());
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+        if (runs < 1) {
+            throw new IllegalArgumentException("--runs must be at least 1");
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        Path argsFile = dir.resolve("java.args").toAbsolutePath();
+        Path archive = dir.resolve("app.jsa").toAbsolutePath();
+        if (!Files.isRegularFile(argsFile) || !Files.isRegularFile(archive)) {
+            throw new IOException("No archive in " + dir + ", build it first with mvn -Pcds package");
+        }
+
+        List<Start> plain = new ArrayList<>();
+        List<Start> shared = new ArrayList<>();
+        for (int run = 1; run <= runs; run++) {
+            plain.add(start("default", run, argsFile, null));
+            shared.add(start("archive", run, argsFile, archive));
+        }
+
+        Path csv = dir.resolve("startup.csv");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(csv, StandardCharsets.UTF_8))) {
+            out.println("mode,run,ready_ms,spring_ms");
+            for (List<Start> starts : List.of(plain, shared)) {
+                for (Start start : starts) {
+                    out.printf(Locale.ROOT, "%s,%d,%d,%d%n", start.mode, start.run, start.readyMillis, start.springMillis);
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-8s %8s %8s %8s %12s%n", "mode", "median", "min", "max", "spring med");
+        report("default", plain);
+        report("archive", shared);
+        long before = median(plain, false);
+        long after = median(shared, false);
+        System.out.printf(Locale.ROOT, "Time to healthy: %d ms -> %d ms (%+.1f%%)%n", before, after,
+                100.0 * (after - before) / before);
+        System.out.println("Per run results in " + csv);
+    }
+
+    /**
+     * Start the application once and wait until it reports healthy
+     *
+     * @param archive The archive to map, null for the JVM default
+     */
+    private Start start(String mode, int run, Path argsFile, Path archive) throws IOException, InterruptedException {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        if (archive != null) {
+            // Fail instead of silently starting without the archive when it doesn't fit
+            command.add("-XX:SharedArchiveFile=" + archive);
+            command.add("-Xshare:on");
+        }
+        command.add("@" + argsFile);
+        command.add(mainClass);
+        command.add("--server.port=" + port);
+
+        Path log = dir.resolve("startup-" + mode + "-" + run + ".log");
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+        long startNanos = System.nanoTime();
+        try {
+            long readyMillis = awaitHealthy(process, port, startNanos);
+            long springMillis = springStartup(log);
+            System.out.printf(Locale.ROOT, "%-8s run %d: healthy after %d ms, Spring started in %d ms%n",
+                    mode, run, readyMillis, springMillis);
+            return new Start(mode, run, readyMillis, springMillis);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    private long awaitHealthy(Process process, int port, long startNanos) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/actuator/health"))
+                .timeout(Duration.ofSeconds(2))
+                .build();
+        long deadline = startNanos + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IOException("Application exited with " + process.exitValue() + " before it was healthy");
+            }
+            try {
+                if (http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return (System.nanoTime() - startNanos) / 1_000_000;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(20);
+        }
+        throw new IOException("Application not healthy after " + timeout.getSeconds() + " s");
+    }
+
+    /**
+     * The startup time from Spring's "Started ... in x seconds" line, -1 if it's missing
+     */
+    private static long springStartup(Path log) throws IOException {
+        for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+            Matcher matcher = STARTED.matcher(line);
+            if (matcher.find()) {
+                return Math.round(Double.parseDouble(matcher.group(1)) * 1000);
+            }
+        }
+        return -1;
+    }
+
+    private static void report(String mode, List<Start> starts) {
+        List<Long> ready = new ArrayList<>();
+        for (Start start : starts) {
+            ready.add(start.readyMillis);
+        }
+        System.out.printf(Locale.ROOT, "%-8s %8d %8d %8d %12d%n", mode, median(starts, false),
+                Collections.min(ready), Collections.max(ready), median(starts, true));
+    }
+
+    private static long median(List<Start> starts, boolean spring) {
+        List<Long> values = new ArrayList<>();
+        for (Start start : starts) {
+            values.add(spring ? start.springMillis : start.readyMillis);
+        }
+        Collections.sort(values);
+        int middle = values.size() / 2;
+        return values.size() % 2 == 1 ? values.get(middle) : (values.get(middle - 1) + values.get(middle)) / 2;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class Start {
+        final String mode;
+        final int run;
+        final long readyMillis;
+        final long springMillis;
+
+        Start(String mode, int run, long readyMillis, long springMillis) {
+            this.mode = mode;
+            this.run = run;
+            this.readyMillis = readyMillis;
+            this.springMillis = springMillis;
+        }
+    }
+}
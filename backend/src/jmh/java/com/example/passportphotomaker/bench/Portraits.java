@@ -0,0 +1,158 @@
+package com.example.passportphotomaker.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import com.example.passportphotomaker.service.startup.NativeLoader;
+
+/**
+ * Input images for the benchmarks. Every benchmark runs over a synthetic
+ * portrait and the checked-in sample portrait, scaled to the requested height
+ * with the 7:9 aspect ratio of a passport photo. The synthetic portrait is
+ * drawn deterministically, so results stay comparable between runs.
+ */
+public class Portraits {
+    public static final String SYNTHETIC = "synthetic";
+    public static final String SAMPLE = "sample";
+
+    private static final String SAMPLE_RESOURCE = "/portraits/sample-portrait.png";
+
+    /**
+     * Load the OpenCV natives, once per benchmark JVM
+     */
+    public static void loadOpenCV() {
+        NativeLoader.ensureLoaded();
+    }
+
+    /**
+     * A portrait at the given height
+     *
+     * @param source SYNTHETIC or SAMPLE
+     * @param height Height in pixels, the width follows from the 7:9 aspect ratio
+     * @return The portrait (BGR), owned by the caller
+     */
+    public static Mat load(String source, int height) throws IOException {
+        loadOpenCV();
+        Size size = new Size(Math.round(height * 7.0 / 9.0), height);
+        if (SYNTHETIC.equals(source)) {
+            return synthetic(size);
+        }
+        if (SAMPLE.equals(source)) {
+            Mat sample = readResource(SAMPLE_RESOURCE);
+            Mat scaled = new Mat();
+            Imgproc.resize(sample, scaled, size, 0, 0,
+                    sample.height() > height ? Imgproc.INTER_AREA : Imgproc.INTER_CUBIC);
+            sample.release();
+            return scaled;
+        }
+        throw new IllegalArgumentException("Unknown portrait source: " + source);
+    }
+
+    /**
+     * A foreground mask of the subject in a portrait of the given size: head
+     * and shoulders, white on black (8 bit, one channel)
+     */
+    public static Mat subjectMask(Size size) {
+        Mat mask = Mat.zeros(size, CvType.CV_8UC1);
+        drawSubject(mask, size, new Scalar(255), new Scalar(255), new Scalar(255));
+        return mask;
+    }
+
+    /**
+     * Where a face detector should find the face in a portrait of the given size
+     */
+    public static Rect faceRect(Size size) {
+        int faceWidth = (int) (size.width * 0.36);
+        int faceHeight = (int) (size.height * 0.34);
+        return new Rect((int) (size.width / 2 - faceWidth / 2), (int) (size.height * 0.38 - faceHeight / 2),
+                faceWidth, faceHeight);
+    }
+
+    /**
+     * Add an opaque alpha channel from a mask, as produced by background removal
+     *
+     * @return The image (BGRA), owned by the caller
+     */
+    public static Mat withAlpha(Mat image, Mat mask) {
+        Mat bgra = new Mat();
+        Imgproc.cvtColor(image, bgra, Imgproc.COLOR_BGR2BGRA);
+        Core.insertChannel(mask, bgra, 3);
+        return bgra;
+    }
+
+    private static Mat synthetic(Size size) {
+        Mat image = new Mat(size, CvType.CV_8UC3);
+
+        // Light blue studio background with a vertical gradient
+        for (int y = 0; y < size.height; y++) {
+            double shade = 40 * y / size.height;
+            Mat row = image.row(y);
+            row.setTo(new Scalar(235 - shade, 200 - shade, 150 - shade));
+            row.release();
+        }
+
+        drawSubject(image, size, new Scalar(40, 80, 200), new Scalar(130, 160, 205), new Scalar(40, 50, 60));
+
+        // Eyes and mouth, so cascade face detectors have something to find
+        Rect face = faceRect(size);
+        int eyeRadius = Math.max(2, face.width / 14);
+        Imgproc.circle(image, new Point(face.x + face.width * 0.32, face.y + face.height * 0.42), eyeRadius,
+                new Scalar(50, 40, 30), -1);
+        Imgproc.circle(image, new Point(face.x + face.width * 0.68, face.y + face.height * 0.42), eyeRadius,
+                new Scalar(50, 40, 30), -1);
+        Imgproc.ellipse(image, new Point(face.x + face.width * 0.5, face.y + face.height * 0.72),
+                new Size(face.width * 0.16, face.height * 0.05), 0, 0, 180, new Scalar(80, 70, 170), -1);
+
+        // Mild noise, real photos are never flat
+        Mat noise = new Mat(size, CvType.CV_8UC3);
+        Core.setRNGSeed(42);
+        Core.randn(noise, 0, 6);
+        Core.add(image, noise, image);
+        noise.release();
+        return image;
+    }
+
+    private static void drawSubject(Mat image, Size size, Scalar shirt, Scalar skin, Scalar hair) {
+        double w = size.width;
+        double h = size.height;
+
+        // Shoulders and torso
+        MatOfPoint torso = new MatOfPoint(
+                new Point(w * 0.10, h), new Point(w * 0.18, h * 0.70), new Point(w * 0.40, h * 0.62),
+                new Point(w * 0.60, h * 0.62), new Point(w * 0.82, h * 0.70), new Point(w * 0.90, h));
+        Imgproc.fillConvexPoly(image, torso, shirt);
+        torso.release();
+
+        // Neck, hair and face
+        Imgproc.rectangle(image, new Point(w * 0.43, h * 0.50), new Point(w * 0.57, h * 0.66), skin, -1);
+        Rect face = faceRect(size);
+        Point center = new Point(face.x + face.width / 2.0, face.y + face.height / 2.0);
+        Imgproc.ellipse(image, new Point(center.x, center.y - face.height * 0.08),
+                new Size(face.width * 0.56, face.height * 0.56), 0, 0, 360, hair, -1);
+        Imgproc.ellipse(image, center, new Size(face.width / 2.0, face.height / 2.0), 0, 0, 360, skin, -1);
+    }
+
+    private static Mat readResource(String name) throws IOException {
+        try (InputStream in = Portraits.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Missing benchmark resource " + name);
+            }
+            MatOfByte buffer = new MatOfByte(in.readAllBytes());
+            Mat image = Imgcodecs.imdecode(buffer, Imgcodecs.IMREAD_COLOR);
+            buffer.release();
+            return image;
+        }
+    }
+}
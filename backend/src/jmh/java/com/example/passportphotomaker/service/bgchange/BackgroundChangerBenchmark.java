@@ -0,0 +1,82 @@
+package com.example.passportphotomaker.service.bgchange;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.passportphotomaker.bench.Portraits;
+
+/**
+ * Compositing a cut-out portrait onto a solid color and onto a background
+ * image. The background image has a different size and aspect ratio than the
+ * portrait, so it always goes through the cover fit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BackgroundChangerBenchmark {
+    @Param({Portraits.SYNTHETIC, Portraits.SAMPLE})
+    public String source;
+
+    @Param({"600", "1200", "2400"})
+    public int size;
+
+    private Mat foreground;
+    private Mat background;
+
+    @Setup
+    public void setUp() throws IOException {
+        Mat image = Portraits.load(source, size);
+        Mat mask = Portraits.subjectMask(image.size());
+        Imgproc.GaussianBlur(mask, mask, new Size(5, 5), 0);
+        foreground = Portraits.withAlpha(image, mask);
+        mask.release();
+        image.release();
+
+        // A landscape background, mirrored so it doesn't line up with the subject
+        background = Portraits.load(Portraits.SYNTHETIC, size * 3 / 4);
+        Imgproc.resize(background, background, new Size(size * 4 / 3, size * 3 / 4));
+        Core.flip(background, background, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        background.release();
+        foreground.release();
+    }
+
+    @Benchmark
+    public void compositeOnColor(Blackhole blackhole) {
+        consume(blackhole, BackgroundChanger.compositeOnColor(foreground, "#ffffff"));
+    }
+
+    @Benchmark
+    public void compositeOnImage(Blackhole blackhole) {
+        consume(blackhole, BackgroundChanger.compositeOnImage(foreground, background));
+    }
+
+    private static void consume(Blackhole blackhole, Mat result) {
+        blackhole.consume(result.dataAddr());
+        result.release();
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.passportphotomaker.service.bgremove;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.passportphotomaker.bench.Portraits;
+import com.example.passportphotomaker.service.ImageContext;
+
+/**
+ * The OpenCV background removal engine: the whole removal, GrabCut on its own,
+ * and the matting steps that turn a mask into the transparent result. The
+ * matting steps start from a known subject mask with soft edges, so they don't
+ * depend on how well segmentation did.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BackgroundRemoverBenchmark {
+    @Param({Portraits.SYNTHETIC, Portraits.SAMPLE})
+    public String source;
+
+    @Param({"600", "1200", "2400"})
+    public int size;
+
+    private OpenCVBackgroundRemover remover;
+    private Mat image;
+    private Mat mask;
+    private Mat alphaMatte;
+    private Rect face;
+
+    @Setup
+    public void setUp() throws IOException {
+        image = Portraits.load(source, size);
+        face = Portraits.faceRect(image.size());
+        mask = Portraits.subjectMask(image.size());
+        Imgproc.GaussianBlur(mask, mask, new Size(5, 5), 0);
+        remover = new OpenCVBackgroundRemover(false);
+        alphaMatte = remover.createAlphaMatte(mask);
+    }
+
+    @TearDown
+    public void tearDown() {
+        remover.close();
+        alphaMatte.release();
+        mask.release();
+        image.release();
+    }
+
+    @Benchmark
+    public void removeBackground(Blackhole blackhole) throws IOException {
+        try (ImageContext context = new ImageContext(image)) {
+            consume(blackhole, remover.removeBackground(context));
+        }
+    }
+
+    @Benchmark
+    public void grabCut(Blackhole blackhole) {
+        consume(blackhole, remover.applyGrabCut(image, mask, face));
+    }
+
+    @Benchmark
+    public void refineMaskEdges(Blackhole blackhole) {
+        consume(blackhole, remover.refineMaskEdges(image, mask));
+    }
+
+    @Benchmark
+    public void createAlphaMatte(Blackhole blackhole) {
+        consume(blackhole, remover.createAlphaMatte(mask));
+    }
+
+    @Benchmark
+    public void createTransparentImage(Blackhole blackhole) {
+        consume(blackhole, remover.createTransparentImage(image, alphaMatte));
+    }
+
+    private static void consume(Blackhole blackhole, Mat result) {
+        blackhole.consume(result.dataAddr());
+        result.release();
+    }
+}
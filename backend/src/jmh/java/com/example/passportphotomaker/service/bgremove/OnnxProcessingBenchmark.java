@@ -0,0 +1,87 @@
+package com.example.passportphotomaker.service.bgremove;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.passportphotomaker.bench.Portraits;
+import com.example.passportphotomaker.service.ImageContext;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+
+/**
+ * The work the ONNX engine does around inference: scaling the image to the
+ * model input and converting it to a normalized tensor, and turning the
+ * model's output back into a mask at full size. Inference itself needs the
+ * model file, which isn't part of the repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OnnxProcessingBenchmark {
+    private static final int MODEL_SIZE = 320;
+
+    @Param({Portraits.SYNTHETIC, Portraits.SAMPLE})
+    public String source;
+
+    @Param({"600", "1200", "2400"})
+    public int size;
+
+    private Mat image;
+    private OnnxTensor output;
+
+    @Setup
+    public void setUp() throws IOException, OrtException {
+        image = Portraits.load(source, size);
+
+        // A model output with values all over the probability range
+        float[] values = new float[MODEL_SIZE * MODEL_SIZE];
+        Random random = new Random(42);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextFloat();
+        }
+        output = OnnxTensor.createTensor(OrtEnvironment.getEnvironment(), FloatBuffer.wrap(values),
+                new long[]{1, 1, MODEL_SIZE, MODEL_SIZE});
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.close();
+        image.release();
+    }
+
+    @Benchmark
+    public FloatBuffer preprocess() {
+        try (ImageContext context = new ImageContext(image)) {
+            return DirectOnnxBackgroundRemover.preprocessImage(context.getModelInput(MODEL_SIZE));
+        }
+    }
+
+    @Benchmark
+    public void postprocess(Blackhole blackhole) {
+        Mat mask = DirectOnnxBackgroundRemover.postprocessMask(output, image.width(), image.height());
+        blackhole.consume(mask.dataAddr());
+        mask.release();
+    }
+}
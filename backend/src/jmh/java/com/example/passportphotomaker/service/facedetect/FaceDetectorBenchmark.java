@@ -0,0 +1,61 @@
+package com.example.passportphotomaker.service.facedetect;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import com.example.passportphotomaker.bench.Portraits;
+import com.example.passportphotomaker.service.ImageContext;
+
+/**
+ * Face detection with the bundled cascade classifiers. Every invocation gets a
+ * fresh ImageContext, so the grayscale pyramid the detector works on is measured too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FaceDetectorBenchmark {
+    @Param({Portraits.SYNTHETIC, Portraits.SAMPLE})
+    public String source;
+
+    @Param({"600", "1200", "2400"})
+    public int size;
+
+    private Mat image;
+    private FaceDetector detector;
+
+    @Setup
+    public void setUp() throws IOException {
+        image = Portraits.load(source, size);
+        detector = new FaceDetector(false, CascadePool.load(new DefaultResourceLoader(), 1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        image.release();
+    }
+
+    @Benchmark
+    public Object detectFace() throws IOException {
+        try (ImageContext context = new ImageContext(image)) {
+            return detector.detectFace(context);
+        }
+    }
+}
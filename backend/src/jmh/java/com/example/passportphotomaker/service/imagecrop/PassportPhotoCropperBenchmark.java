@@ -0,0 +1,75 @@
+package com.example.passportphotomaker.service.imagecrop;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.passportphotomaker.bench.Portraits;
+import com.example.passportphotomaker.service.ImageContext;
+
+/**
+ * Cropping and scaling to the passport format. Every invocation gets a fresh
+ * ImageContext, so building the pyramid levels the cropper reads is measured too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PassportPhotoCropperBenchmark {
+    @Param({Portraits.SYNTHETIC, Portraits.SAMPLE})
+    public String source;
+
+    @Param({"600", "1200", "2400"})
+    public int size;
+
+    @Param({"35x45", "2x2"})
+    public String format;
+
+    private Mat image;
+    private Rect face;
+    private PassportPhotoCropper cropper;
+
+    @Setup
+    public void setUp() throws IOException {
+        image = Portraits.load(source, size);
+        face = Portraits.faceRect(image.size());
+        cropper = new PassportPhotoCropper(false);
+        if ("2x2".equals(format)) {
+            cropper.setPhotoFormat(format, 2, 2, "inch");
+        } else {
+            cropper.setPhotoFormat(format, 35, 45, "mm");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        cropper.close();
+        image.release();
+    }
+
+    @Benchmark
+    public void crop(Blackhole blackhole) {
+        try (ImageContext context = new ImageContext(image)) {
+            Mat result = cropper.cropToPassportFormat(context, face);
+            blackhole.consume(result.dataAddr());
+            result.release();
+        }
+    }
+}
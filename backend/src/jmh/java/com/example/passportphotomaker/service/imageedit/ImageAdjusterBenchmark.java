@@ -0,0 +1,71 @@
+package com.example.passportphotomaker.service.imageedit;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.passportphotomaker.bench.Portraits;
+
+/**
+ * Brightness, contrast and saturation adjustment, as run by the adjust-photo
+ * endpoint on every slider move
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageAdjusterBenchmark {
+    @Param({Portraits.SYNTHETIC, Portraits.SAMPLE})
+    public String source;
+
+    @Param({"600", "1200", "2400"})
+    public int size;
+
+    private Mat image;
+
+    @Setup
+    public void setUp() throws IOException {
+        image = Portraits.load(source, size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        image.release();
+    }
+
+    @Benchmark
+    public void adjustAll(Blackhole blackhole) {
+        consume(blackhole, ImageAdjuster.applyAdjustments(image, 15, 1.2, 1.3));
+    }
+
+    @Benchmark
+    public void adjustBrightnessOnly(Blackhole blackhole) {
+        consume(blackhole, ImageAdjuster.applyAdjustments(image, 15, 1.0, 1.0));
+    }
+
+    @Benchmark
+    public void adjustNothing(Blackhole blackhole) {
+        consume(blackhole, ImageAdjuster.applyAdjustments(image, 0, 1.0, 1.0));
+    }
+
+    private static void consume(Blackhole blackhole, Mat result) {
+        blackhole.consume(result.dataAddr());
+        result.release();
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.passportphotomaker.loadtest;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency percentiles, error rate and throughput of a set of requests.
+ * Percentiles only cover successful requests, so fast rejections under
+ * overload show up in the error rate instead of flattering the latencies.
+ */
+public class LatencySummary {
+    private final int requests;
+    private final int errors;
+    private final double throughput;
+    private final double[] percentiles;
+    private final double max;
+    private final Map<Integer, Integer> errorStatuses = new TreeMap<>();
+
+    private LatencySummary(List<LoadTest.Sample> samples, Duration window) {
+        long[] latencies = new long[samples.size()];
+        int successes = 0;
+        for (LoadTest.Sample sample : samples) {
+            if (sample.isSuccess()) {
+                latencies[successes++] = sample.latencyNanos;
+            } else {
+                errorStatuses.merge(sample.status, 1, Integer::sum);
+            }
+        }
+        Arrays.sort(latencies, 0, successes);
+
+        this.requests = samples.size();
+        this.errors = requests - successes;
+        this.throughput = successes / (window.toNanos() / 1e9);
+        this.percentiles = new double[]{
+                millis(percentile(latencies, successes, 50)),
+                millis(percentile(latencies, successes, 95)),
+                millis(percentile(latencies, successes, 99))};
+        this.max = successes > 0 ? millis(latencies[successes - 1]) : Double.NaN;
+    }
+
+    /**
+     * Summarize requests that completed within a measurement window
+     *
+     * @param window Length of the window, for the throughput
+     */
+    public static LatencySummary of(List<LoadTest.Sample> samples, Duration window) {
+        return new LatencySummary(samples, window);
+    }
+
+    public int getRequests() {
+        return requests;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+
+    /**
+     * Errors as a fraction of all requests
+     */
+    public double getErrorRate() {
+        return requests == 0 ? 0 : (double) errors / requests;
+    }
+
+    /**
+     * Successful requests per second
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public double getP50() {
+        return percentiles[0];
+    }
+
+    public double getP95() {
+        return percentiles[1];
+    }
+
+    public double getP99() {
+        return percentiles[2];
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Number of failed requests by HTTP status, -1 for requests that got no response
+     */
+    public Map<Integer, Integer> getErrorStatuses() {
+        return errorStatuses;
+    }
+
+    /**
+     * Nearest-rank percentile of the first count sorted values
+     */
+    private static long percentile(long[] sorted, int count, double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos < 0 ? Double.NaN : nanos / 1e6;
+    }
+}
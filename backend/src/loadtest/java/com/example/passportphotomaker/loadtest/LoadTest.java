@@ -0,0 +1,254 @@
+package com.example.passportphotomaker.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test against a running application. Replays a weighted mix
+ * of photo processing, background change and adjustment requests, stepping
+ * through a list of concurrency levels, and reports latency percentiles, error
+ * rate and throughput per level together with the server's peak RSS.
+ *
+ * Without a rate every client sends its next request as soon as the previous
+ * one returns. With a rate, requests are scheduled at fixed intervals over all
+ * clients and latency is measured from the scheduled time, so time spent
+ * waiting for a free client counts when the server can't keep up.
+ *
+ * Run: mvn -Ploadtest test-compile exec:exec -Dloadtest.args="--concurrency=1,4,16 --duration=60s"
+ */
+public class LoadTest {
+    private static final String TABLE_FORMAT = "%7s  %-10s %8s %7s %6s %8s %9s %9s %9s %9s %8s%n";
+    private static final String ROW_FORMAT = "%7d  %-10s %8d %7d %5.1f%% %8.2f %9.1f %9.1f %9.1f %9.1f %8s%n";
+
+    private final LoadTestOptions options;
+    private final HttpClient client;
+    private final Map<Scenario, byte[]> bodies = new EnumMap<>(Scenario.class);
+    private final Scenario[] weighted;
+    private final AtomicLong requestIds = new AtomicLong();
+
+    /**
+     * One completed request
+     */
+    static final class Sample {
+        final Scenario scenario;
+        // HTTP status, -1 if no response arrived
+        final int status;
+        final long latencyNanos;
+
+        Sample(Scenario scenario, int status, long latencyNanos) {
+            this.scenario = scenario;
+            this.status = status;
+            this.latencyNanos = latencyNanos;
+        }
+
+        boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    LoadTest(LoadTestOptions options) throws IOException {
+        this.options = options;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        byte[] image = Files.readAllBytes(options.image);
+        String imageName = options.image.getFileName().toString();
+        List<Scenario> weighted = new ArrayList<>();
+        for (Map.Entry<Scenario, Integer> entry : options.mix.entrySet()) {
+            bodies.put(entry.getKey(), entry.getKey().body(image, imageName));
+            for (int i = 0; i < entry.getValue(); i++) {
+                weighted.add(entry.getKey());
+            }
+        }
+        this.weighted = weighted.toArray(new Scenario[0]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && ("--help".equals(args[0]) || "-h".equals(args[0]))) {
+            System.out.println(LoadTestOptions.USAGE);
+            return;
+        }
+        LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadTestOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        new LoadTest(options).run();
+    }
+
+    void run() throws IOException, InterruptedException {
+        checkServer();
+        Files.createDirectories(options.out);
+
+        Optional<RssSampler> rss = RssSampler.start(options.pid, options.rssInterval);
+        System.out.printf("Load test against %s, mix %s, %s%n", options.baseUrl, options.mix,
+                options.rate > 0 ? options.rate + " requests/s" : "closed loop");
+        System.out.println(rss.map(sampler -> "Sampling RSS of process " + sampler.getPid())
+                .orElse("RSS not sampled, no server process found (pass --pid)"));
+        System.out.printf("Every step: %ds warmup, %ds measured%n%n",
+                options.warmup.toSeconds(), options.duration.toSeconds());
+        System.out.printf(TABLE_FORMAT, "clients", "scenario", "requests", "errors", "err", "req/s",
+                "p50 ms", "p95 ms", "p99 ms", "max ms", "RSS MB");
+
+        List<String> csv = new ArrayList<>();
+        csv.add("clients,scenario,requests,errors,error_rate,throughput,p50_ms,p95_ms,p99_ms,max_ms,peak_rss_mb");
+        try {
+            for (int clients : options.concurrency) {
+                rss.ifPresent(sampler -> sampler.beginStep("c" + clients));
+                List<Sample> samples = runStep(clients);
+                String peakRss = rss.map(sampler -> String.format("%.0f", sampler.getStepPeakKb() / 1024.0))
+                        .orElse("");
+                report(clients, samples, peakRss, csv);
+            }
+        } finally {
+            rss.ifPresent(RssSampler::close);
+        }
+
+        Files.write(options.out.resolve("summary.csv"), csv);
+        if (rss.isPresent()) {
+            rss.get().writeCsv(options.out.resolve("rss.csv"));
+        }
+        System.out.println();
+        System.out.println("Results written to " + options.out.toAbsolutePath());
+    }
+
+    /**
+     * Run the mix with a number of concurrent clients, for the warmup and the
+     * measured duration
+     *
+     * @return The requests scheduled within the measured part
+     */
+    private List<Sample> runStep(int clients) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + options.warmup.toNanos();
+        long end = measureFrom + options.duration.toNanos();
+        AtomicLong slots = new AtomicLong();
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<List<Sample>>> workers = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Random random = new Random(31L * clients + i);
+            workers.add(pool.submit(() -> runClient(clients, random, start, measureFrom, end, slots)));
+        }
+        pool.shutdown();
+
+        List<Sample> samples = new ArrayList<>();
+        for (Future<List<Sample>> worker : workers) {
+            try {
+                samples.addAll(worker.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Load test client failed", e.getCause());
+            }
+        }
+        return samples;
+    }
+
+    private List<Sample> runClient(int clients, Random random, long start, long measureFrom, long end,
+            AtomicLong slots) {
+        List<Sample> samples = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            long scheduled = options.rate > 0
+                    ? start + (long) (slots.getAndIncrement() * 1e9 / options.rate)
+                    : System.nanoTime();
+            if (scheduled >= end) {
+                break;
+            }
+            waitUntil(scheduled);
+
+            Scenario scenario = weighted[random.nextInt(weighted.length)];
+            String requestId = "lt-c" + clients + "-" + requestIds.incrementAndGet();
+            HttpRequest request = scenario.request(options.baseUrl, bodies.get(scenario), requestId,
+                    options.timeout);
+            int status;
+            try {
+                status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (IOException e) {
+                status = -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long latency = System.nanoTime() - scheduled;
+            if (scheduled >= measureFrom) {
+                samples.add(new Sample(scenario, status, latency));
+            }
+        }
+        return samples;
+    }
+
+    private void report(int clients, List<Sample> samples, String peakRss, List<String> csv) {
+        Map<Scenario, List<Sample>> byScenario = new EnumMap<>(Scenario.class);
+        for (Sample sample : samples) {
+            byScenario.computeIfAbsent(sample.scenario, scenario -> new ArrayList<>()).add(sample);
+        }
+
+        LatencySummary all = LatencySummary.of(samples, options.duration);
+        printRow(clients, "all", all, peakRss, csv);
+        for (Map.Entry<Scenario, List<Sample>> entry : byScenario.entrySet()) {
+            printRow(clients, entry.getKey().getKey(), LatencySummary.of(entry.getValue(), options.duration), "",
+                    csv);
+        }
+        if (!all.getErrorStatuses().isEmpty()) {
+            System.out.printf("%7s  errors by status (-1 = no response): %s%n", "", all.getErrorStatuses());
+        }
+    }
+
+    private static void printRow(int clients, String scenario, LatencySummary summary, String peakRss,
+            List<String> csv) {
+        System.out.printf(ROW_FORMAT, clients, scenario, summary.getRequests(), summary.getErrors(),
+                summary.getErrorRate() * 100, summary.getThroughput(), summary.getP50(), summary.getP95(),
+                summary.getP99(), summary.getMax(), peakRss);
+        csv.add(String.format("%d,%s,%d,%d,%.4f,%.3f,%.1f,%.1f,%.1f,%.1f,%s", clients, scenario,
+                summary.getRequests(), summary.getErrors(), summary.getErrorRate(), summary.getThroughput(),
+                summary.getP50(), summary.getP95(), summary.getP99(), summary.getMax(), peakRss));
+    }
+
+    /**
+     * Fail early with a clear message if nothing listens at the configured URL
+     */
+    private void checkServer() throws IOException, InterruptedException {
+        HttpRequest health = HttpRequest.newBuilder(URI.create(options.baseUrl + "/actuator/health"))
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+        int status;
+        try {
+            status = client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            throw new IOException("Application not reachable at " + options.baseUrl + ", start it first", e);
+        }
+        if (status != 200) {
+            throw new IOException("Application at " + options.baseUrl + " isn't healthy (HTTP " + status + ")");
+        }
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
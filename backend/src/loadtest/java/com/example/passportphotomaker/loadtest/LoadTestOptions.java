@@ -0,0 +1,152 @@
+package com.example.passportphotomaker.loadtest;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line options of the load test, given as --name=value
+ */
+public class LoadTestOptions {
+    static final String USAGE = String.join("\n",
+            "Options (all optional):",
+            "  --url=http://localhost:8080       where the application runs",
+            "  --image=<file>                    photo to upload, defaults to the benchmark sample portrait",
+            "  --concurrency=1,2,4,8             concurrent clients, one step per value",
+            "  --rate=0                          requests per second over all clients, 0 sends back to back",
+            "  --warmup=10s                      unmeasured time at the start of every step",
+            "  --duration=30s                    measured time of every step",
+            "  --mix=process=4,background=3,adjust=3",
+            "                                    relative share of each scenario",
+            "  --pid=<pid>                       server process for RSS sampling, found by name if omitted",
+            "  --rss-interval=1s                 how often RSS is sampled",
+            "  --timeout=120s                    request timeout, a timed out request counts as an error",
+            "  --out=target/loadtest             where summary.csv and rss.csv are written");
+
+    String baseUrl = "http://localhost:8080";
+    Path image = Paths.get("src/fixtures/portraits/sample-portrait.png");
+    List<Integer> concurrency = List.of(1, 2, 4, 8);
+    double rate = 0;
+    Duration warmup = Duration.ofSeconds(10);
+    Duration duration = Duration.ofSeconds(30);
+    Map<Scenario, Integer> mix = defaultMix();
+    long pid = 0;
+    Duration rssInterval = Duration.ofSeconds(1);
+    Duration timeout = Duration.ofSeconds(120);
+    Path out = Paths.get("target/loadtest");
+
+    static LoadTestOptions parse(String[] args) {
+        LoadTestOptions options = new LoadTestOptions();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "url":
+                    options.baseUrl = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                    break;
+                case "image":
+                    options.image = Paths.get(value);
+                    break;
+                case "concurrency":
+                    options.concurrency = parseConcurrency(value);
+                    break;
+                case "rate":
+                    options.rate = Double.parseDouble(value);
+                    break;
+                case "warmup":
+                    options.warmup = parseDuration(value);
+                    break;
+                case "duration":
+                    options.duration = parseDuration(value);
+                    break;
+                case "mix":
+                    options.mix = parseMix(value);
+                    break;
+                case "pid":
+                    options.pid = Long.parseLong(value);
+                    break;
+                case "rss-interval":
+                    options.rssInterval = parseDuration(value);
+                    break;
+                case "timeout":
+                    options.timeout = parseDuration(value);
+                    break;
+                case "out":
+                    options.out = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+        if (options.duration.isZero() || options.duration.isNegative()) {
+            throw new IllegalArgumentException("--duration must be positive");
+        }
+        if (options.rate < 0) {
+            throw new IllegalArgumentException("--rate can't be negative");
+        }
+        return options;
+    }
+
+    /**
+     * A duration like 500ms, 30s or 2m, plain numbers are seconds
+     */
+    static Duration parseDuration(String value) {
+        String text = value.trim().toLowerCase();
+        if (text.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+        }
+        if (text.endsWith("s")) {
+            return Duration.ofSeconds(Long.parseLong(text.substring(0, text.length() - 1)));
+        }
+        if (text.endsWith("m")) {
+            return Duration.ofMinutes(Long.parseLong(text.substring(0, text.length() - 1)));
+        }
+        return Duration.ofSeconds(Long.parseLong(text));
+    }
+
+    private static List<Integer> parseConcurrency(String value) {
+        List<Integer> steps = new ArrayList<>();
+        for (String part : value.split(",")) {
+            int clients = Integer.parseInt(part.trim());
+            if (clients < 1) {
+                throw new IllegalArgumentException("Concurrency must be at least 1: " + value);
+            }
+            steps.add(clients);
+        }
+        return steps;
+    }
+
+    private static Map<Scenario, Integer> parseMix(String value) {
+        Map<Scenario, Integer> mix = new EnumMap<>(Scenario.class);
+        for (String part : value.split(",")) {
+            String[] pair = part.split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected scenario=weight in --mix, got: " + part);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) {
+                mix.put(Scenario.of(pair[0].trim()), weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("--mix needs at least one scenario with a positive weight");
+        }
+        return mix;
+    }
+
+    private static Map<Scenario, Integer> defaultMix() {
+        Map<Scenario, Integer> mix = new EnumMap<>(Scenario.class);
+        mix.put(Scenario.PROCESS, 4);
+        mix.put(Scenario.BACKGROUND, 3);
+        mix.put(Scenario.ADJUST, 3);
+        return mix;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.passportphotomaker.loadtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the resident set size of the server process from /proc/<pid>/status
+ * while the load test runs. The JVM's own heap metrics miss the native memory
+ * OpenCV and ONNX Runtime allocate, RSS covers all of it.
+ */
+public class RssSampler implements AutoCloseable {
+    private final long pid;
+    private final long startNanos = System.nanoTime();
+    private final List<String> rows = new ArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private volatile String step = "";
+    private long stepPeakKb;
+
+    private RssSampler(long pid, Duration interval) {
+        this.pid = pid;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rss-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::sample, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start sampling, if the process can be read
+     *
+     * @param pid The server process, 0 to look for it by its command line
+     * @return The sampler, or empty if RSS can't be sampled on this machine
+     */
+    public static Optional<RssSampler> start(long pid, Duration interval) {
+        long serverPid = pid > 0 ? pid : findServer().orElse(0L);
+        if (serverPid <= 0 || readRssKb(serverPid) < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new RssSampler(serverPid, interval));
+    }
+
+    public long getPid() {
+        return pid;
+    }
+
+    /**
+     * Attribute the following samples to a load step and reset its peak
+     */
+    public synchronized void beginStep(String step) {
+        this.step = step;
+        this.stepPeakKb = 0;
+    }
+
+    /**
+     * The highest RSS seen since the step began, in kB
+     */
+    public synchronized long getStepPeakKb() {
+        return stepPeakKb;
+    }
+
+    /**
+     * Write the samples as CSV: seconds since start, step, RSS in MB
+     */
+    public synchronized void writeCsv(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("seconds,step,rss_mb");
+        lines.addAll(rows);
+        Files.write(file, lines);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private synchronized void sample() {
+        long rssKb = readRssKb(pid);
+        if (rssKb < 0) {
+            return;
+        }
+        stepPeakKb = Math.max(stepPeakKb, rssKb);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        rows.add(String.format("%.1f,%s,%.1f", seconds, step, rssKb / 1024.0));
+    }
+
+    private static long readRssKb(long pid) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", Long.toString(pid), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux, or the process is gone
+        }
+        return -1;
+    }
+
+    /**
+     * The running application, recognized by its jar or main class
+     */
+    private static Optional<Long> findServer() {
+        long self = ProcessHandle.current().pid();
+        return ProcessHandle.allProcesses()
+                .filter(process -> process.pid() != self)
+                .filter(process -> process.info().commandLine()
+                        .map(RssSampler::isServerCommand)
+                        .orElse(false))
+                .map(ProcessHandle::pid)
+                .findFirst();
+    }
+
+    private static boolean isServerCommand(String command) {
+        // Maven itself may run from a directory with the same name
+        if (command.contains("classworlds") || command.contains(LoadTest.class.getName())) {
+            return false;
+        }
+        return command.contains("PassportPhotoMakerApplication")
+                || command.matches(".*passport-photo-maker[^ /]*\\.jar.*");
+    }
+}
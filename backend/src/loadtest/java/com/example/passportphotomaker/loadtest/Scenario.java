@@ -0,0 +1,113 @@
+package com.example.passportphotomaker.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The kinds of request the load test replays. Each one is a multipart upload of
+ * the test image with the form fields the frontend sends for that action.
+ */
+public enum Scenario {
+    /** Background removal and cropping, transparent PNG out */
+    PROCESS("process", "/api/process-photo", fields()),
+    /** The full photo on a new solid background, as JPEG */
+    BACKGROUND("background", "/api/create-photo",
+            fields("backgroundColor", "#3b6fd4", "format", "jpg")),
+    /** A slider move in the editor: adjusted preview of the uploaded photo */
+    ADJUST("adjust", "/api/adjust-photo",
+            fields("brightness", "12", "contrast", "1.15", "saturation", "1.2", "preview", "true",
+                    "maxDimension", "512"));
+
+    private static final String BOUNDARY = "----passport-photo-loadtest";
+
+    private final String key;
+    private final String path;
+    private final Map<String, String> fields;
+
+    Scenario(String key, String path, Map<String, String> fields) {
+        this.key = key;
+        this.path = path;
+        this.fields = fields;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * The scenario with the given name, as used in the --mix option
+     */
+    public static Scenario of(String key) {
+        for (Scenario scenario : values()) {
+            if (scenario.key.equalsIgnoreCase(key)) {
+                return scenario;
+            }
+        }
+        throw new IllegalArgumentException("Unknown scenario: " + key);
+    }
+
+    /**
+     * The multipart body of this scenario, built once and sent with every request
+     *
+     * @param image     The encoded test image
+     * @param imageName File name reported for the upload
+     */
+    public byte[] body(byte[] image, String imageName) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(image.length + 1024);
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            write(body, "--" + BOUNDARY + "\r\n"
+                    + "Content-Disposition: form-data; name=\"" + field.getKey() + "\"\r\n\r\n"
+                    + field.getValue() + "\r\n");
+        }
+        write(body, "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"" + imageName + "\"\r\n"
+                + "Content-Type: " + contentType(imageName) + "\r\n\r\n");
+        body.writeBytes(image);
+        write(body, "\r\n--" + BOUNDARY + "--\r\n");
+        return body.toByteArray();
+    }
+
+    /**
+     * A request of this scenario
+     *
+     * @param baseUrl   Where the application runs, e.g. http://localhost:8080
+     * @param body      The body from {@link #body(byte[], String)}
+     * @param requestId Sent as X-Request-Id, so slow requests can be found in the server log
+     */
+    public HttpRequest request(String baseUrl, byte[] body, String requestId, Duration timeout) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(timeout)
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .header("X-Request-Id", requestId)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    private static Map<String, String> fields(String... pairs) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            fields.put(pairs[i], pairs[i + 1]);
+        }
+        return fields;
+    }
+
+    private static String contentType(String imageName) {
+        String name = imageName.toLowerCase();
+        if (name.endsWith(".png")) {
+            return "image/png";
+        }
+        if (name.endsWith(".webp")) {
+            return "image/webp";
+        }
+        return "image/jpeg";
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) {
+        out.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.passportphotomaker.controller;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.MDC;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.example.passportphotomaker.service.debug.DebugArtifactWriter;
+import com.example.passportphotomaker.service.debug.DebugCapture;
+
+/**
+ * Switches on debug artifact capture for requests that ask for it with the
+ * X-Debug-Capture header or the debug parameter, if the server allows it.
+ * The response names the artifact directory in X-Debug-Artifacts.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class DebugCaptureFilter extends OncePerRequestFilter {
+    public static final String REQUEST_HEADER = "X-Debug-Capture";
+    public static final String RESPONSE_HEADER = "X-Debug-Artifacts";
+
+    private final DebugArtifactWriter writer;
+
+    public DebugCaptureFilter(DebugArtifactWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String requestId = MDC.get(RequestIdFilter.MDC_KEY);
+        if (requestId == null || !(writer.isCaptureAll() || (writer.isAllowed() && isRequested(request)))) {
+            chain.doFilter(request, response);
+            return;
+        }
+        DebugCapture capture = writer.open(requestId);
+        response.setHeader(RESPONSE_HEADER, capture.getDirectoryName());
+        DebugCapture.bind(capture);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            DebugCapture.bind(null);
+        }
+    }
+
+    private static boolean isRequested(HttpServletRequest request) {
+        String header = request.getHeader(REQUEST_HEADER);
+        if (header != null) {
+            return Boolean.parseBoolean(header);
+        }
+        return Boolean.parseBoolean(request.getParameter("debug"));
+    }
+}
@@ -1,32 +1,73 @@
 package com.example.passportphotomaker.controller;
 
 import java.awt.Color;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.example.passportphotomaker.service.EncodedImage;
+import com.example.passportphotomaker.service.PhotoOutput;
 import com.example.passportphotomaker.service.PhotoService;
-import com.example.passportphotomaker.service.bgchange.BackgroundChanger;
+import com.example.passportphotomaker.service.PipelineListener;
+import com.example.passportphotomaker.service.admission.AdmissionController;
+import com.example.passportphotomaker.service.admission.AdmissionRejectedException;
+import com.example.passportphotomaker.service.bgchange.BackgroundAssetCache;
+import com.example.passportphotomaker.service.bgchange.BackgroundSpec;
+import com.example.passportphotomaker.service.metrics.PipelineProfile;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 @RestController
 @RequestMapping("/api")
-@CrossOrigin(origins = "*") // For development purposes
+@CrossOrigin(origins = "*", exposedHeaders = { "Server-Timing", "X-Pipeline-Profile",
+        RequestIdFilter.HEADER, DebugCaptureFilter.RESPONSE_HEADER }) // For development purposes
 public class PhotoController {
+    private static final Logger log = LoggerFactory.getLogger(PhotoController.class);
 
     private final PhotoService photoService;
+    private final AdmissionController admissionController;
+    private final BackgroundAssetCache backgroundAssets;
+    private final ObjectMapper objectMapper;
+
+    // Report the duration of each pipeline stage in a Server-Timing header
+    @Value("${pipeline.timing.server-timing:true}")
+    private boolean serverTimingEnabled;
+
+    // Also report stages, steps and engine as JSON in an X-Pipeline-Profile header
+    @Value("${pipeline.timing.profile-header:false}")
+    private boolean profileHeaderEnabled;
 
     @Autowired
-    public PhotoController(PhotoService photoService) {
+    public PhotoController(PhotoService photoService, AdmissionController admissionController,
+            BackgroundAssetCache backgroundAssets, ObjectMapper objectMapper) {
         this.photoService = photoService;
+        this.admissionController = admissionController;
+        this.backgroundAssets = backgroundAssets;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping("/process-photo")
@@ -35,19 +76,32 @@ public class PhotoController {
             @RequestParam(value = "format", defaultValue = "png") String format,
             @RequestParam(value = "backgroundColor", required = false) String backgroundColor,
             @RequestParam(value = "backgroundImg", required = false) MultipartFile backgroundImg,
+            @RequestParam(value = "bgScale", required = false) Double bgScale,
+            @RequestParam(value = "bgOffsetX", defaultValue = "0") double bgOffsetX,
+            @RequestParam(value = "bgOffsetY", defaultValue = "0") double bgOffsetY,
             @RequestParam(value = "photoFormat", required = false) String photoFormat,
             @RequestParam(value = "photoWidth", required = false) Double photoWidth,
             @RequestParam(value = "photoHeight", required = false) Double photoHeight,
-            @RequestParam(value = "photoUnit", required = false) String photoUnit)
+            @RequestParam(value = "photoUnit", required = false) String photoUnit,
+            @RequestParam(value = "output", required = false) String output,
+            HttpServletResponse response)
             throws IOException {
+        PipelineProfile profile = PipelineProfile.begin();
         try {
-            if (file.isEmpty()) {
+            if (file.isEmpty() || (bgScale != null && bgScale <= 0)) {
+                return ResponseEntity.badRequest().build();
+            }
+
+            PhotoOutput outputMode;
+            try {
+                outputMode = PhotoOutput.fromParameter(output);
+            } catch (IllegalArgumentException e) {
                 return ResponseEntity.badRequest().build();
             }
 
             // Log the received parameters for debugging
-            System.out.println("Received photo format: " + photoFormat);
-            System.out.println("Received photo dimensions: " + photoWidth + "x" + photoHeight + " " + photoUnit);
+            log.debug("Received photo format: {}, dimensions: {}x{} {}", photoFormat, photoWidth, photoHeight,
+                    photoUnit);
             
             // Determine what we're doing - removing background or changing background
             boolean isBackgroundChangeRequest = backgroundColor != null || backgroundImg != null;
@@ -61,12 +115,18 @@ public class PhotoController {
                 
                 if (backgroundColor != null && !backgroundColor.isEmpty()) {
                     // Apply color background
-                    System.out.println("Applying color background: " + backgroundColor);
-                    processedImageBytes = BackgroundChanger.addSolidColorBackground(file.getBytes(), backgroundColor);
+                    log.debug("Applying color background: {}", backgroundColor);
+                    processedImageBytes = photoService.applyBackground(file.getBytes(),
+                            BackgroundSpec.color(backgroundColor));
                 } else if (backgroundImg != null && !backgroundImg.isEmpty()) {
                     // Apply image background
-                    System.out.println("Applying image background: " + backgroundImg.getOriginalFilename());
-                    processedImageBytes = BackgroundChanger.addBackgroundImg(file.getBytes(), backgroundImg);
+                    log.debug("Applying image background: {}", backgroundImg.getOriginalFilename());
+                    byte[] backgroundBytes = backgroundImg.getBytes();
+                    if (!isValidBackground(backgroundBytes)) {
+                        return ResponseEntity.badRequest().build();
+                    }
+                    processedImageBytes = photoService.applyBackground(file.getBytes(),
+                            withPlacement(BackgroundSpec.image(backgroundBytes), bgScale, bgOffsetX, bgOffsetY));
                 } else {
                     // No background specified, just use the original image
                     processedImageBytes = file.getBytes();
@@ -75,6 +135,19 @@ public class PhotoController {
                 return ResponseEntity.ok()
                         .contentType(mediaType)
                         .body(processedImageBytes);
+            } else if (outputMode != PhotoOutput.RGBA) {
+                // Smaller payloads: the matte alone, or a JPEG color layer plus the matte
+                photoService.validateInputFile(file);
+                List<EncodedImage> layers = photoService.processImageLayers(file.getBytes(), photoFormat,
+                        photoWidth, photoHeight, photoUnit, outputMode, PipelineListener.NONE);
+
+                if (outputMode == PhotoOutput.MASK) {
+                    return ResponseEntity.ok()
+                            .contentType(MediaType.IMAGE_PNG)
+                            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=passport-photo-mask.png")
+                            .body(layers.get(0).getData());
+                }
+                return multipartResponse(layers, "color", "alpha");
             } else {
                 // This is a regular background removal request - process as before
                 byte[] imageBytes = photoService.processImage(file, photoFormat, photoWidth, photoHeight, photoUnit);
@@ -84,45 +157,284 @@ public class PhotoController {
                         .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=passport-photo." + format)
                         .body(imageBytes);
             }
+        } catch (AdmissionRejectedException e) {
+            return admissionRejectedResponse(e);
+        } catch (IOException e) {
+            log.error("Error processing photo", e);
+            return ResponseEntity.status(500).build();
+        } finally {
+            addTimingHeaders(response, profile);
+        }
+    }
+
+    /**
+     * Full pipeline in one call: background removal, new background, adjustments
+     * and a single final encode, all on the same in-memory image.
+     */
+    @PostMapping("/create-photo")
+    public ResponseEntity<byte[]> createPhoto(
+            @RequestParam("image") MultipartFile file,
+            @RequestParam(value = "format", defaultValue = "png") String format,
+            @RequestParam(value = "backgroundColor", required = false) String backgroundColor,
+            @RequestParam(value = "backgroundImg", required = false) MultipartFile backgroundImg,
+            @RequestParam(value = "backgroundAsset", required = false) String backgroundAsset,
+            @RequestParam(value = "backgroundStyle", required = false) String backgroundStyle,
+            @RequestParam(value = "blurStrength", defaultValue = "8") double blurStrength,
+            @RequestParam(value = "gradientFrom", defaultValue = "#FFFFFF") String gradientFrom,
+            @RequestParam(value = "gradientTo", defaultValue = "#C8D3DF") String gradientTo,
+            @RequestParam(value = "gradientAngle", defaultValue = "90") double gradientAngle,
+            @RequestParam(value = "bgScale", required = false) Double bgScale,
+            @RequestParam(value = "bgOffsetX", defaultValue = "0") double bgOffsetX,
+            @RequestParam(value = "bgOffsetY", defaultValue = "0") double bgOffsetY,
+            @RequestParam(value = "brightness", defaultValue = "0") double brightness,
+            @RequestParam(value = "contrast", defaultValue = "1") double contrast,
+            @RequestParam(value = "saturation", defaultValue = "1") double saturation,
+            @RequestParam(value = "photoFormat", required = false) String photoFormat,
+            @RequestParam(value = "photoWidth", required = false) Double photoWidth,
+            @RequestParam(value = "photoHeight", required = false) Double photoHeight,
+            @RequestParam(value = "photoUnit", required = false) String photoUnit,
+            HttpServletResponse response) {
+        PipelineProfile profile = PipelineProfile.begin();
+        try {
+            photoService.validateInputFile(file);
+            if (bgScale != null && bgScale <= 0) {
+                return ResponseEntity.badRequest().build();
+            }
+
+            BackgroundSpec background = null;
+            if (backgroundImg != null && !backgroundImg.isEmpty()) {
+                byte[] backgroundBytes = backgroundImg.getBytes();
+                if (!isValidBackground(backgroundBytes)) {
+                    return ResponseEntity.badRequest().build();
+                }
+                background = BackgroundSpec.image(backgroundBytes);
+            } else if (backgroundAsset != null && !backgroundAsset.isEmpty()) {
+                // Resolved once here, so an unknown name is a bad request rather than a pipeline failure
+                try {
+                    background = BackgroundSpec.file(backgroundAssets.resolveAsset(backgroundAsset));
+                } catch (IOException e) {
+                    log.debug("Rejected background asset: {}", e.getMessage());
+                    return ResponseEntity.badRequest().build();
+                }
+            } else if (backgroundStyle != null && !backgroundStyle.isEmpty()) {
+                // Built-in backgrounds rendered at the output size, no upload needed
+                switch (backgroundStyle.toLowerCase()) {
+                    case "blur":
+                        background = BackgroundSpec.blurredOriginal(blurStrength);
+                        break;
+                    case "linear-gradient":
+                        background = BackgroundSpec.linearGradient(gradientFrom, gradientTo, gradientAngle);
+                        break;
+                    case "radial-gradient":
+                        background = BackgroundSpec.radialGradient(gradientFrom, gradientTo);
+                        break;
+                    default:
+                        return ResponseEntity.badRequest().build();
+                }
+            } else if (backgroundColor != null && !backgroundColor.isEmpty()) {
+                background = BackgroundSpec.color(backgroundColor);
+            }
+            if (background != null) {
+                background = withPlacement(background, bgScale, bgOffsetX, bgOffsetY);
+            }
+
+            EncodedImage photo = photoService.createPhoto(file.getBytes(), photoFormat, photoWidth, photoHeight,
+                    photoUnit, background, brightness, contrast, saturation, format, PipelineListener.NONE);
+
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(photo.getMimeType()))
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=passport-photo." + photo.getExtension())
+                    .body(photo.getData());
+        } catch (AdmissionRejectedException e) {
+            return admissionRejectedResponse(e);
         } catch (IOException e) {
-            System.err.println("Error processing photo: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error creating photo", e);
             return ResponseEntity.status(500).build();
+        } finally {
+            addTimingHeaders(response, profile);
         }
     }
 
+    /**
+     * Names of the preset backgrounds that can be passed as backgroundAsset
+     */
+    @GetMapping("/background-assets")
+    public ResponseEntity<List<String>> listBackgroundAssets() {
+        return ResponseEntity.ok(backgroundAssets.listAssets());
+    }
+
+    /**
+     * Current load and counters of the admission controller
+     */
+    @GetMapping("/admission")
+    public ResponseEntity<Map<String, Object>> getAdmissionStats() {
+        return ResponseEntity.ok(admissionController.getStats());
+    }
+
     @PostMapping("/adjust-photo")
     public ResponseEntity<byte[]> adjustPhoto(
         @RequestParam("image") MultipartFile file,
         @RequestParam("brightness") double brightness,
         @RequestParam("contrast") double contrast,
         @RequestParam("saturation") double saturation,
-        @RequestParam(value = "format", defaultValue = "png") String format
+        @RequestParam(value = "format", defaultValue = "png") String format,
+        @RequestParam(value = "preview", defaultValue = "false") boolean preview,
+        @RequestParam(value = "maxDimension", defaultValue = "512") int maxDimension,
+        HttpServletResponse response
     ) {
-        System.out.println("==== /adjust-photo triggered ====");
-        System.out.println("Brightness: " + brightness);
-        System.out.println("Contrast: " + contrast);
-        System.out.println("Saturation: " + saturation);
-        System.out.println("File name: " + file.getOriginalFilename());
-        System.out.println("File size: " + file.getSize());
+        log.debug("Adjusting {} ({} bytes): brightness {}, contrast {}, saturation {}, preview {} (max {}px)",
+                file.getOriginalFilename(), file.getSize(), brightness, contrast, saturation, preview, maxDimension);
         
+    PipelineProfile profile = PipelineProfile.begin();
     try {
-        byte[] adjustedImage = photoService.adjustImage(file, brightness, contrast, saturation);
+        EncodedImage adjustedImage = photoService.adjustImage(file, brightness, contrast, saturation,
+                preview ? maxDimension : null, format);
 
-        MediaType mediaType = format.equalsIgnoreCase("jpeg") || format.equalsIgnoreCase("jpg")
-                ? MediaType.IMAGE_JPEG
-                : MediaType.IMAGE_PNG;
-
-        return ResponseEntity.ok()
-                .contentType(mediaType)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=adjusted-photo." + format)
-                .body(adjustedImage);
+        return adjustedImageResponse(adjustedImage);
     } catch (IOException e) {
-        System.err.println(">>> Error adjusting image: " + e.getMessage());
-        e.printStackTrace();
+        log.error("Error adjusting image", e);
         return ResponseEntity.status(500).body(null);
+    } finally {
+        addTimingHeaders(response, profile);
     }
 }
 
+    /**
+     * Start an editing session: the image is uploaded and decoded once,
+     * later adjustments only send their parameters.
+     */
+    @PostMapping("/adjust-session")
+    public ResponseEntity<Map<String, String>> createAdjustSession(@RequestParam("image") MultipartFile file) {
+        try {
+            String sessionId = photoService.createEditSession(file);
+            return ResponseEntity.ok(Collections.singletonMap("sessionId", sessionId));
+        } catch (IOException e) {
+            log.warn("Error creating edit session: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @PostMapping("/adjust-session/{sessionId}")
+    public ResponseEntity<byte[]> adjustSessionPhoto(
+        @PathVariable("sessionId") String sessionId,
+        @RequestParam("brightness") double brightness,
+        @RequestParam("contrast") double contrast,
+        @RequestParam("saturation") double saturation,
+        @RequestParam(value = "preview", defaultValue = "false") boolean preview,
+        @RequestParam(value = "maxDimension", defaultValue = "512") int maxDimension,
+        HttpServletResponse response
+    ) {
+        PipelineProfile profile = PipelineProfile.begin();
+        try {
+            EncodedImage adjustedImage = photoService.adjustSessionImage(sessionId, brightness, contrast,
+                    saturation, preview ? maxDimension : null);
+            if (adjustedImage == null) {
+                // Unknown or expired session - the client has to upload the image again
+                return ResponseEntity.notFound().build();
+            }
+
+            return adjustedImageResponse(adjustedImage);
+        } catch (IOException e) {
+            log.error("Error adjusting session image", e);
+            return ResponseEntity.status(500).body(null);
+        } finally {
+            addTimingHeaders(response, profile);
+        }
+    }
+
+    @DeleteMapping("/adjust-session/{sessionId}")
+    public ResponseEntity<Void> closeAdjustSession(@PathVariable("sessionId") String sessionId) {
+        photoService.closeEditSession(sessionId);
+        return ResponseEntity.noContent().build();
+    }
+
+    private ResponseEntity<byte[]> adjustedImageResponse(EncodedImage image) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(image.getMimeType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "inline; filename=adjusted-photo." + image.getExtension())
+                .body(image.getData());
+    }
 
-}
\ No newline at end of file
+    /**
+     * Report the pipeline timings of this request. The headers are set on the
+     * servlet response directly, the ResponseEntity adds its own headers to them
+     * when it's written, so errors get their timings too.
+     */
+    private void addTimingHeaders(HttpServletResponse response, PipelineProfile profile) {
+        profile.end();
+        if (serverTimingEnabled) {
+            response.setHeader("Server-Timing", profile.toServerTiming());
+        }
+        if (profileHeaderEnabled) {
+            try {
+                response.setHeader("X-Pipeline-Profile", objectMapper.writeValueAsString(profile.toMap()));
+            } catch (JsonProcessingException e) {
+                log.error("Error writing pipeline profile: {}", e.getMessage());
+            }
+        }
+    }
+
+    private ResponseEntity<byte[]> admissionRejectedResponse(AdmissionRejectedException e) {
+        // Server is at capacity - ask the client to come back later
+        log.warn("Photo request rejected by admission control: {}", e.getMessage());
+        if (e.getRetryAfterSeconds() <= 0) {
+            // Retrying won't help - the image alone exceeds the budget
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .build();
+    }
+
+    /**
+     * Check an uploaded background before the pipeline runs. It's decoded
+     * outside the admission budget, so oversized images are a bad request.
+     */
+    private boolean isValidBackground(byte[] backgroundBytes) {
+        try {
+            backgroundAssets.validateImage(backgroundBytes);
+            return true;
+        } catch (IOException e) {
+            log.debug("Rejected background image: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Apply the bgScale / bgOffsetX / bgOffsetY request parameters, if given
+     */
+    private static BackgroundSpec withPlacement(BackgroundSpec background, Double bgScale, double bgOffsetX,
+            double bgOffsetY) {
+        if (bgScale == null) {
+            return background;
+        }
+        return background.withPlacement(bgScale, bgOffsetX, bgOffsetY);
+    }
+
+    /**
+     * Send several images in one multipart/mixed response, one part per name
+     */
+    private static ResponseEntity<byte[]> multipartResponse(List<EncodedImage> parts, String... names)
+            throws IOException {
+        String boundary = "photo-" + UUID.randomUUID();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < parts.size(); i++) {
+            EncodedImage part = parts.get(i);
+            String header = "--" + boundary + "\r\n"
+                    + "Content-Type: " + part.getMimeType() + "\r\n"
+                    + "Content-Disposition: inline; name=\"" + names[i] + "\"; filename=\"passport-photo-"
+                    + names[i] + "." + part.getExtension() + "\"\r\n"
+                    + "Content-Length: " + part.getData().length + "\r\n\r\n";
+            body.write(header.getBytes(StandardCharsets.US_ASCII));
+            body.write(part.getData());
+            body.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        body.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+
+        return ResponseEntity.ok()
+                .contentType(new MediaType("multipart", "mixed", Collections.singletonMap("boundary", boundary)))
+                .body(body.toByteArray());
+    }
+}
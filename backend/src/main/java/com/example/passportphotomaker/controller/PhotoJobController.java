@@ -0,0 +1,119 @@
+package com.example.passportphotomaker.controller;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.example.passportphotomaker.service.job.JobQueueFullException;
+import com.example.passportphotomaker.service.job.PhotoJob;
+import com.example.passportphotomaker.service.job.PhotoJobService;
+
+/**
+ * Asynchronous variant of /api/process-photo: the upload is queued and
+ * processed on a worker pool, clients poll or subscribe for progress.
+ */
+@RestController
+@RequestMapping("/api/jobs")
+@CrossOrigin(origins = "*", exposedHeaders = { RequestIdFilter.HEADER,
+        DebugCaptureFilter.RESPONSE_HEADER }) // For development purposes
+public class PhotoJobController {
+    private static final Logger log = LoggerFactory.getLogger(PhotoJobController.class);
+
+    private final PhotoJobService jobService;
+
+    @Autowired
+    public PhotoJobController(PhotoJobService jobService) {
+        this.jobService = jobService;
+    }
+
+    @PostMapping("/process-photo")
+    public ResponseEntity<Map<String, Object>> submitProcessPhoto(
+            @RequestParam("image") MultipartFile file,
+            @RequestParam(value = "photoFormat", required = false) String photoFormat,
+            @RequestParam(value = "photoWidth", required = false) Double photoWidth,
+            @RequestParam(value = "photoHeight", required = false) Double photoHeight,
+            @RequestParam(value = "photoUnit", required = false) String photoUnit) {
+        try {
+            PhotoJob job = jobService.submit(file, photoFormat, photoWidth, photoHeight, photoUnit);
+
+            Map<String, Object> body = job.toStatusMap();
+            body.put("statusUrl", "/api/jobs/" + job.getId());
+            body.put("eventsUrl", "/api/jobs/" + job.getId() + "/events");
+            body.put("resultUrl", "/api/jobs/" + job.getId() + "/result");
+
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.LOCATION, "/api/jobs/" + job.getId())
+                    .body(body);
+        } catch (JobQueueFullException e) {
+            // Tell the client to back off instead of queueing more latency
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(Collections.singletonMap("error", e.getMessage()));
+        } catch (IOException e) {
+            log.warn("Error submitting photo job: {}", e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(Collections.singletonMap("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{jobId}")
+    public ResponseEntity<Map<String, Object>> getJobStatus(@PathVariable("jobId") String jobId) {
+        PhotoJob job = jobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job.toStatusMap());
+    }
+
+    @GetMapping(value = "/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribeJobEvents(@PathVariable("jobId") String jobId) {
+        SseEmitter emitter = jobService.subscribe(jobId);
+        if (emitter == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    @GetMapping("/{jobId}/result")
+    public ResponseEntity<byte[]> getJobResult(@PathVariable("jobId") String jobId) {
+        PhotoJob job = jobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (job.getStatus() == PhotoJob.Status.FAILED) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+        if (job.getStatus() == PhotoJob.Status.REJECTED) {
+            // The server was at capacity - the client may submit the job again
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(job.getRetryAfterSeconds()))
+                    .build();
+        }
+        if (job.getStatus() != PhotoJob.Status.SUCCEEDED) {
+            // Not done yet - poll the status endpoint
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_PNG)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=passport-photo.png")
+                .body(job.getResult());
+    }
+}
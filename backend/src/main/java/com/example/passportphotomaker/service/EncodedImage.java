@@ -0,0 +1,29 @@
+package com.example.passportphotomaker.service;
+
+/**
+ * An encoded image together with its MIME type
+ */
+public class EncodedImage {
+    private final byte[] data;
+    private final String mimeType;
+
+    public EncodedImage(byte[] data, String mimeType) {
+        this.data = data;
+        this.mimeType = mimeType;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * File extension matching the MIME type (without the dot)
+     */
+    public String getExtension() {
+        return "image/jpeg".equals(mimeType) ? "jpg" : "png";
+    }
+}
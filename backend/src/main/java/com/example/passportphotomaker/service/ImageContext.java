@@ -0,0 +1,288 @@
+package com.example.passportphotomaker.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import com.example.passportphotomaker.service.memory.MatTracker;
+import com.example.passportphotomaker.service.metrics.PipelineTrace;
+
+/**
+ * The decoded image of one request, together with the scaled and converted
+ * versions of it that the pipeline stages need. Every version is built on first
+ * use and then shared, so face detection, segmentation and cropping never repeat
+ * a resize or color conversion.
+ *
+ * Pyramid levels halve the size at every step, level 0 is the full image.
+ * All Mats handed out belong to the context and are released when it's closed,
+ * callers must neither modify nor release them. A context is used by a single
+ * request and isn't thread-safe. The context also carries the request's trace,
+ * so stages can time their steps.
+ */
+public class ImageContext implements AutoCloseable {
+    // Halving stops before the longest side drops below this
+    private static final int MIN_LEVEL_SIZE = 32;
+
+    private final Mat full;
+    private final boolean ownsFull;
+    private final PipelineTrace trace;
+    private final List<Mat> levels = new ArrayList<>();
+    private final Map<String, Mat> derived = new HashMap<>();
+
+    /**
+     * Create a context around an image that stays owned by the caller.
+     * Gray and BGRA images are converted to BGR, the context owns that copy.
+     *
+     * @param image The decoded image
+     */
+    public ImageContext(Mat image) {
+        this(image, false, PipelineTrace.NONE);
+    }
+
+    /**
+     * Create a context around an image that stays owned by the caller
+     *
+     * @param image The decoded image
+     * @param trace Timings of the current request
+     */
+    public ImageContext(Mat image, PipelineTrace trace) {
+        this(image, false, trace);
+    }
+
+    private ImageContext(Mat image, boolean owned, PipelineTrace trace) {
+        this.trace = trace;
+        if (image == null || image.empty()) {
+            throw new IllegalArgumentException("Input image is null or empty");
+        }
+        if (image.channels() == 3) {
+            this.full = image;
+            this.ownsFull = owned;
+        } else {
+            Mat bgr = MatTracker.track(new Mat());
+            Imgproc.cvtColor(image, bgr, image.channels() == 4 ? Imgproc.COLOR_BGRA2BGR : Imgproc.COLOR_GRAY2BGR);
+            if (owned) {
+                image.release();
+            }
+            this.full = bgr;
+            this.ownsFull = true;
+        }
+        levels.add(full);
+    }
+
+    /**
+     * Create a context that takes ownership of the image and releases it on close
+     *
+     * @param image The decoded image
+     */
+    public static ImageContext owning(Mat image) {
+        return new ImageContext(image, true, PipelineTrace.NONE);
+    }
+
+    /**
+     * Create a context that takes ownership of the image and releases it on close
+     *
+     * @param image The decoded image
+     * @param trace Timings of the current request
+     */
+    public static ImageContext owning(Mat image, PipelineTrace trace) {
+        return new ImageContext(image, true, trace);
+    }
+
+    /**
+     * Timings of the current request, PipelineTrace.NONE if it isn't traced
+     */
+    public PipelineTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * The full-resolution image (BGR)
+     */
+    public Mat getFull() {
+        return full;
+    }
+
+    public int getWidth() {
+        return full.width();
+    }
+
+    public int getHeight() {
+        return full.height();
+    }
+
+    /**
+     * The image at half the size of the full image (BGR)
+     */
+    public Mat getHalf() {
+        return getLevel(1);
+    }
+
+    /**
+     * The image at a quarter of the size of the full image (BGR)
+     */
+    public Mat getQuarter() {
+        return getLevel(2);
+    }
+
+    /**
+     * A level of the image pyramid. Levels smaller than the minimum size aren't
+     * built, asking for one gives the smallest level there is.
+     *
+     * @param level 0 for the full image, each further level halves the size
+     * @return The image at that level (BGR)
+     */
+    public Mat getLevel(int level) {
+        if (level < 0) {
+            throw new IllegalArgumentException("Invalid pyramid level: " + level);
+        }
+        while (levels.size() <= level) {
+            Mat previous = levels.get(levels.size() - 1);
+            Size size = halfSize(previous.width(), previous.height());
+            if (size == null) {
+                return previous;
+            }
+            Mat next = MatTracker.track(new Mat());
+            Imgproc.resize(previous, next, size, 0, 0, Imgproc.INTER_AREA);
+            levels.add(next);
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * The smallest pyramid level that is still at least the given size, so
+     * scaling it down to that size loses no detail compared to the full image
+     */
+    public int levelFor(int minWidth, int minHeight) {
+        int level = 0;
+        int width = full.width();
+        int height = full.height();
+        while (true) {
+            Size size = halfSize(width, height);
+            if (size == null || size.width < minWidth || size.height < minHeight) {
+                return level;
+            }
+            width = (int) size.width;
+            height = (int) size.height;
+            level++;
+        }
+    }
+
+    /**
+     * Size of a pyramid level relative to the full image
+     */
+    public double getScale(int level) {
+        return (double) getLevel(level).width() / full.width();
+    }
+
+    /**
+     * The square RGB image a segmentation model takes as input, scaled from the
+     * smallest pyramid level that covers it
+     *
+     * @param size Width and height of the model input
+     * @return The model input (RGB, 8 bit)
+     */
+    public Mat getModelInput(int size) {
+        String key = "model@" + size;
+        Mat input = derived.get(key);
+        if (input == null) {
+            Mat source = getLevel(levelFor(size, size));
+            boolean shrinking = source.width() >= size && source.height() >= size;
+            input = MatTracker.track(new Mat());
+            Imgproc.resize(source, input, new Size(size, size), 0, 0,
+                    shrinking ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+            Imgproc.cvtColor(input, input, Imgproc.COLOR_BGR2RGB);
+            derived.put(key, input);
+        }
+        return input;
+    }
+
+    /**
+     * The full image in grayscale
+     */
+    public Mat getGray() {
+        return getGray(0);
+    }
+
+    /**
+     * A pyramid level in grayscale
+     */
+    public Mat getGray(int level) {
+        String key = "gray@" + level;
+        Mat gray = derived.get(key);
+        if (gray == null) {
+            gray = MatTracker.track(new Mat());
+            Imgproc.cvtColor(getLevel(level), gray, Imgproc.COLOR_BGR2GRAY);
+            derived.put(key, gray);
+        }
+        return gray;
+    }
+
+    /**
+     * A pyramid level in grayscale with equalized histogram, as used for face detection
+     */
+    public Mat getGrayEqualized(int level) {
+        String key = "gray-equalized@" + level;
+        Mat equalized = derived.get(key);
+        if (equalized == null) {
+            equalized = MatTracker.track(new Mat());
+            Imgproc.equalizeHist(getGray(level), equalized);
+            derived.put(key, equalized);
+        }
+        return equalized;
+    }
+
+    /**
+     * The full image in another color space
+     *
+     * @param conversionCode An Imgproc.COLOR_BGR2* code, e.g. Imgproc.COLOR_BGR2HSV
+     */
+    public Mat getConverted(int conversionCode) {
+        if (conversionCode == Imgproc.COLOR_BGR2GRAY) {
+            return getGray();
+        }
+        String key = "color" + conversionCode;
+        Mat converted = derived.get(key);
+        if (converted == null) {
+            converted = MatTracker.track(new Mat());
+            Imgproc.cvtColor(full, converted, conversionCode);
+            derived.put(key, converted);
+        }
+        return converted;
+    }
+
+    /**
+     * Release every version built by the context, and the full image if the
+     * context owns it
+     */
+    @Override
+    public void close() {
+        for (Mat mat : derived.values()) {
+            mat.release();
+        }
+        derived.clear();
+        for (int i = 1; i < levels.size(); i++) {
+            levels.get(i).release();
+        }
+        levels.clear();
+        if (ownsFull) {
+            full.release();
+        }
+    }
+
+    /**
+     * Size of the next pyramid level, or null if it would be too small
+     */
+    private static Size halfSize(int width, int height) {
+        int halfWidth = (width + 1) / 2;
+        int halfHeight = (height + 1) / 2;
+        if (Math.max(halfWidth, halfHeight) < MIN_LEVEL_SIZE) {
+            return null;
+        }
+        return new Size(halfWidth, halfHeight);
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.passportphotomaker.service;
+
+/**
+ * How the result of background removal is returned to the client
+ */
+public enum PhotoOutput {
+    /** A single BGRA PNG (default) */
+    RGBA,
+    /** Only the 8-bit alpha matte as a grayscale PNG, for clients that composite locally */
+    MASK,
+    /** A JPEG color layer plus the alpha matte as a separate grayscale PNG */
+    JPEG_ALPHA;
+
+    /**
+     * Parse the request parameter value, e.g. "mask" or "jpeg+alpha"
+     *
+     * @throws IllegalArgumentException If the value is unknown
+     */
+    public static PhotoOutput fromParameter(String value) {
+        if (value == null || value.isEmpty()) {
+            return RGBA;
+        }
+        switch (value.toLowerCase()) {
+            case "rgba":
+            case "png":
+                return RGBA;
+            case "mask":
+            case "alpha":
+                return MASK;
+            case "jpeg+alpha":
+            case "jpg+alpha":
+                return JPEG_ALPHA;
+            default:
+                throw new IllegalArgumentException("Unknown output mode: " + value);
+        }
+    }
+}
@@ -1,205 +1,395 @@
 package com.example.passportphotomaker.service;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
+import org.opencv.core.Size;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ResourceLoader;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.example.passportphotomaker.service.admission.AdmissionController;
+import com.example.passportphotomaker.service.admission.AdmissionRejectedException;
+import com.example.passportphotomaker.service.bgchange.BackgroundAssetCache;
 import com.example.passportphotomaker.service.bgchange.BackgroundChanger;
+import com.example.passportphotomaker.service.bgchange.BackgroundSpec;
 import com.example.passportphotomaker.service.bgremove.BackgroundRemover;
-import com.example.passportphotomaker.service.bgremove.DJLBackgroundRemover;
-import com.example.passportphotomaker.service.bgremove.DirectOnnxBackgroundRemover;
-import com.example.passportphotomaker.service.bgremove.OpenCVBackgroundRemover;
-import com.example.passportphotomaker.service.facedetect.FaceDetector;
+import com.example.passportphotomaker.service.cache.ImageCache;
 import com.example.passportphotomaker.service.imagecrop.PassportPhotoCropper;
+import com.example.passportphotomaker.service.imageprobe.ImageInfo;
+import com.example.passportphotomaker.service.imageprobe.ImageProbe;
 import com.example.passportphotomaker.service.imageedit.ImageAdjuster;
+import com.example.passportphotomaker.service.memory.MatTracker;
+import com.example.passportphotomaker.service.memory.Mats;
+import com.example.passportphotomaker.service.metrics.PipelineMetrics;
+import com.example.passportphotomaker.service.metrics.PipelineTrace;
+import com.example.passportphotomaker.service.metrics.jfr.PipelineEvents;
+import com.example.passportphotomaker.service.startup.PipelineInitializer;
 
 @Service
 public class PhotoService {
-    private final ResourceLoader resourceLoader;
-    private FaceDetector faceDetector;
-    private BackgroundRemover bgRemover;
+    private static final Logger log = LoggerFactory.getLogger(PhotoService.class);
+
+    private final PipelineInitializer pipeline;
+    private final AdmissionController admissionController;
+    private final BackgroundAssetCache backgroundAssets;
+    private final PipelineMetrics metrics;
     private BackgroundChanger bgChanger;
 
     @Value("${debug.mode:false}")
     private boolean debugMode;
 
+    // Report every Mat a request leaves unreleased, with the place it was allocated
+    @Value("${mat.leak-detection:${debug.mode:false}}")
+    private boolean matLeakDetection;
+
     @Value("${passport.photo.border.width:0}")
     private int borderWidth;
 
     @Value("${background.removal.method:auto}")
     private String backgroundRemovalMethod;
 
-    // Add a simple in-memory cache to store original images (for demo/test purposes)
-    private static final Map<String, Mat> originalImageCache = new ConcurrentHashMap<>();
-    private static final int MAX_CACHE_SIZE = 10; // Limit cache size
+    // Uploads whose header reports more pixels than this are rejected before decoding
+    @Value("${image.max-pixels:50000000}")
+    private long maxImagePixels;
+
+    // Preview rendering for interactive adjustments
+    private static final String PREVIEW_KEY_SUFFIX = "#preview-";
+    private static final int MIN_PREVIEW_DIMENSION = 64;
+    private static final int MAX_PREVIEW_DIMENSION = 2048;
+    private static final int PREVIEW_JPEG_QUALITY = 80;
+    private static final int FINAL_JPEG_QUALITY = 95;
+
+    // Uploads larger than the photo format may differ this much in aspect ratio
+    private static final double MAX_ASPECT_ERROR = 0.02;
+
+    @Value("${image.cache.max-bytes:268435456}")
+    private long imageCacheMaxBytes;
+
+    @Value("${image.cache.ttl-seconds:1800}")
+    private long imageCacheTtlSeconds;
+
+    @Value("${edit.session.max-bytes:536870912}")
+    private long editSessionMaxBytes;
+
+    @Value("${edit.session.idle-seconds:900}")
+    private long editSessionIdleSeconds;
+
+    // Decoded original images keyed by content hash, used by repeated adjustment requests
+    private ImageCache originalImageCache;
+
+    // Decoded images of upload-once editing sessions, keyed by session id
+    private ImageCache editSessionCache;
 
     @PostConstruct
-    public void init() { // Loads OpenCV
-        try {
-            // Load OpenCV native library
-            nu.pattern.OpenCV.loadLocally();
-            System.out.println("OpenCV loaded successfully: " + Core.VERSION);
-
-            // Initialize services after OpenCV is loaded
-            initializeServices();
-        } catch (UnsatisfiedLinkError e) {
-            System.err.println("Native code library failed to load: " + e.getMessage());
-        } catch (Exception e) {
-            System.err.println("Initialization error: " + e.getMessage());
-        }
+    public void init() {
+        // OpenCV is loaded by the NativeLoader, the models by the PipelineInitializer
+        this.originalImageCache = new ImageCache("originalImageCache", imageCacheMaxBytes,
+                imageCacheTtlSeconds * 1000);
+        this.editSessionCache = new ImageCache("editSessionCache", editSessionMaxBytes,
+                editSessionIdleSeconds * 1000);
+        MatTracker.setLeakDetection(matLeakDetection);
     }
 
     @PreDestroy
     public void cleanup() {
         // Clean up resources when the application is shutting down
-        System.out.println("Cleaning up resources in PhotoService");
+        log.debug("Cleaning up resources in PhotoService");
 
         // Clean up the image cache
-        for (Mat mat : originalImageCache.values()) {
-            try {
-                mat.release();
-            } catch (Exception e) {
-                System.err.println("Error releasing cached Mat: " + e.getMessage());
-            }
+        if (originalImageCache != null) {
+            log.debug("Releasing image cache: {}", originalImageCache);
+            originalImageCache.clear();
         }
-        originalImageCache.clear();
-
-        if (bgRemover != null) {
-            try {
-                bgRemover.close();
-                System.out.println("Background remover resources released");
-            } catch (Exception e) {
-                System.err.println("Error closing background remover: " + e.getMessage());
-            }
-        }
-
-        if (faceDetector != null) {
-            try {
-                faceDetector.close();
-                System.out.println("Face detector resources released");
-            } catch (Exception e) {
-                System.err.println("Error closing face detector: " + e.getMessage());
-            }
+        if (editSessionCache != null) {
+            log.debug("Releasing edit sessions: {}", editSessionCache);
+            editSessionCache.clear();
         }
     }
 
-    public PhotoService(ResourceLoader resourceLoader) {
-        this.resourceLoader = resourceLoader;
+    public PhotoService(PipelineInitializer pipeline, AdmissionController admissionController,
+            BackgroundAssetCache backgroundAssets, PipelineMetrics metrics) {
+        this.pipeline = pipeline;
+        this.admissionController = admissionController;
+        this.backgroundAssets = backgroundAssets;
+        this.metrics = metrics;
     }
 
-    private void initializeServices() {
-        // Face detector instantiation
-        this.faceDetector = new FaceDetector(debugMode, resourceLoader);
+    public ImageCache getOriginalImageCache() {
+        return originalImageCache;
+    }
 
-        // Background remover instantiation based on configuration
-        initializeBackgroundRemover();
+    public ImageCache getEditSessionCache() {
+        return editSessionCache;
     }
 
-    private void initializeBackgroundRemover() {
-        // Choose background remover based on configuration
-        if ("opencv".equalsIgnoreCase(backgroundRemovalMethod)) {
-            this.bgRemover = new OpenCVBackgroundRemover(debugMode);
-            System.out.println("Using OpenCV Background Remover (explicitly configured)");
-        } else if ("djl".equalsIgnoreCase(backgroundRemovalMethod)) {
-            try {
-                this.bgRemover = new DJLBackgroundRemover(debugMode);
-                System.out.println("Using DJL Background Remover");
-            } catch (Exception e) {
-                System.err.println("Failed to initialize DJL Background Remover: " + e.getMessage());
-                // Fall back to OpenCV
-                this.bgRemover = new OpenCVBackgroundRemover(debugMode);
-                System.out.println("Falling back to OpenCV Background Remover");
-            }
-        } else {
-            // Try DirectONNX first (preferred method)
-            try {
-                this.bgRemover = new DirectOnnxBackgroundRemover(debugMode);
-                System.out.println("Using DirectONNX Background Remover (auto-selected)");
-            } catch (Exception e) {
-                System.err.println("Failed to initialize DirectONNX Background Remover: " + e.getMessage());
-                // Try DJL next
-                try {
-                    this.bgRemover = new DJLBackgroundRemover(debugMode);
-                    System.out.println("Using DJL Background Remover (auto-selected)");
-                } catch (Exception e2) {
-                    System.err.println("Failed to initialize DJL Background Remover: " + e2.getMessage());
-                    // Fall back to OpenCV
-                    this.bgRemover = new OpenCVBackgroundRemover(debugMode);
-                    System.out.println("Falling back to OpenCV Background Remover (auto-selected)");
-                }
-            }
-        }
+    /**
+     * Start timing a request, tagged with the background removal engine in use
+     */
+    private PipelineTrace startTrace(String operation, String format) {
+        BackgroundRemover bgRemover = pipeline.getLoadedBackgroundRemover();
+        String engine = bgRemover != null ? bgRemover.getEngineName() : "none";
+        String model = bgRemover != null ? bgRemover.getModelName() : "none";
+        return metrics.startTrace(operation, engine, model, format);
     }
 
     public byte[] processImage(MultipartFile file, String photoFormat, Double photoWidth, Double photoHeight,
             String photoUnit) throws IOException {
-        File tempFile = null;
-        File outputFile = null;
+        // Validate input file
+        validateInputFile(file);
+
+        return processImage(file.getBytes(), photoFormat, photoWidth, photoHeight, photoUnit, PipelineListener.NONE);
+    }
+
+    /**
+     * Runs the background removal pipeline on an already validated upload.
+     *
+     * @param imageBytes  The encoded upload
+     * @param photoFormat The photo format name (e.g. "35x45"), or null to keep the size
+     * @param photoWidth  The photo width in the given unit
+     * @param photoHeight The photo height in the given unit
+     * @param photoUnit   The unit of measurement (mm, cm, inch)
+     * @param listener    Receives a notification whenever a new stage starts
+     * @return The processed image as PNG bytes
+     * @throws IOException If processing fails
+     */
+    public byte[] processImage(byte[] imageBytes, String photoFormat, Double photoWidth, Double photoHeight,
+            String photoUnit, PipelineListener listener) throws IOException {
+        return runPipeline("process-photo", "png", imageBytes, photoFormat, photoWidth, photoHeight, photoUnit,
+                listener, (sourceImage, foreground, stages) -> {
+                    // Choose the extension based on the requested format
+                    String extension = ".png"; // Default to PNG
+
+                    // Encode in memory
+                    stages.onStage("encode", 90);
+                    byte[] resultBytes = encodeImage(foreground, extension);
+
+                    if (resultBytes.length == 0) {
+                        throw new IOException("Failed to read output image data");
+                    }
+
+                    return resultBytes;
+                });
+    }
+
+    /**
+     * Runs the background removal pipeline and returns the result as separate layers
+     *
+     * @param imageBytes  The encoded upload
+     * @param photoFormat The photo format name (e.g. "35x45"), or null to keep the size
+     * @param photoWidth  The photo width in the given unit
+     * @param photoHeight The photo height in the given unit
+     * @param photoUnit   The unit of measurement (mm, cm, inch)
+     * @param output      Which layers to return
+     * @param listener    Receives a notification whenever a new stage starts
+     * @return The encoded layers: the PNG for RGBA, the matte for MASK, or the
+     *         JPEG color layer followed by the matte for JPEG_ALPHA
+     * @throws IOException If processing fails
+     */
+    public List<EncodedImage> processImageLayers(byte[] imageBytes, String photoFormat, Double photoWidth,
+            Double photoHeight, String photoUnit, PhotoOutput output, PipelineListener listener) throws IOException {
+        return runPipeline("process-photo", output.name().toLowerCase(), imageBytes, photoFormat, photoWidth,
+                photoHeight, photoUnit, listener, (sourceImage, foreground, stages) -> {
+                    stages.onStage("encode", 90);
+                    if (output == PhotoOutput.RGBA) {
+                        return List.of(new EncodedImage(encodeImage(foreground, ".png"), "image/png"));
+                    }
+
+                    boolean hasAlpha = foreground.channels() == 4;
+                    Mat alpha = hasAlpha ? new Mat() : new Mat(foreground.size(), CvType.CV_8UC1, new Scalar(255));
+                    Mat color = null;
+                    try {
+                        if (hasAlpha) {
+                            Core.extractChannel(foreground, alpha, 3);
+                        }
+
+                        // The matte is mostly flat, so it stays small as a single channel PNG
+                        EncodedImage matte = new EncodedImage(encodeImage(alpha, ".png"), "image/png");
+                        if (output == PhotoOutput.MASK) {
+                            return List.of(matte);
+                        }
+
+                        Mat colorSource = foreground;
+                        if (hasAlpha) {
+                            color = new Mat();
+                            Imgproc.cvtColor(foreground, color, Imgproc.COLOR_BGRA2BGR);
+                            colorSource = color;
+                        }
+                        EncodedImage colorLayer = new EncodedImage(encodeImage(colorSource, ".jpg",
+                                new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, FINAL_JPEG_QUALITY)), "image/jpeg");
+                        return List.of(colorLayer, matte);
+                    } finally {
+                        releaseMatSafely(alpha);
+                        releaseMatSafely(color);
+                    }
+                });
+    }
+
+    /**
+     * Runs the complete pipeline in memory: background removal, then compositing
+     * onto the requested background, then adjustments, with a single final encode.
+     *
+     * @param imageBytes  The encoded upload
+     * @param photoFormat The photo format name (e.g. "35x45"), or null to keep the size
+     * @param photoWidth  The photo width in the given unit
+     * @param photoHeight The photo height in the given unit
+     * @param photoUnit   The unit of measurement (mm, cm, inch)
+     * @param background  The background to place behind the subject, or null to keep transparency
+     * @param brightness  Brightness level (-100 to 100)
+     * @param contrast    Contrast level (1.0 = no change)
+     * @param saturation  Saturation level (1.0 = no change)
+     * @param format      Output format ("png" or "jpeg")
+     * @param listener    Receives a notification whenever a new stage starts
+     * @return The finished photo
+     * @throws IOException If processing fails
+     */
+    public EncodedImage createPhoto(byte[] imageBytes, String photoFormat, Double photoWidth, Double photoHeight,
+            String photoUnit, BackgroundSpec background, double brightness, double contrast, double saturation,
+            String format, PipelineListener listener) throws IOException {
+        boolean jpeg = "jpeg".equalsIgnoreCase(format) || "jpg".equalsIgnoreCase(format);
+
+        return runPipeline("create-photo", jpeg ? "jpeg" : "png", imageBytes, photoFormat, photoWidth, photoHeight,
+                photoUnit, listener, (sourceImage, foreground, stages) -> {
+                    Mat composed = null;
+                    Mat adjusted = null;
+                    try {
+                        // JPEG has no alpha channel - fall back to a white background
+                        BackgroundSpec effectiveBackground = background == null && jpeg
+                                ? BackgroundSpec.color("#FFFFFF")
+                                : background;
+
+                        stages.onStage("composite", 88);
+                        composed = effectiveBackground != null
+                                ? effectiveBackground.compose(foreground, sourceImage, backgroundAssets)
+                                : foreground.clone();
+
+                        boolean neutral = brightness == 0 && contrast == 1.0 && saturation == 1.0;
+                        if (!neutral) {
+                            stages.onStage("adjust", 92);
+                            adjusted = ImageAdjuster.applyAdjustments(composed, brightness, contrast, saturation);
+                        }
+                        Mat finalImage = adjusted != null ? adjusted : composed;
+
+                        stages.onStage("encode", 95);
+                        if (jpeg) {
+                            return new EncodedImage(encodeImage(finalImage, ".jpg",
+                                    new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, FINAL_JPEG_QUALITY)), "image/jpeg");
+                        }
+                        return new EncodedImage(encodeImage(finalImage, ".png"), "image/png");
+                    } finally {
+                        releaseMatSafely(composed);
+                        releaseMatSafely(adjusted);
+                    }
+                });
+    }
+
+    /**
+     * Last step of the pipeline, run on the background-removed image while the
+     * admission permit is still held
+     */
+    private interface PipelineFinisher<T> {
+        /**
+         * @param sourceImage The resized input image (BGR) before background removal
+         * @param foreground  The background-removed image (BGRA) with border
+         * @param stages      Listener for the remaining stages, timed as part of the request
+         */
+        T finish(Mat sourceImage, Mat foreground, PipelineListener stages) throws IOException;
+    }
+
+    /**
+     * Decode, validate, admit, resize and remove the background of an upload,
+     * then hand the result to the finisher. Every stage is timed.
+     *
+     * @param operation The kind of request, used to tag metrics
+     * @param format    The output format, used to tag metrics
+     */
+    private <T> T runPipeline(String operation, String format, byte[] imageBytes, String photoFormat,
+            Double photoWidth, Double photoHeight, String photoUnit, PipelineListener progressListener,
+            PipelineFinisher<T> finisher) throws IOException {
+        // Waits for the engine if it's still loading, so the trace is tagged with it
+        BackgroundRemover bgRemover = pipeline.getBackgroundRemover();
+        Mat resizedImage = null;
         Mat processedImage = null;
         Mat borderedImage = null;
+        AdmissionController.Permit permit = null;
+        MatTracker.Request mats = MatTracker.beginRequest(operation);
+        PipelineTrace trace = startTrace(operation, format);
+        PipelineListener listener = trace.listener(progressListener);
 
         try {
-            // Validate input file
-            validateInputFile(file);
-
-            // Save uploaded file to temporary location
-            tempFile = uploadToTempFile(file);
+            // Read the header first, so mismatched or oversized uploads are rejected and
+            // admitted before any pixel memory is allocated
+            listener.onStage("admission", 5);
+            ImageInfo imageInfo = probeImage(imageBytes);
+            int reduction = chooseDecodeReduction(imageInfo, photoFormat, photoWidth, photoHeight, photoUnit);
+            if (imageInfo != null) {
+                log.debug("Probed upload: {}", imageInfo);
+                validateExpectedSize(imageInfo.getWidth(), imageInfo.getHeight(), photoFormat, photoWidth,
+                        photoHeight, photoUnit);
+                permit = admissionController.acquire(reducedSize(imageInfo.getWidth(), reduction),
+                        reducedSize(imageInfo.getHeight(), reduction));
+            }
 
-            // Load image using OpenCV with improved quality settings
-            Mat originalImage = Imgcodecs.imread(tempFile.getAbsolutePath(), Imgcodecs.IMREAD_UNCHANGED);
+            // Load image using OpenCV with improved quality settings. Large JPEGs are
+            // scaled down while decoding, to the smallest power of two that still
+            // covers the photo we're going to produce
+            listener.onStage("decode", 10);
+            Mat originalImage = MatTracker.track(Mats.decode(imageBytes, decodeFlags(reduction)));
             if (originalImage.empty()) {
                 throw new IOException("Failed to read image");
             }
+            trace.setImageSize(originalImage.width(), originalImage.height());
+            if (reduction > 1) {
+                log.debug("Decoded at 1/{} scale: {}x{} pixels", reduction, originalImage.width(),
+                        originalImage.height());
+            }
 
             // Convert RGBA to RGB if needed
             if (originalImage.channels() == 4) {
-                Mat rgbImage = new Mat();
+                Mat rgbImage = MatTracker.track(new Mat());
                 Imgproc.cvtColor(originalImage, rgbImage, Imgproc.COLOR_RGBA2RGB);
                 originalImage.release();
                 originalImage = rgbImage;
             }
 
-            // Size Validation
-            if (photoFormat != null && photoWidth != null && photoHeight != null && photoUnit != null) {
-                int[] expectedSize = calculatePixelSize(photoWidth, photoHeight, photoUnit, 300);
-                int expectedWidth = expectedSize[0];
-                int expectedHeight = expectedSize[1];
-
-                if (originalImage.width() != expectedWidth || originalImage.height() != expectedHeight) {
-                    throw new IOException("Uploaded image does not match expected dimensions: " +
-                            expectedWidth + "x" + expectedHeight + " pixels @ 300 DPI, but got " +
-                            originalImage.width() + "x" + originalImage.height());
-                }
-            }
+            log.debug("Original image dimensions: {}x{} pixels", originalImage.width(), originalImage.height());
 
-            if (debugMode) {
-                System.out.println("Original image dimensions: " + originalImage.width() + "x" + originalImage.height()
-                        + " pixels");
+            if (permit == null) {
+                // Format without a header probe - validate and admit on the decoded image
+                try {
+                    validateExpectedSize(originalImage.width(), originalImage.height(), photoFormat, photoWidth,
+                            photoHeight, photoUnit);
+                    permit = admissionController.acquire(originalImage.width(), originalImage.height());
+                } catch (IOException e) {
+                    originalImage.release();
+                    throw e;
+                }
             }
 
             // Since the image is already cropped in the frontend, we'll just resize it to
             // the target dimensions
             // if photo format is specified
-            Mat resizedImage = originalImage;
+            resizedImage = originalImage;
 
             if (photoFormat != null && photoWidth != null && photoHeight != null && photoUnit != null) {
+                listener.onStage("resize", 15);
+
                 // Use the specialized passport photo cropper to resize to the correct
                 // dimensions
                 PassportPhotoCropper photoCropper = new PassportPhotoCropper(debugMode);
@@ -213,69 +403,163 @@ public class PhotoService {
                         originalImage.width() / 2,
                         originalImage.height() / 2);
 
-                // Resize the image to the target dimensions
-                resizedImage = photoCropper.cropToPassportFormat(originalImage, centerRect);
-                originalImage.release(); // Release the original image to free memory
+                // Resize the image to the target dimensions, from the smallest pyramid level
+                // that still has enough pixels. The context owns the original image and
+                // releases it with the levels once the crop is done
+                try (ImageContext sourceContext = ImageContext.owning(originalImage, trace)) {
+                    resizedImage = MatTracker.track(photoCropper.cropToPassportFormat(sourceContext, centerRect));
+                }
+                trace.setImageSize(resizedImage.width(), resizedImage.height());
 
-                if (debugMode) {
-                    System.out.println("Resized image dimensions: " + resizedImage.width() + "x" + resizedImage.height()
-                            + " pixels");
-                    System.out.println("Expected dimensions at 300 DPI: " +
-                            (int) (photoWidth * 300 / getUnitToInchFactor(photoUnit)) + "x" +
-                            (int) (photoHeight * 300 / getUnitToInchFactor(photoUnit)) + " pixels");
+                if (log.isDebugEnabled()) {
+                    log.debug("Resized image dimensions: {}x{} pixels", resizedImage.width(), resizedImage.height());
+                    log.debug("Expected dimensions at 300 DPI: {}x{} pixels",
+                            (int) (photoWidth * 300 / getUnitToInchFactor(photoUnit)),
+                            (int) (photoHeight * 300 / getUnitToInchFactor(photoUnit)));
                 }
             }
 
             // START OF IMAGE PROCESSING -----------------------------------
             // Remove Background
-            processedImage = bgRemover.removeBackground(resizedImage);
+            listener.onStage("remove-background", 20);
+            try (ImageContext context = new ImageContext(resizedImage, trace)) {
+                processedImage = bgRemover.removeBackground(context);
+            }
             if (processedImage == null || processedImage.empty()) {
                 throw new IOException("Background removal failed to produce a valid image");
             }
 
             // Add Border (this remains the same)
-            borderedImage = addBorder(processedImage, borderWidth);
+            listener.onStage("border", 85);
+            borderedImage = MatTracker.track(addBorder(processedImage, borderWidth));
             if (borderedImage == null || borderedImage.empty()) {
                 throw new IOException("Failed to add border to image");
             }
             // END OF IMAGE PROCESSING -----------------------------------
 
-            // Choose the extension based on the requested format
-            String extension = ".png"; // Default to PNG
+            return finisher.finish(resizedImage, borderedImage, listener);
+        } catch (AdmissionRejectedException e) {
+            // Not an error in the pipeline - let the caller answer with a retry hint
+            trace.markRejected();
+            throw e;
+        } catch (Exception e) {
+            trace.markFailed();
+            log.error("Error processing image: {}", e.getMessage());
+            log.debug("Error processing image", e);
+            throw new IOException("Error processing image: " + e.getMessage(), e);
+        } finally {
+            // Clean up Mats and return the admission budget
+            releaseMatSafely(resizedImage);
+            releaseMatSafely(processedImage);
+            releaseMatSafely(borderedImage);
+            if (permit != null) {
+                permit.close();
+            }
+            trace.close();
+            mats.close();
+        }
+    }
+
+    /**
+     * Read the dimensions of an upload from its header and reject decompression bombs
+     *
+     * @param imageBytes The encoded upload
+     * @return The header information, or null if the format can't be probed
+     * @throws AdmissionRejectedException If the image has more pixels than allowed
+     * @throws IOException                If the header reports an empty image
+     */
+    public ImageInfo probeImage(byte[] imageBytes) throws IOException {
+        ImageInfo info = ImageProbe.probe(imageBytes);
+        if (info == null) {
+            return null;
+        }
+        if (info.getWidth() <= 0 || info.getHeight() <= 0) {
+            throw new IOException("Invalid image dimensions: " + info.getWidth() + "x" + info.getHeight());
+        }
+        if (info.getPixelCount() > maxImagePixels) {
+            // Retrying won't help - same answer as an image that exceeds the memory budget
+            throw new AdmissionRejectedException("Image of " + info.getWidth() + "x" + info.getHeight()
+                    + " exceeds the maximum of " + maxImagePixels + " pixels", 0);
+        }
+        return info;
+    }
 
-            // Save to temporary output file
-            outputFile = File.createTempFile("processed-", extension);
-            boolean writeSuccess = Imgcodecs.imwrite(outputFile.getAbsolutePath(), borderedImage);
+    /**
+     * Check the image size against the requested photo format at 300 DPI.
+     * Larger uploads are fine as long as they have the same shape, they're scaled down.
+     */
+    private void validateExpectedSize(int width, int height, String photoFormat, Double photoWidth,
+            Double photoHeight, String photoUnit) throws IOException {
+        if (!hasTargetSize(photoFormat, photoWidth, photoHeight, photoUnit)) {
+            return;
+        }
+        int[] expectedSize = calculatePixelSize(photoWidth, photoHeight, photoUnit, 300);
+        int expectedWidth = expectedSize[0];
+        int expectedHeight = expectedSize[1];
+
+        double expectedAspect = (double) expectedWidth / expectedHeight;
+        double aspectError = Math.abs((double) width / height - expectedAspect) / expectedAspect;
+        if (width < expectedWidth || height < expectedHeight || aspectError > MAX_ASPECT_ERROR) {
+            throw new IOException("Uploaded image does not match expected dimensions: " +
+                    expectedWidth + "x" + expectedHeight + " pixels @ 300 DPI (or larger with the same aspect ratio)"
+                    + ", but got " + width + "x" + height);
+        }
+    }
 
-            if (!writeSuccess) {
-                throw new IOException("Failed to write output image to disk");
-            }
+    private boolean hasTargetSize(String photoFormat, Double photoWidth, Double photoHeight, String photoUnit) {
+        return photoFormat != null && photoWidth != null && photoHeight != null && photoUnit != null;
+    }
 
-            // Read the saved image as bytes
-            byte[] resultBytes = Files.readAllBytes(outputFile.toPath());
+    /**
+     * Pick how much to scale a JPEG down while decoding (1, 2, 4 or 8). The decoded
+     * image must still cover the target photo size. Without a photo format the
+     * output keeps the upload's resolution, so it's decoded at full size.
+     */
+    private int chooseDecodeReduction(ImageInfo info, String photoFormat, Double photoWidth, Double photoHeight,
+            String photoUnit) {
+        // DCT-domain scaling only exists for JPEG, and needs a target size to plan against
+        if (info == null || !"jpeg".equals(info.getFormat())
+                || !hasTargetSize(photoFormat, photoWidth, photoHeight, photoUnit)) {
+            return 1;
+        }
 
-            if (resultBytes == null || resultBytes.length == 0) {
-                throw new IOException("Failed to read output image data");
-            }
+        int[] targetSize = calculatePixelSize(photoWidth, photoHeight, photoUnit, 300);
+        int minWidth = targetSize[0];
+        int minHeight = targetSize[1];
 
-            return resultBytes;
-        } catch (Exception e) {
-            System.err.println("Error processing image: " + e.getMessage());
-            if (debugMode) {
-                e.printStackTrace();
+        for (int reduction = 8; reduction > 1; reduction /= 2) {
+            if (reducedSize(info.getWidth(), reduction) >= minWidth
+                    && reducedSize(info.getHeight(), reduction) >= minHeight) {
+                return reduction;
             }
-            throw new IOException("Error processing image: " + e.getMessage(), e);
-        } finally {
-            // Clean up Mats and temp files
-            releaseMatSafely(processedImage);
-            releaseMatSafely(borderedImage);
-            deleteTempFileSafely(tempFile);
-            deleteTempFileSafely(outputFile);
         }
+        return 1;
     }
 
-    // Helper methods for better error handling and resource cleanup
-    private void validateInputFile(MultipartFile file) throws IOException {
+    private static int decodeFlags(int reduction) {
+        // The reduced modes would apply the EXIF orientation, IMREAD_UNCHANGED doesn't
+        switch (reduction) {
+            case 2:
+                return Imgcodecs.IMREAD_REDUCED_COLOR_2 | Imgcodecs.IMREAD_IGNORE_ORIENTATION;
+            case 4:
+                return Imgcodecs.IMREAD_REDUCED_COLOR_4 | Imgcodecs.IMREAD_IGNORE_ORIENTATION;
+            case 8:
+                return Imgcodecs.IMREAD_REDUCED_COLOR_8 | Imgcodecs.IMREAD_IGNORE_ORIENTATION;
+            default:
+                return Imgcodecs.IMREAD_UNCHANGED;
+        }
+    }
+
+    private static int reducedSize(int size, int reduction) {
+        // libjpeg rounds scaled dimensions up
+        return (size + reduction - 1) / reduction;
+    }
+
+    /**
+     * Check the upload's metadata. The header is probed by whoever decodes the
+     * bytes (probeImage), so the upload is only read once.
+     */
+    public void validateInputFile(MultipartFile file) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new IOException("Input file is empty or null");
         }
@@ -296,24 +580,7 @@ public class PhotoService {
             try {
                 mat.release();
             } catch (Exception e) {
-                if (debugMode) {
-                    System.err.println("Error releasing Mat: " + e.getMessage());
-                }
-            }
-        }
-    }
-
-    private void deleteTempFileSafely(File file) {
-        if (file != null && file.exists()) {
-            try {
-                boolean deleted = file.delete();
-                if (!deleted && debugMode) {
-                    System.err.println("Failed to delete temporary file: " + file.getAbsolutePath());
-                }
-            } catch (Exception e) {
-                if (debugMode) {
-                    System.err.println("Error deleting temporary file: " + e.getMessage());
-                }
+                log.debug("Error releasing Mat: {}", e.getMessage());
             }
         }
     }
@@ -331,22 +598,6 @@ public class PhotoService {
         return result;
     }
 
-    private File uploadToTempFile(MultipartFile file) throws IOException {
-        String originalFilename = file.getOriginalFilename();
-        String extension = originalFilename != null && originalFilename.contains(".")
-                ? originalFilename.substring(originalFilename.lastIndexOf("."))
-                : ".jpg";
-
-        File tempFile = File.createTempFile("upload-", extension);
-        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-            fos.write(file.getBytes());
-        } catch (IOException e) {
-            deleteTempFileSafely(tempFile);
-            throw new IOException("Failed to create temporary file: " + e.getMessage(), e);
-        }
-        return tempFile;
-    }
-
     private int[] calculatePixelSize(double width, double height, String unit, int dpi) {
         double unitToInch;
 
@@ -381,8 +632,31 @@ public class PhotoService {
     // }
 
     public byte[] BackgroundChanger(byte[] transparentImg, String background) throws IOException {
-        byte[] resultsBytes = BackgroundChanger.addBackgroundImgFromString(transparentImg, background);
-        return resultsBytes;
+        return applyBackground(transparentImg, BackgroundSpec.file(Paths.get(background)));
+    }
+
+    /**
+     * Place an already background-removed image onto a new background
+     *
+     * @param transparentImg The image with transparent background as byte array
+     * @param background     The background to place behind the subject
+     * @return The composited image as PNG bytes
+     * @throws IOException If an image can't be read or encoded
+     */
+    public byte[] applyBackground(byte[] transparentImg, BackgroundSpec background) throws IOException {
+        Mat foreground = Mats.decode(transparentImg, Imgcodecs.IMREAD_UNCHANGED);
+        Mat composed = null;
+        try {
+            if (foreground.empty()) {
+                throw new IOException("Could not read image data - invalid format");
+            }
+            // The original scene isn't available here, the blurred background uses what's left of it
+            composed = background.compose(foreground, foreground, backgroundAssets);
+            return encodeImage(composed, ".png");
+        } finally {
+            releaseMatSafely(foreground);
+            releaseMatSafely(composed);
+        }
     }
 
     /**
@@ -410,73 +684,289 @@ public class PhotoService {
      * @param brightness Brightness level (-100 to 100)
      * @param contrast Contrast level (1.0 = no change)
      * @param saturation Saturation level (1.0 = no change)
-     * @return The adjusted image as byte array
+     * @param previewMaxDimension If not null, render a fast preview no larger than this
+     *                            instead of the full-resolution image
+     * @param format Output format ("png" or "jpeg"), previews pick the faster encoding unless JPEG is requested
+     * @return The adjusted image
      * @throws IOException If processing fails
      */
-    public byte[] adjustImage(MultipartFile file, double brightness, double contrast, double saturation) throws IOException {
-        File tempFile = null;
-        File outputFile = null;
-        Mat originalImage = null;
+    public EncodedImage adjustImage(MultipartFile file, double brightness, double contrast, double saturation,
+            Integer previewMaxDimension, String format) throws IOException {
+        boolean jpeg = "jpeg".equalsIgnoreCase(format) || "jpg".equalsIgnoreCase(format);
+        Mat workingImage = null;
         Mat adjusted = null;
+        MatTracker.Request mats = MatTracker.beginRequest("adjust-photo");
+        PipelineTrace trace = startTrace("adjust-photo",
+                previewMaxDimension != null ? "preview" : jpeg ? "jpeg" : "png");
 
         try {
-            // Validate and upload to temp
             validateInputFile(file);
-            tempFile = uploadToTempFile(file);
-            
-            // Generate a key for this image (using filename and last modified time)
-            String imageKey = file.getOriginalFilename() + "_" + file.getSize();
-            
-            // Check if we already have the original image in cache
-            if (!originalImageCache.containsKey(imageKey)) {
-                // Read with OpenCV - store the original image
-                originalImage = Imgcodecs.imread(tempFile.getAbsolutePath(), Imgcodecs.IMREAD_UNCHANGED);
-                
-                if (originalImage.empty()) {
-                    throw new IOException("Failed to read image for adjustment");
-                }
-                
-                // Store in cache (with size limit check)
-                if (originalImageCache.size() >= MAX_CACHE_SIZE) {
-                    // Remove oldest entry if cache is full (simplified approach)
-                    String oldestKey = originalImageCache.keySet().iterator().next();
-                    Mat oldMat = originalImageCache.remove(oldestKey);
-                    if (oldMat != null) {
-                        oldMat.release();
-                    }
-                }
-                
-                originalImageCache.put(imageKey, originalImage.clone());
-                System.out.println("Original image cached with key: " + imageKey);
+
+            // Key on the image content so different uploads never share an entry
+            byte[] imageBytes = file.getBytes();
+            probeImage(imageBytes);
+            String imageKey = ImageCache.contentKey(imageBytes);
+
+            trace.enterStage("decode");
+            if (previewMaxDimension != null) {
+                workingImage = getPreviewImage(originalImageCache, imageKey, previewMaxDimension,
+                        () -> loadOriginalImage(imageBytes, imageKey));
             } else {
-                System.out.println("Using cached original image with key: " + imageKey);
+                workingImage = loadOriginalImage(imageBytes, imageKey);
             }
-            
-            // Get original image from cache
-            originalImage = originalImageCache.get(imageKey).clone();
 
             // Apply adjustments directly to a copy of the original
-            adjusted = ImageAdjuster.applyAdjustments(originalImage, brightness, contrast, saturation);
-            originalImage.release(); // Release this copy
-
-            // Save output
-            outputFile = File.createTempFile("adjusted-", ".png");
-            boolean success = Imgcodecs.imwrite(outputFile.getAbsolutePath(), adjusted);
-            if (!success) {
-                throw new IOException("Failed to save adjusted image");
+            MatTracker.track(workingImage);
+            trace.setImageSize(workingImage.width(), workingImage.height());
+            trace.enterStage("adjust");
+            adjusted = MatTracker.track(ImageAdjuster.applyAdjustments(workingImage, brightness, contrast, saturation));
+
+            trace.enterStage("encode");
+            if (jpeg) {
+                return encodeJpeg(adjusted, previewMaxDimension != null ? PREVIEW_JPEG_QUALITY : FINAL_JPEG_QUALITY);
             }
+            return previewMaxDimension != null
+                    ? encodePreview(adjusted)
+                    : new EncodedImage(encodeImage(adjusted, ".png"), "image/png");
+        } catch (Exception e) {
+            trace.markFailed();
+            log.error("Error adjusting image: {}", e.getMessage());
+            log.debug("Error adjusting image", e);
+            throw new IOException("Error adjusting image", e);
+        } finally {
+            releaseMatSafely(workingImage);
+            releaseMatSafely(adjusted);
+            trace.close();
+            mats.close();
+        }
+    }
+
+    /**
+     * Get a copy of the decoded original image, decoding and caching it on a cache miss
+     */
+    private Mat loadOriginalImage(byte[] imageBytes, String imageKey) throws IOException {
+        Mat originalImage = originalImageCache.get(imageKey);
+        if (originalImage != null) {
+            log.debug("Using cached original image with key: {} {}", imageKey, originalImageCache);
+            return originalImage;
+        }
+
+        // Cache miss - decode the upload and keep the decoded original for later requests
+        Mat decoded = Mats.decode(imageBytes, Imgcodecs.IMREAD_UNCHANGED);
+        if (decoded.empty()) {
+            decoded.release();
+            throw new IOException("Failed to read image for adjustment");
+        }
 
-            return Files.readAllBytes(outputFile.toPath());
+        originalImage = decoded.clone();
+        originalImageCache.put(imageKey, decoded);
+        log.debug("Original image cached with key: {} {}", imageKey, originalImageCache);
+        return originalImage;
+    }
+
+    /**
+     * Source of a full-resolution image that is only loaded when no cached preview exists
+     */
+    private interface ImageLoader {
+        Mat load() throws IOException;
+    }
+
+    /**
+     * Get a downscaled copy of an image for preview rendering.
+     * The downscaled copy is cached next to the original so repeated slider
+     * moves don't have to touch the full-resolution pixels again.
+     *
+     * @param cache        The cache holding the original image
+     * @param key          The cache key of the original image
+     * @param maxDimension The maximum width or height of the preview
+     * @param loader       Loads a copy of the full-resolution image on a cache miss
+     * @return A preview image owned by the caller
+     */
+    private Mat getPreviewImage(ImageCache cache, String key, int maxDimension, ImageLoader loader)
+            throws IOException {
+        int size = Math.max(MIN_PREVIEW_DIMENSION, Math.min(MAX_PREVIEW_DIMENSION, maxDimension));
+        String previewKey = key + PREVIEW_KEY_SUFFIX + size;
+
+        Mat preview = cache.get(previewKey);
+        if (preview != null) {
+            return preview;
+        }
+
+        Mat original = loader.load();
+        if (original == null) {
+            return null;
+        }
+
+        double scale = (double) size / Math.max(original.width(), original.height());
+        if (scale < 1.0) {
+            preview = new Mat();
+            // INTER_AREA gives the best quality when shrinking
+            Imgproc.resize(original, preview, new Size(), scale, scale, Imgproc.INTER_AREA);
+            original.release();
+        } else {
+            preview = original;
+        }
 
+        cache.putDerived(key, previewKey, preview.clone());
+        return preview;
+    }
+
+    /**
+     * Encode a preview quickly: JPEG for opaque images, lightly compressed PNG if there is transparency
+     */
+    private EncodedImage encodePreview(Mat image) throws IOException {
+        if (image.channels() == 4) {
+            return new EncodedImage(encodeImage(image, ".png",
+                    new MatOfInt(Imgcodecs.IMWRITE_PNG_COMPRESSION, 1)), "image/png");
+        }
+        return new EncodedImage(encodeImage(image, ".jpg",
+                new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, PREVIEW_JPEG_QUALITY)), "image/jpeg");
+    }
+
+    /**
+     * Encode an image as JPEG. JPEG has no alpha channel, so transparent
+     * images are flattened onto a white background first.
+     */
+    private EncodedImage encodeJpeg(Mat image, int quality) throws IOException {
+        Mat flattened = image.type() != CvType.CV_8UC3 ? BackgroundChanger.compositeOnColor(image, "#FFFFFF") : null;
+        try {
+            return new EncodedImage(encodeImage(flattened != null ? flattened : image, ".jpg",
+                    new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality)), "image/jpeg");
+        } finally {
+            releaseMatSafely(flattened);
+        }
+    }
+
+    /**
+     * Starts an editing session: decodes the uploaded image once and keeps it
+     * server-side so later adjustments only need to send parameters.
+     *
+     * @param file Multipart image file (with transparent background)
+     * @return The id of the new session
+     * @throws IOException If the image can't be read
+     */
+    public String createEditSession(MultipartFile file) throws IOException {
+        validateInputFile(file);
+        byte[] imageBytes = file.getBytes();
+        probeImage(imageBytes);
+
+        Mat decoded = Mats.decode(imageBytes, Imgcodecs.IMREAD_UNCHANGED);
+        if (decoded.empty()) {
+            decoded.release();
+            throw new IOException("Failed to read image for editing session");
+        }
+
+        // Drop sessions that have been idle too long before adding a new one
+        editSessionCache.evictExpired();
+
+        String sessionId = UUID.randomUUID().toString();
+        if (!editSessionCache.put(sessionId, decoded)) {
+            throw new IOException("Image is too large for an editing session");
+        }
+
+        log.debug("Created edit session {} {}", sessionId, editSessionCache);
+        return sessionId;
+    }
+
+    /**
+     * Applies brightness, contrast, and saturation adjustments to the image of an editing session.
+     *
+     * @param sessionId  The session id returned by {@link #createEditSession(MultipartFile)}
+     * @param brightness Brightness level (-100 to 100)
+     * @param contrast   Contrast level (1.0 = no change)
+     * @param saturation Saturation level (1.0 = no change)
+     * @param previewMaxDimension If not null, render a fast preview no larger than this
+     *                            instead of the full-resolution image
+     * @return The adjusted image, or null if the session doesn't exist or has expired
+     * @throws IOException If processing fails
+     */
+    public EncodedImage adjustSessionImage(String sessionId, double brightness, double contrast,
+            double saturation, Integer previewMaxDimension) throws IOException {
+        Mat workingImage = null;
+        Mat adjusted = null;
+        MatTracker.Request mats = MatTracker.beginRequest("adjust-session");
+        PipelineTrace trace = startTrace("adjust-session", previewMaxDimension != null ? "preview" : "png");
+        try {
+            trace.enterStage("load");
+            if (previewMaxDimension != null) {
+                // Previews only read the derived preview entry, keep the session itself alive too
+                if (!editSessionCache.touch(sessionId)) {
+                    return null;
+                }
+                workingImage = getPreviewImage(editSessionCache, sessionId, previewMaxDimension,
+                        () -> editSessionCache.get(sessionId));
+            } else {
+                workingImage = editSessionCache.get(sessionId);
+            }
+            if (workingImage == null) {
+                return null;
+            }
+
+            MatTracker.track(workingImage);
+            trace.setImageSize(workingImage.width(), workingImage.height());
+            trace.enterStage("adjust");
+            adjusted = MatTracker.track(ImageAdjuster.applyAdjustments(workingImage, brightness, contrast, saturation));
+
+            trace.enterStage("encode");
+            return previewMaxDimension != null
+                    ? encodePreview(adjusted)
+                    : new EncodedImage(encodeImage(adjusted, ".png"), "image/png");
+        } catch (IOException e) {
+            trace.markFailed();
+            throw e;
         } catch (Exception e) {
-            System.err.println("Error adjusting image: " + e.getMessage());
-            if (debugMode) e.printStackTrace();
-            throw new IOException("Error adjusting image", e);
+            trace.markFailed();
+            log.error("Error adjusting session image: {}", e.getMessage());
+            log.debug("Error adjusting session image", e);
+            throw new IOException("Error adjusting session image", e);
         } finally {
+            releaseMatSafely(workingImage);
             releaseMatSafely(adjusted);
-            deleteTempFileSafely(tempFile);
-            deleteTempFileSafely(outputFile);
+            trace.close();
+            mats.close();
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Ends an editing session and releases its image
+     *
+     * @param sessionId The session id
+     */
+    public void closeEditSession(String sessionId) {
+        editSessionCache.invalidate(sessionId);
+    }
+
+    /**
+     * Encode an image in memory
+     *
+     * @param image     The image to encode
+     * @param extension The output format extension (e.g. ".png")
+     * @return The encoded bytes
+     * @throws IOException If encoding fails
+     */
+    private byte[] encodeImage(Mat image, String extension) throws IOException {
+        return encodeImage(image, extension, new MatOfInt());
+    }
+
+    /**
+     * Encode an image in memory with encoder parameters
+     *
+     * @param image     The image to encode
+     * @param extension The output format extension (e.g. ".jpg")
+     * @param params    Pairs of Imgcodecs.IMWRITE_* flags and values
+     * @return The encoded bytes
+     * @throws IOException If encoding fails
+     */
+    private byte[] encodeImage(Mat image, String extension, MatOfInt params) throws IOException {
+        MatOfByte buffer = new MatOfByte();
+        try {
+            if (!PipelineEvents.encode(extension, image, buffer, params)) {
+                throw new IOException("Failed to encode image as " + extension);
+            }
+            return buffer.toArray();
+        } finally {
+            buffer.release();
+            params.release();
+        }
+    }
+}
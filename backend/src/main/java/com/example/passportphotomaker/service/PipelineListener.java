@@ -0,0 +1,18 @@
+package com.example.passportphotomaker.service;
+
+/**
+ * Receives progress notifications while a photo runs through the processing pipeline
+ */
+public interface PipelineListener {
+    /** Listener that ignores all notifications */
+    PipelineListener NONE = (stage, percent) -> {
+    };
+
+    /**
+     * Called when the pipeline enters a new stage
+     *
+     * @param stage   Name of the stage (e.g. "decode", "remove-background")
+     * @param percent Overall progress of the pipeline when the stage starts (0-100)
+     */
+    void onStage(String stage, int percent);
+}
@@ -0,0 +1,238 @@
+package com.example.passportphotomaker.service.admission;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits how much image processing runs at the same time.
+ * Every request is charged one CPU slot plus an estimate of the native
+ * (OpenCV / ONNX Runtime) memory it needs, based on the decoded image size.
+ * Requests wait in FIFO order until both budgets have room, and are rejected
+ * when the wait queue is full, the wait takes too long, or the image has more
+ * pixels than image.max-pixels. An image whose estimate exceeds the whole
+ * memory budget is charged the whole budget, so it runs alone.
+ */
+@Component
+public class AdmissionController {
+    private static final Logger log = LoggerFactory.getLogger(AdmissionController.class);
+
+    @Value("${admission.cpu-slots:0}")
+    private int configuredCpuSlots;
+
+    @Value("${admission.native-budget-bytes:1073741824}")
+    private long nativeBudgetBytes;
+
+    // Working set of the pipeline per input pixel: decoded image, BGRA result,
+    // masks, color space conversions and GrabCut state
+    @Value("${admission.bytes-per-pixel:32}")
+    private long bytesPerPixel;
+
+    // Same limit the header probe applies, so every upload it accepts can be admitted
+    @Value("${image.max-pixels:50000000}")
+    private long maxImagePixels;
+
+    @Value("${admission.max-queue:64}")
+    private int maxQueue;
+
+    @Value("${admission.max-wait-millis:10000}")
+    private long maxWaitMillis;
+
+    private int cpuSlots;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Object> waiting = new ArrayDeque<>();
+    private int slotsInUse = 0;
+    private long bytesInUse = 0;
+
+    // Statistics
+    private final AtomicLong admittedCount = new AtomicLong();
+    private final AtomicLong rejectedQueueFullCount = new AtomicLong();
+    private final AtomicLong rejectedTimeoutCount = new AtomicLong();
+    private final AtomicLong rejectedTooLargeCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        this.cpuSlots = configuredCpuSlots > 0 ? configuredCpuSlots : Runtime.getRuntime().availableProcessors();
+        log.info("Admission control: {} CPU slots, native budget {} MB", cpuSlots,
+                nativeBudgetBytes / (1024 * 1024));
+        long exclusivePixels = nativeBudgetBytes / Math.max(1, bytesPerPixel);
+        if (exclusivePixels < maxImagePixels) {
+            log.info("Images above {} pixels take the whole native budget and run one at a time", exclusivePixels);
+        }
+    }
+
+    /**
+     * Estimate the native memory needed to process an image
+     *
+     * @param width  Image width in pixels
+     * @param height Image height in pixels
+     * @return Estimated peak native bytes, at most the whole budget
+     */
+    public long estimateCost(int width, int height) {
+        return Math.min((long) width * height * bytesPerPixel, nativeBudgetBytes);
+    }
+
+    /**
+     * Wait for permission to process an image of the given size
+     *
+     * @param width  Image width in pixels
+     * @param height Image height in pixels
+     * @return A permit that must be closed when processing is done
+     * @throws AdmissionRejectedException If the request can't be admitted
+     */
+    public Permit acquire(int width, int height) throws AdmissionRejectedException {
+        if ((long) width * height > maxImagePixels) {
+            rejectedTooLargeCount.incrementAndGet();
+            throw new AdmissionRejectedException("Image of " + width + "x" + height
+                    + " exceeds the maximum of " + maxImagePixels + " pixels", 0);
+        }
+        long cost = estimateCost(width, height);
+
+        Object ticket = new Object();
+        lock.lock();
+        try {
+            if (waiting.size() >= maxQueue) {
+                rejectedQueueFullCount.incrementAndGet();
+                throw new AdmissionRejectedException("Too many requests waiting for processing",
+                        estimateRetryAfterSeconds());
+            }
+            waiting.addLast(ticket);
+
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            try {
+                // Only the head of the queue may start, so large images can't be starved by small ones
+                while (waiting.peekFirst() != ticket || slotsInUse >= cpuSlots
+                        || bytesInUse + cost > nativeBudgetBytes) {
+                    if (remainingNanos <= 0) {
+                        rejectedTimeoutCount.incrementAndGet();
+                        throw new AdmissionRejectedException("Timed out waiting for processing capacity",
+                                estimateRetryAfterSeconds());
+                    }
+                    remainingNanos = changed.awaitNanos(remainingNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AdmissionRejectedException("Interrupted while waiting for processing capacity", 1);
+            } finally {
+                waiting.remove(ticket);
+                // The head may have changed - let the next waiter re-check
+                changed.signalAll();
+            }
+
+            slotsInUse++;
+            bytesInUse += cost;
+            admittedCount.incrementAndGet();
+            return new Permit(cost);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long cost) {
+        lock.lock();
+        try {
+            slotsInUse--;
+            bytesInUse -= cost;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long estimateRetryAfterSeconds() {
+        // Roughly one processing round per queued request per slot
+        return Math.max(1, (waiting.size() + cpuSlots - 1) / cpuSlots * 2L);
+    }
+
+    /**
+     * How many requests are processed at the same time at most
+     */
+    public int getCpuSlots() {
+        return cpuSlots;
+    }
+
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return slotsInUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getNativeBytesInUse() {
+        lock.lock();
+        try {
+            return bytesInUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedQueueFullCount.get() + rejectedTimeoutCount.get() + rejectedTooLargeCount.get();
+    }
+
+    /**
+     * Snapshot of the current state and counters
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cpuSlots", cpuSlots);
+        stats.put("nativeBudgetBytes", nativeBudgetBytes);
+        stats.put("inFlight", getInFlight());
+        stats.put("nativeBytesInUse", getNativeBytesInUse());
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("admitted", admittedCount.get());
+        stats.put("rejectedQueueFull", rejectedQueueFullCount.get());
+        stats.put("rejectedTimeout", rejectedTimeoutCount.get());
+        stats.put("rejectedTooLarge", rejectedTooLargeCount.get());
+        return stats;
+    }
+
+    /**
+     * Grant to run one request. Closing it returns the CPU slot and memory budget.
+     */
+    public class Permit implements AutoCloseable {
+        private final long cost;
+        private boolean released = false;
+
+        private Permit(long cost) {
+            this.cost = cost;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(cost);
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.passportphotomaker.service.admission;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the admission controller refuses to run a request because the
+ * server is at its CPU or native memory budget
+ */
+public class AdmissionRejectedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Suggested number of seconds the client should wait before retrying,
+     * or 0 if the request can never be admitted
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.passportphotomaker.service.bgchange;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.example.passportphotomaker.service.cache.ImageCache;
+import com.example.passportphotomaker.service.imageprobe.ImageInfo;
+import com.example.passportphotomaker.service.imageprobe.ImageProbe;
+import com.example.passportphotomaker.service.memory.Mats;
+
+/**
+ * Keeps decoded background images, and their cover-fitted versions per target
+ * size, so repeated use of the same backdrop only costs a blend.
+ * Sources are identified by file path and modification time, or by the content
+ * hash for uploaded backgrounds. Images in the configured assets directory are
+ * decoded once at startup.
+ */
+@Component
+public class BackgroundAssetCache {
+    private static final Logger log = LoggerFactory.getLogger(BackgroundAssetCache.class);
+
+    private static final List<String> IMAGE_EXTENSIONS = List.of(".jpg", ".jpeg", ".png", ".webp", ".bmp");
+
+    @Value("${background.cache.max-bytes:134217728}")
+    private long maxBytes;
+
+    @Value("${background.cache.ttl-seconds:3600}")
+    private long ttlSeconds;
+
+    @Value("${background.assets.dir:backgrounds}")
+    private String assetsDir;
+
+    // Backgrounds are decoded outside the admission budget, they get the same pixel limit as uploads
+    @Value("${image.max-pixels:50000000}")
+    private long maxImagePixels;
+
+    private ImageCache cache;
+    private Path assetsPath;
+
+    /**
+     * Loads a decoded source image on a cache miss
+     */
+    private interface SourceLoader {
+        Mat load() throws IOException;
+    }
+
+    @PostConstruct
+    public void init() {
+        this.cache = new ImageCache("backgroundAssetCache", maxBytes, ttlSeconds * 1000);
+        this.assetsPath = Paths.get(assetsDir).toAbsolutePath().normalize();
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (cache != null) {
+            log.debug("Background asset cache at shutdown: {}", cache);
+            cache.clear();
+        }
+    }
+
+    /**
+     * Decode every image in the assets directory once the application is up
+     * (OpenCV is loaded by then)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preloadAssets() {
+        List<String> names = listAssets();
+        int loaded = 0;
+        for (String name : names) {
+            try {
+                Path path = assetsPath.resolve(name);
+                Mat source = getSource(fileKey(path), () -> readFile(path));
+                source.release();
+                loaded++;
+            } catch (IOException e) {
+                log.warn("Failed to preload background {}: {}", name, e.getMessage());
+            }
+        }
+        if (loaded > 0) {
+            log.info("Preloaded {} background assets from {}", loaded, assetsPath);
+        }
+    }
+
+    /**
+     * File names of the backgrounds available in the assets directory
+     */
+    public List<String> listAssets() {
+        if (!Files.isDirectory(assetsPath)) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> files = Files.list(assetsPath)) {
+            files.filter(Files::isRegularFile)
+                    .map(path -> path.getFileName().toString())
+                    .filter(BackgroundAssetCache::isImageFile)
+                    .sorted()
+                    .forEach(names::add);
+        } catch (IOException e) {
+            log.warn("Failed to list background assets: {}", e.getMessage());
+        }
+        return names;
+    }
+
+    /**
+     * Resolve an asset name to a file inside the assets directory
+     *
+     * @throws IOException If there is no such asset
+     */
+    public Path resolveAsset(String name) throws IOException {
+        Path path = assetsPath.resolve(name).normalize();
+        if (!path.startsWith(assetsPath) || !Files.isRegularFile(path) || !isImageFile(name)) {
+            throw new IOException("Unknown background asset: " + name);
+        }
+        return path;
+    }
+
+    /**
+     * Read the dimensions of a background from its header and reject images
+     * with more pixels than allowed, before anything is decoded
+     *
+     * @param imageBytes The encoded background image
+     * @throws IOException If the header reports an empty image or too many pixels
+     */
+    public void validateImage(byte[] imageBytes) throws IOException {
+        ImageInfo info = ImageProbe.probe(imageBytes);
+        if (info == null) {
+            return;
+        }
+        if (info.getWidth() <= 0 || info.getHeight() <= 0) {
+            throw new IOException("Invalid background dimensions: " + info.getWidth() + "x" + info.getHeight());
+        }
+        if (info.getPixelCount() > maxImagePixels) {
+            throw new IOException("Background of " + info.getWidth() + "x" + info.getHeight()
+                    + " exceeds the maximum of " + maxImagePixels + " pixels");
+        }
+    }
+
+    /**
+     * Get an uploaded background scaled to cover the given size
+     *
+     * @param imageBytes The encoded background image
+     * @return A new image of exactly width x height, owned by the caller
+     */
+    public Mat getCoverFitted(byte[] imageBytes, int width, int height) throws IOException {
+        return getCoverFitted("upload:" + ImageCache.contentKey(imageBytes), () -> decode(imageBytes),
+                width, height);
+    }
+
+    /**
+     * Get a background file scaled to cover the given size
+     *
+     * @param path The background image file
+     * @return A new image of exactly width x height, owned by the caller
+     */
+    public Mat getCoverFitted(Path path, int width, int height) throws IOException {
+        return getCoverFitted(fileKey(path), () -> readFile(path), width, height);
+    }
+
+    /**
+     * Get the decoded version of an uploaded background
+     *
+     * @return The decoded image (BGR), owned by the caller
+     */
+    public Mat getSource(byte[] imageBytes) throws IOException {
+        return getSource("upload:" + ImageCache.contentKey(imageBytes), () -> decode(imageBytes));
+    }
+
+    /**
+     * Get the decoded version of a background file
+     *
+     * @return The decoded image (BGR), owned by the caller
+     */
+    public Mat getSource(Path path) throws IOException {
+        return getSource(fileKey(path), () -> readFile(path));
+    }
+
+    public ImageCache getCache() {
+        return cache;
+    }
+
+    private Mat getCoverFitted(String sourceKey, SourceLoader loader, int width, int height) throws IOException {
+        String fittedKey = sourceKey + "@" + width + "x" + height;
+        Mat fitted = cache.get(fittedKey);
+        if (fitted != null) {
+            return fitted;
+        }
+
+        Mat source = getSource(sourceKey, loader);
+        try {
+            fitted = BackgroundChanger.coverFit(source, width, height);
+        } finally {
+            source.release();
+        }
+        cache.put(fittedKey, fitted.clone());
+        return fitted;
+    }
+
+    private Mat getSource(String sourceKey, SourceLoader loader) throws IOException {
+        Mat source = cache.get(sourceKey);
+        if (source != null) {
+            return source;
+        }
+
+        source = loader.load();
+        cache.put(sourceKey, source.clone());
+        return source;
+    }
+
+    private static String fileKey(Path path) throws IOException {
+        // The modification time makes a replaced file a new source
+        Path absolute = path.toAbsolutePath().normalize();
+        return "file:" + absolute + ":" + Files.getLastModifiedTime(absolute).toMillis();
+    }
+
+    private Mat readFile(Path path) throws IOException {
+        return decode(Files.readAllBytes(path));
+    }
+
+    private Mat decode(byte[] imageBytes) throws IOException {
+        validateImage(imageBytes);
+        Mat image = Mats.decode(imageBytes, Imgcodecs.IMREAD_COLOR);
+        if (image.empty()) {
+            image.release();
+            throw new IOException("Failed to read background image");
+        }
+        return image;
+    }
+
+    private static boolean isImageFile(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return IMAGE_EXTENSIONS.stream().anyMatch(lower::endsWith);
+    }
+}
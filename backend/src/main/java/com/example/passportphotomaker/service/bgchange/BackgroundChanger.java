@@ -1,24 +1,39 @@
 package com.example.passportphotomaker.service.bgchange;
 
-import java.awt.AlphaComposite;
 import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-
-import javax.imageio.ImageIO;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.example.passportphotomaker.service.memory.Mats;
+import com.example.passportphotomaker.service.metrics.jfr.PipelineEvents;
+
 @Component
 public class BackgroundChanger {
+    private static final Logger log = LoggerFactory.getLogger(BackgroundChanger.class);
+
     // Debug flag - set to true to enable detailed logging
     private static final boolean DEBUG = true;
 
+    // zlib level for PNG output - higher levels cost a lot of time for little size gain
+    private static final int PNG_COMPRESSION = 3;
+
     /**
      * Apply a solid color background to a transparent image
      * 
@@ -28,81 +43,22 @@ public class BackgroundChanger {
      */
     public static byte[] addSolidColorBackground(byte[] imageBytes, String colorHex) {
         if (imageBytes == null) {
-            System.err.println("Error: Image bytes cannot be null");
+            log.warn("Image bytes cannot be null");
             return null;
         }
 
-        // Convert hex string to Color
-        Color color;
-        try {
-            color = Color.decode(colorHex);
-        } catch (NumberFormatException e) {
-            System.err.println("Error: Invalid color hex code: " + colorHex);
-            color = Color.WHITE; // Default to white if invalid
-        }
-
-        ByteArrayInputStream bais = null;
-        ByteArrayOutputStream baos = null;
-
+        Mat foreground = null;
+        Mat result = null;
         try {
-            // Convert byte array to BufferedImage
-            bais = new ByteArrayInputStream(imageBytes);
-            BufferedImage image = ImageIO.read(bais);
-
-            if (image == null) {
-                System.err.println("Error: Could not read image data - invalid format");
-                return null;
-            }
-
-            // Create a new image with alpha support if needed
-            BufferedImage transparentImage;
-            if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
-                transparentImage = new BufferedImage(
-                        image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                Graphics2D g = transparentImage.createGraphics();
-                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                g.drawImage(image, 0, 0, null);
-                g.dispose();
-            } else {
-                transparentImage = image;
-            }
-
-            // Create new image with solid background
-            BufferedImage result = new BufferedImage(
-                    transparentImage.getWidth(), transparentImage.getHeight(), BufferedImage.TYPE_INT_RGB);
-
-            // Draw the background color
-            Graphics2D g2d = result.createGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-
-            // Fill with background color
-            g2d.setColor(color);
-            g2d.fillRect(0, 0, result.getWidth(), result.getHeight());
-
-            // Draw the original image on top with SRC_OVER to properly handle alpha
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
-            g2d.drawImage(transparentImage, 0, 0, null);
-            g2d.dispose();
-
-            // Convert result to byte array
-            baos = new ByteArrayOutputStream();
-            ImageIO.write(result, "png", baos);
-            return baos.toByteArray();
-
+            foreground = decodeForeground(imageBytes);
+            result = compositeOnColor(foreground, colorHex);
+            return encodePng(result);
         } catch (IOException e) {
-            System.err.println("I/O error processing image: " + e.getMessage());
+            log.error("I/O error processing image: {}", e.getMessage());
             return null;
         } finally {
-            // Clean up resources
-            try {
-                if (bais != null)
-                    bais.close();
-                if (baos != null)
-                    baos.close();
-            } catch (IOException e) {
-                System.err.println("Error closing streams: " + e.getMessage());
-            }
+            releaseMat(foreground);
+            releaseMat(result);
         }
     }
 
@@ -114,75 +70,12 @@ public class BackgroundChanger {
      * @return The combined image as byte array
      */
     public static byte[] addBackgroundImg(byte[] imageBytes, MultipartFile backgroundFile) {
-        ByteArrayInputStream bais = null;
-        ByteArrayOutputStream baos = null;
-
         try {
-            // Convert byte array to BufferedImage for the foreground
-            bais = new ByteArrayInputStream(imageBytes);
-            BufferedImage foregroundImg = ImageIO.read(bais);
-            bais.close();
-
-            // Read background image
-            BufferedImage backgroundImg = ImageIO.read(backgroundFile.getInputStream());
-
-            // Create the final output image
-            int width = foregroundImg.getWidth();
-            int height = foregroundImg.getHeight();
-            BufferedImage finalImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-            // Create graphics for final composition
-            Graphics2D g2d = finalImage.createGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-
-            // Scale background to fit the image dimensions while maintaining aspect ratio
-            double bgAspect = (double) backgroundImg.getWidth() / backgroundImg.getHeight();
-            double imgAspect = (double) width / height;
-
-            int bgWidth, bgHeight, bgX, bgY;
-
-            if (bgAspect > imgAspect) {
-                // Background is wider relative to its height than the image
-                bgHeight = height;
-                bgWidth = (int) (height * bgAspect);
-                bgX = (width - bgWidth) / 2;
-                bgY = 0;
-            } else {
-                // Background is taller relative to its width than the image
-                bgWidth = width;
-                bgHeight = (int) (width / bgAspect);
-                bgX = 0;
-                bgY = (height - bgHeight) / 2;
-            }
-
-            // Draw the background first
-            g2d.drawImage(backgroundImg, bgX, bgY, bgWidth, bgHeight, null);
-
-            // Now draw the foreground with alpha on top
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
-            g2d.drawImage(foregroundImg, 0, 0, null);
-
-            g2d.dispose();
-
-            // Convert result to byte array
-            baos = new ByteArrayOutputStream();
-            ImageIO.write(finalImage, "png", baos);
-            return baos.toByteArray();
-
+            Mat background = Mats.decode(backgroundFile.getBytes(), Imgcodecs.IMREAD_COLOR);
+            return addBackgroundMat(imageBytes, background);
         } catch (Exception e) {
-            System.err.println("Error applying image background: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error applying image background", e);
             return null;
-        } finally {
-            try {
-                if (bais != null)
-                    bais.close();
-                if (baos != null)
-                    baos.close();
-            } catch (IOException e) {
-                System.err.println("Error closing streams: " + e.getMessage());
-            }
         }
     }
 
@@ -194,75 +87,251 @@ public class BackgroundChanger {
      * @return The combined image as byte array
      */
     public static byte[] addBackgroundImgFromString(byte[] imageBytes, String backgroundPath) {
-        ByteArrayInputStream bais = null;
-        ByteArrayOutputStream baos = null;
-
         try {
-            // Convert byte array to BufferedImage for the foreground
-            bais = new ByteArrayInputStream(imageBytes);
-            BufferedImage foregroundImg = ImageIO.read(bais);
-            bais.close();
+            Mat background = Imgcodecs.imread(backgroundPath, Imgcodecs.IMREAD_COLOR);
+            return addBackgroundMat(imageBytes, background);
+        } catch (Exception e) {
+            log.error("Error applying image background", e);
+            return null;
+        }
+    }
 
-            // Read background image from path/URL
-            BufferedImage backgroundImg = ImageIO.read(new java.io.File(backgroundPath));
+    /**
+     * Composite encoded foreground bytes onto a decoded background and encode the result.
+     * Takes ownership of the background.
+     */
+    private static byte[] addBackgroundMat(byte[] imageBytes, Mat background) throws IOException {
+        Mat foreground = null;
+        Mat result = null;
+        try {
+            if (background.empty()) {
+                throw new IOException("Failed to read background image");
+            }
+            foreground = decodeForeground(imageBytes);
+            result = compositeOnImage(foreground, background);
+            return encodePng(result);
+        } finally {
+            background.release();
+            releaseMat(foreground);
+            releaseMat(result);
+        }
+    }
 
-            // Create the final output image
-            int width = foregroundImg.getWidth();
-            int height = foregroundImg.getHeight();
-            BufferedImage finalImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    /**
+     * Composite a transparent image onto a solid color without leaving OpenCV
+     *
+     * @param foreground The image with transparent background (BGRA)
+     * @param colorHex   The background color as hex string (e.g. "#FFFFFF")
+     * @return The composited image (BGR), owned by the caller
+     */
+    public static Mat compositeOnColor(Mat foreground, String colorHex) {
+        Mat background = new Mat(foreground.size(), CvType.CV_8UC3, parseColor(colorHex));
+        try {
+            return alphaBlend(foreground, background);
+        } finally {
+            background.release();
+        }
+    }
 
-            // Create graphics for final composition
-            Graphics2D g2d = finalImage.createGraphics();
-            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+    /**
+     * Composite a transparent image onto a background image without leaving OpenCV.
+     * The background is scaled to cover the whole image and centered.
+     *
+     * @param foreground The image with transparent background (BGRA)
+     * @param background The background image (BGR)
+     * @return The composited image (BGR), owned by the caller
+     */
+    public static Mat compositeOnImage(Mat foreground, Mat background) {
+        Mat fitted = coverFit(background, foreground.width(), foreground.height());
+        try {
+            return alphaBlend(foreground, fitted);
+        } finally {
+            fitted.release();
+        }
+    }
 
-            // Scale background to fit the image dimensions while maintaining aspect ratio
-            double bgAspect = (double) backgroundImg.getWidth() / backgroundImg.getHeight();
-            double imgAspect = (double) width / height;
+    /**
+     * Scale an image to cover the target size while keeping its aspect ratio,
+     * and crop the overflow evenly on both sides
+     *
+     * @return A new image of exactly width x height
+     */
+    public static Mat coverFit(Mat image, int width, int height) {
+        double scale = Math.max((double) width / image.width(), (double) height / image.height());
+        int scaledWidth = Math.max(width, (int) Math.round(image.width() * scale));
+        int scaledHeight = Math.max(height, (int) Math.round(image.height() * scale));
+
+        Mat scaled = new Mat();
+        int interpolation = scale < 1.0 ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR;
+        Imgproc.resize(image, scaled, new Size(scaledWidth, scaledHeight), 0, 0, interpolation);
+
+        Rect crop = new Rect((scaledWidth - width) / 2, (scaledHeight - height) / 2, width, height);
+        Mat result = new Mat(scaled, crop).clone();
+        scaled.release();
+        return result;
+    }
 
-            int bgWidth, bgHeight, bgX, bgY;
+    /**
+     * Place a background image the way the frontend preview does (CSS
+     * background-size / background-position), in a single affine warp.
+     * The background width is scale times the output width, the aspect ratio
+     * is kept, and the offsets move it between the left/top (-1) and
+     * right/bottom (1) edge. Uncovered areas repeat the image like CSS does.
+     *
+     * @param background The background image (BGR)
+     * @param width      The output width
+     * @param height     The output height
+     * @param scale      Background width relative to the output width
+     * @param offsetX    Horizontal position from -1 to 1, 0 is centered
+     * @param offsetY    Vertical position from -1 to 1, 0 is centered
+     * @return A new image of exactly width x height
+     */
+    public static Mat placeBackground(Mat background, int width, int height, double scale, double offsetX,
+            double offsetY) {
+        double factor = scale * width / background.width();
+        double placedWidth = background.width() * factor;
+        double placedHeight = background.height() * factor;
+        double translateX = (width - placedWidth) * (1 + offsetX) / 2;
+        double translateY = (height - placedHeight) * (1 + offsetY) / 2;
+
+        Mat transform = new Mat(2, 3, CvType.CV_64F);
+        transform.put(0, 0, factor, 0, translateX, 0, factor, translateY);
+
+        Mat result = new Mat();
+        Imgproc.warpAffine(background, result, transform, new Size(width, height), Imgproc.INTER_LINEAR,
+                Core.BORDER_WRAP);
+        transform.release();
+        return result;
+    }
 
-            if (bgAspect > imgAspect) {
-                // Background is wider relative to its height than the image
-                bgHeight = height;
-                bgWidth = (int) (height * bgAspect);
-                bgX = (width - bgWidth) / 2;
-                bgY = 0;
-            } else {
-                // Background is taller relative to its width than the image
-                bgWidth = width;
-                bgHeight = (int) (width / bgAspect);
-                bgX = 0;
-                bgY = (height - bgHeight) / 2;
+    /**
+     * Blend a foreground over an 8 bit BGR background of the same size in a
+     * single native pass, without intermediate float copies of the color images.
+     * The foreground may have any depth and channel layout an upload decodes to.
+     *
+     * @return The composited image (BGR), owned by the caller
+     */
+    public static Mat alphaBlend(Mat foreground, Mat background) {
+        Mat bgra = toBgra8(foreground);
+        Mat color = new Mat();
+        Mat weights = new Mat();
+        Mat inverseWeights = new Mat();
+        try {
+            Imgproc.cvtColor(bgra, color, Imgproc.COLOR_BGRA2BGR);
+
+            // Per-pixel weights for blendLinear: alpha for the subject, 1 - alpha for the background
+            Mat alpha = new Mat();
+            Core.extractChannel(bgra, alpha, 3);
+            alpha.convertTo(weights, CvType.CV_32F, 1.0 / 255.0);
+            alpha.convertTo(inverseWeights, CvType.CV_32F, -1.0 / 255.0, 1.0);
+            alpha.release();
+
+            Mat result = new Mat();
+            Imgproc.blendLinear(color, background, weights, inverseWeights, result);
+            return result;
+        } finally {
+            if (bgra != foreground) {
+                bgra.release();
             }
+            color.release();
+            weights.release();
+            inverseWeights.release();
+        }
+    }
 
-            // Draw the background first
-            g2d.drawImage(backgroundImg, bgX, bgY, bgWidth, bgHeight, null);
+    /**
+     * Bring an image to 8 bit BGRA, which blendLinear needs: 16 bit and float
+     * images are scaled down, gray, gray with alpha and BGR get their channels
+     * expanded, and images without alpha become opaque.
+     *
+     * @return The image itself if it already is 8 bit BGRA, otherwise a new Mat owned by the caller
+     */
+    static Mat toBgra8(Mat image) {
+        Mat eightBit = image;
+        if (image.depth() != CvType.CV_8U) {
+            eightBit = new Mat();
+            image.convertTo(eightBit, CvType.CV_8U, scaleTo8Bit(image.depth()));
+        }
+        if (eightBit.channels() == 4) {
+            return eightBit;
+        }
 
-            // Now draw the foreground with alpha on top
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f));
-            g2d.drawImage(foregroundImg, 0, 0, null);
+        Mat bgra = new Mat();
+        if (eightBit.channels() == 2) {
+            // Gray with alpha, which PNG allows but OpenCV has no conversion for
+            List<Mat> planes = new ArrayList<>();
+            Core.split(eightBit, planes);
+            Mat gray = planes.get(0);
+            Core.merge(Arrays.asList(gray, gray, gray, planes.get(1)), bgra);
+            for (Mat plane : planes) {
+                plane.release();
+            }
+        } else {
+            Imgproc.cvtColor(eightBit, bgra,
+                    eightBit.channels() == 1 ? Imgproc.COLOR_GRAY2BGRA : Imgproc.COLOR_BGR2BGRA);
+        }
+        if (eightBit != image) {
+            eightBit.release();
+        }
+        return bgra;
+    }
 
-            g2d.dispose();
+    private static double scaleTo8Bit(int depth) {
+        switch (depth) {
+            case CvType.CV_16U:
+                return 1.0 / 257.0;
+            case CvType.CV_16S:
+                return 1.0 / 128.0;
+            case CvType.CV_32F:
+            case CvType.CV_64F:
+                return 255.0;
+            default:
+                return 1.0;
+        }
+    }
 
-            // Convert result to byte array
-            baos = new ByteArrayOutputStream();
-            ImageIO.write(finalImage, "png", baos);
-            return baos.toByteArray();
+    /**
+     * Decode an image with its alpha channel, if any
+     */
+    private static Mat decodeForeground(byte[] imageBytes) throws IOException {
+        Mat image = Mats.decode(imageBytes, Imgcodecs.IMREAD_UNCHANGED);
+        if (image.empty()) {
+            image.release();
+            throw new IOException("Could not read image data - invalid format");
+        }
+        return image;
+    }
 
-        } catch (Exception e) {
-            System.err.println("Error applying image background: " + e.getMessage());
-            e.printStackTrace();
-            return null;
-        } finally {
-            try {
-                if (bais != null)
-                    bais.close();
-                if (baos != null)
-                    baos.close();
-            } catch (IOException e) {
-                System.err.println("Error closing streams: " + e.getMessage());
+    private static byte[] encodePng(Mat image) throws IOException {
+        MatOfByte buffer = new MatOfByte();
+        try {
+            if (!PipelineEvents.encode(".png", image, buffer,
+                    new MatOfInt(Imgcodecs.IMWRITE_PNG_COMPRESSION, PNG_COMPRESSION))) {
+                throw new IOException("Failed to encode image");
             }
+            return buffer.toArray();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static void releaseMat(Mat mat) {
+        if (mat != null) {
+            mat.release();
+        }
+    }
+
+    /**
+     * Parse a hex color into an OpenCV BGR scalar, defaulting to white
+     */
+    static Scalar parseColor(String colorHex) {
+        Color color;
+        try {
+            color = Color.decode(colorHex);
+        } catch (NumberFormatException | NullPointerException e) {
+            log.warn("Invalid color hex code: {}", colorHex);
+            color = Color.WHITE; // Default to white if invalid
         }
+        return new Scalar(color.getBlue(), color.getGreen(), color.getRed());
     }
-}
\ No newline at end of file
+}
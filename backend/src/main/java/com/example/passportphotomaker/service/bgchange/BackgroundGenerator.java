@@ -0,0 +1,151 @@
+package com.example.passportphotomaker.service.bgchange;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Renders built-in backgrounds directly at the output size, so popular
+ * backdrops don't need a background upload
+ */
+public class BackgroundGenerator {
+    // The blur runs on a copy whose longest side is this long
+    private static final int BLUR_WORKING_SIZE = 96;
+
+    /**
+     * A soft, out-of-focus version of the original scene.
+     * The image is shrunk, blurred at the small size and scaled back up,
+     * which costs far less than a large-kernel blur at full resolution.
+     *
+     * @param source   The original image (BGR or BGRA)
+     * @param width    The output width
+     * @param height   The output height
+     * @param strength Blur strength, the Gaussian sigma at the working size
+     * @return The blurred background (BGR), owned by the caller
+     */
+    public static Mat blurredOriginal(Mat source, int width, int height, double strength) {
+        double factor = Math.min(1.0, (double) BLUR_WORKING_SIZE / Math.max(source.width(), source.height()));
+        Size smallSize = new Size(Math.max(1, Math.round(source.width() * factor)),
+                Math.max(1, Math.round(source.height() * factor)));
+
+        Mat small = new Mat();
+        Mat result = new Mat();
+        try {
+            Imgproc.resize(source, small, smallSize, 0, 0, Imgproc.INTER_AREA);
+            if (small.channels() == 4) {
+                Imgproc.cvtColor(small, small, Imgproc.COLOR_BGRA2BGR);
+            }
+            if (strength > 0) {
+                Imgproc.GaussianBlur(small, small, new Size(0, 0), strength, strength, Core.BORDER_REFLECT);
+            }
+            Imgproc.resize(small, result, new Size(width, height), 0, 0, Imgproc.INTER_LINEAR);
+            return result;
+        } finally {
+            small.release();
+        }
+    }
+
+    /**
+     * A linear gradient between two colors
+     *
+     * @param width        The output width
+     * @param height       The output height
+     * @param fromHex      The start color as hex string (e.g. "#FFFFFF")
+     * @param toHex        The end color as hex string
+     * @param angleDegrees Direction of the gradient, 0 is left to right and 90 is top to bottom
+     * @return The gradient (BGR), owned by the caller
+     */
+    public static Mat linearGradient(int width, int height, String fromHex, String toHex, double angleDegrees) {
+        double angle = Math.toRadians(angleDegrees);
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+
+        // Project every pixel onto the gradient direction, normalized so the
+        // corners at both ends land on 0 and 1
+        double extent = Math.abs(cos) * (width - 1) + Math.abs(sin) * (height - 1);
+        double start = Math.min(0, cos * (width - 1)) + Math.min(0, sin * (height - 1));
+
+        Mat weights = new Mat();
+        Mat x = coordinateRamp(width, height, true);
+        Mat y = coordinateRamp(width, height, false);
+        try {
+            Core.addWeighted(x, cos, y, sin, -start, weights);
+            Core.multiply(weights, new Scalar(extent > 0 ? 1.0 / extent : 0), weights);
+            return blendColors(width, height, fromHex, toHex, weights);
+        } finally {
+            x.release();
+            y.release();
+            weights.release();
+        }
+    }
+
+    /**
+     * A radial gradient from the center of the image to its corners
+     *
+     * @param width    The output width
+     * @param height   The output height
+     * @param innerHex The center color as hex string (e.g. "#FFFFFF")
+     * @param outerHex The corner color as hex string
+     * @return The gradient (BGR), owned by the caller
+     */
+    public static Mat radialGradient(int width, int height, String innerHex, String outerHex) {
+        double centerX = (width - 1) / 2.0;
+        double centerY = (height - 1) / 2.0;
+        double radius = Math.max(1.0, Math.hypot(centerX, centerY));
+
+        Mat weights = new Mat();
+        Mat x = coordinateRamp(width, height, true);
+        Mat y = coordinateRamp(width, height, false);
+        try {
+            Core.subtract(x, new Scalar(centerX), x);
+            Core.subtract(y, new Scalar(centerY), y);
+            Core.magnitude(x, y, weights);
+            Core.multiply(weights, new Scalar(1.0 / radius), weights);
+            return blendColors(width, height, innerHex, outerHex, weights);
+        } finally {
+            x.release();
+            y.release();
+            weights.release();
+        }
+    }
+
+    /**
+     * Mix two solid colors, weights 0 give the first color and 1 the second
+     */
+    private static Mat blendColors(int width, int height, String firstHex, String secondHex, Mat weights) {
+        Mat first = new Mat(height, width, CvType.CV_8UC3, BackgroundChanger.parseColor(firstHex));
+        Mat second = new Mat(height, width, CvType.CV_8UC3, BackgroundChanger.parseColor(secondHex));
+        Mat inverseWeights = new Mat();
+        try {
+            weights.convertTo(inverseWeights, CvType.CV_32F, -1.0, 1.0);
+            Mat result = new Mat();
+            Imgproc.blendLinear(second, first, weights, inverseWeights, result);
+            return result;
+        } finally {
+            first.release();
+            second.release();
+            inverseWeights.release();
+        }
+    }
+
+    /**
+     * Float image holding the x (or y) coordinate of every pixel
+     */
+    private static Mat coordinateRamp(int width, int height, boolean horizontal) {
+        int length = horizontal ? width : height;
+        Mat ramp = new Mat(horizontal ? 1 : length, horizontal ? length : 1, CvType.CV_32F);
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = i;
+        }
+        ramp.put(0, 0, values);
+
+        Mat result = new Mat();
+        Core.repeat(ramp, horizontal ? height : 1, horizontal ? 1 : width, result);
+        ramp.release();
+        return result;
+    }
+}
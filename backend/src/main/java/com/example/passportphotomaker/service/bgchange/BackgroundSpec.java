@@ -0,0 +1,176 @@
+package com.example.passportphotomaker.service.bgchange;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.opencv.core.Mat;
+
+/**
+ * Describes the background to place behind a background-removed photo
+ */
+public class BackgroundSpec {
+    private enum Kind {
+        COLOR, IMAGE, FILE, BLURRED_ORIGINAL, LINEAR_GRADIENT, RADIAL_GRADIENT
+    }
+
+    private final Kind kind;
+    private final String colorHex;
+    private final String secondColorHex;
+    private final byte[] imageBytes;
+    private final Path imagePath;
+    // Blur strength or gradient angle, depending on the kind
+    private final double amount;
+
+    // Placement of background images, null for a centered cover-fit
+    private final Double scale;
+    private final double offsetX;
+    private final double offsetY;
+
+    private BackgroundSpec(Kind kind, String colorHex, String secondColorHex, byte[] imageBytes, Path imagePath,
+            double amount, Double scale, double offsetX, double offsetY) {
+        this.kind = kind;
+        this.colorHex = colorHex;
+        this.secondColorHex = secondColorHex;
+        this.imageBytes = imageBytes;
+        this.imagePath = imagePath;
+        this.amount = amount;
+        this.scale = scale;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+    }
+
+    private BackgroundSpec(Kind kind, String colorHex, String secondColorHex, byte[] imageBytes, Path imagePath,
+            double amount) {
+        this(kind, colorHex, secondColorHex, imageBytes, imagePath, amount, null, 0, 0);
+    }
+
+    /**
+     * A solid color background
+     *
+     * @param colorHex The color as hex string (e.g. "#FFFFFF")
+     */
+    public static BackgroundSpec color(String colorHex) {
+        return new BackgroundSpec(Kind.COLOR, colorHex, null, null, null, 0);
+    }
+
+    /**
+     * An uploaded background image, scaled to cover the photo
+     *
+     * @param imageBytes The encoded background image
+     */
+    public static BackgroundSpec image(byte[] imageBytes) {
+        return new BackgroundSpec(Kind.IMAGE, null, null, imageBytes, null, 0);
+    }
+
+    /**
+     * A background image file, scaled to cover the photo
+     *
+     * @param imagePath The path of the background image
+     */
+    public static BackgroundSpec file(Path imagePath) {
+        return new BackgroundSpec(Kind.FILE, null, null, null, imagePath, 0);
+    }
+
+    /**
+     * A blurred version of the original photo
+     *
+     * @param strength Blur strength, 0 for none
+     */
+    public static BackgroundSpec blurredOriginal(double strength) {
+        return new BackgroundSpec(Kind.BLURRED_ORIGINAL, null, null, null, null, Math.max(0, strength));
+    }
+
+    /**
+     * A linear gradient between two colors
+     *
+     * @param fromHex      The start color as hex string
+     * @param toHex        The end color as hex string
+     * @param angleDegrees Direction of the gradient, 0 is left to right and 90 is top to bottom
+     */
+    public static BackgroundSpec linearGradient(String fromHex, String toHex, double angleDegrees) {
+        return new BackgroundSpec(Kind.LINEAR_GRADIENT, fromHex, toHex, null, null, angleDegrees);
+    }
+
+    /**
+     * A radial gradient from the center of the photo to its corners
+     *
+     * @param innerHex The center color as hex string
+     * @param outerHex The corner color as hex string
+     */
+    public static BackgroundSpec radialGradient(String innerHex, String outerHex) {
+        return new BackgroundSpec(Kind.RADIAL_GRADIENT, innerHex, outerHex, null, null, 0);
+    }
+
+    /**
+     * Place a background image explicitly instead of cover-fitting it, using
+     * the same semantics as the frontend preview (see BackgroundChanger.placeBackground)
+     *
+     * @param scale   Background width relative to the photo width
+     * @param offsetX Horizontal position from -1 to 1, 0 is centered
+     * @param offsetY Vertical position from -1 to 1, 0 is centered
+     * @return A copy of this background with the placement applied
+     */
+    public BackgroundSpec withPlacement(double scale, double offsetX, double offsetY) {
+        if (scale <= 0) {
+            throw new IllegalArgumentException("Background scale must be positive: " + scale);
+        }
+        return new BackgroundSpec(kind, colorHex, secondColorHex, imageBytes, imagePath, amount, scale,
+                clampOffset(offsetX), clampOffset(offsetY));
+    }
+
+    /**
+     * Composite the foreground onto this background
+     *
+     * @param foreground  The image with transparent background (BGRA)
+     * @param sourceImage The original image before background removal, used by the
+     *                    blurred background
+     * @param assets      Cache of decoded and scaled background images
+     * @return The composited image (BGR), owned by the caller
+     * @throws IOException If the background image can't be read
+     */
+    public Mat compose(Mat foreground, Mat sourceImage, BackgroundAssetCache assets) throws IOException {
+        if (kind == Kind.COLOR) {
+            return BackgroundChanger.compositeOnColor(foreground, colorHex);
+        }
+
+        Mat background = render(foreground.width(), foreground.height(), sourceImage, assets);
+        try {
+            return BackgroundChanger.alphaBlend(foreground, background);
+        } finally {
+            background.release();
+        }
+    }
+
+    private Mat render(int width, int height, Mat sourceImage, BackgroundAssetCache assets) throws IOException {
+        switch (kind) {
+            case BLURRED_ORIGINAL:
+                return BackgroundGenerator.blurredOriginal(sourceImage, width, height, amount);
+            case LINEAR_GRADIENT:
+                return BackgroundGenerator.linearGradient(width, height, colorHex, secondColorHex, amount);
+            case RADIAL_GRADIENT:
+                return BackgroundGenerator.radialGradient(width, height, colorHex, secondColorHex);
+            default:
+                return renderImage(width, height, assets);
+        }
+    }
+
+    private Mat renderImage(int width, int height, BackgroundAssetCache assets) throws IOException {
+        if (scale == null) {
+            return kind == Kind.IMAGE
+                    ? assets.getCoverFitted(imageBytes, width, height)
+                    : assets.getCoverFitted(imagePath, width, height);
+        }
+
+        // Placement changes with every slider move, so only the decoded source is cached
+        Mat source = kind == Kind.IMAGE ? assets.getSource(imageBytes) : assets.getSource(imagePath);
+        try {
+            return BackgroundChanger.placeBackground(source, width, height, scale, offsetX, offsetY);
+        } finally {
+            source.release();
+        }
+    }
+
+    private static double clampOffset(double offset) {
+        return Math.max(-1.0, Math.min(1.0, offset));
+    }
+}
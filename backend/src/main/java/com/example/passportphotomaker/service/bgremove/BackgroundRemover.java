@@ -15,23 +15,53 @@ import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.example.passportphotomaker.service.ImageContext;
+import com.example.passportphotomaker.service.memory.MatScope;
+
 import ai.djl.translate.TranslateException;
 
 public abstract class BackgroundRemover {
-    public abstract Mat removeBackground(File inputFile) throws IOException, TranslateException;
+    /**
+     * Remove the background of a decoded image. Implementations take the
+     * versions of the image they need (model input, grayscale, ...) from the
+     * context, so nothing the other stages already computed is done again.
+     *
+     * @param context The image of the current request
+     * @return The image with transparent background (BGRA), owned by the caller
+     */
+    public abstract Mat removeBackground(ImageContext context) throws IOException, TranslateException;
 
-    // New overloaded method to accept Mat input
+    public Mat removeBackground(File inputFile) throws IOException, TranslateException {
+        Mat image = Imgcodecs.imread(inputFile.getAbsolutePath());
+        if (image.empty()) {
+            throw new IOException("Failed to read image");
+        }
+        try (ImageContext context = ImageContext.owning(image)) {
+            return removeBackground(context);
+        }
+    }
+
+    // Overloaded method to accept Mat input
     public Mat removeBackground(Mat inputMat) throws IOException, TranslateException {
-        // Create a temporary file from the Mat
-        File tempFile = File.createTempFile("mat-input-", ".jpg");
-        try {
-            Imgcodecs.imwrite(tempFile.getAbsolutePath(), inputMat);
-            return removeBackground(tempFile);
-        } finally {
-            tempFile.delete();
+        try (ImageContext context = new ImageContext(inputMat)) {
+            return removeBackground(context);
         }
     }
 
+    /**
+     * Short name of the segmentation engine, used to tag metrics
+     */
+    public String getEngineName() {
+        return "unknown";
+    }
+
+    /**
+     * Name of the segmentation model, "none" for engines that don't use one
+     */
+    public String getModelName() {
+        return "none";
+    }
+
     /**
      * Close any resources used by the background remover implementation.
      * This method should be called when the background remover is no longer needed.
@@ -54,134 +84,116 @@ public abstract class BackgroundRemover {
     // Shared methods (can be used by all subclasses)
     protected Mat refineMaskEdges(Mat image, Mat mask) {
         // Create mostly hard edges with very slight feathering
-        
-        // Step 1: Apply threshold to ensure binary mask (0 or 255 values only)
-        Mat binaryMask = new Mat();
-        Imgproc.threshold(mask, binaryMask, 127, 255, Imgproc.THRESH_BINARY);
-        
-        // Step 2: Clean up small artifacts and holes
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(3, 3));
-        Mat cleanedMask = new Mat();
-        
-        // Close operation fills small holes
-        Imgproc.morphologyEx(binaryMask, cleanedMask, Imgproc.MORPH_CLOSE, kernel);
-        
-        // Open operation removes small artifacts
-        Imgproc.morphologyEx(cleanedMask, cleanedMask, Imgproc.MORPH_OPEN, kernel);
-        
-        // Step 3: Extract edge region only (where feathering will be applied)
-        Mat dilatedMask = new Mat();
-        Mat erodedMask = new Mat();
-        
-        // Create dilated mask (slightly expanded)
-        Imgproc.dilate(cleanedMask, dilatedMask, kernel);
-        
-        // Create eroded mask (slightly contracted)
-        Imgproc.erode(cleanedMask, erodedMask, kernel);
-        
-        // Edge mask = dilated - eroded
-        Mat edgeMask = new Mat();
-        Core.subtract(dilatedMask, erodedMask, edgeMask);
-        
-        // Step 4: Apply very slight blur to the original mask
-        Mat slightlyBlurredMask = new Mat();
-        Imgproc.GaussianBlur(cleanedMask, slightlyBlurredMask, new Size(3, 3), 0.8);
-        
-        // Step 5: Combine - use slightly blurred mask only at the edges, keep the rest binary
-        Mat result = cleanedMask.clone();
-        slightlyBlurredMask.copyTo(result, edgeMask);
-        
-        // Clean up
-        binaryMask.release();
-        cleanedMask.release();
-        dilatedMask.release();
-        erodedMask.release();
-        edgeMask.release();
-        slightlyBlurredMask.release();
-        
-        return result;
+        try (MatScope scope = new MatScope()) {
+            // Step 1: Apply threshold to ensure binary mask (0 or 255 values only)
+            Mat binaryMask = scope.newMat();
+            Imgproc.threshold(mask, binaryMask, 127, 255, Imgproc.THRESH_BINARY);
+            
+            // Step 2: Clean up small artifacts and holes
+            Mat kernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 3);
+            Mat cleanedMask = scope.newMat();
+            
+            // Close operation fills small holes
+            Imgproc.morphologyEx(binaryMask, cleanedMask, Imgproc.MORPH_CLOSE, kernel);
+            
+            // Open operation removes small artifacts
+            Imgproc.morphologyEx(cleanedMask, cleanedMask, Imgproc.MORPH_OPEN, kernel);
+            
+            // Step 3: Extract edge region only (where feathering will be applied)
+            Mat dilatedMask = scope.newMat();
+            Mat erodedMask = scope.newMat();
+            
+            // Create dilated mask (slightly expanded)
+            Imgproc.dilate(cleanedMask, dilatedMask, kernel);
+            
+            // Create eroded mask (slightly contracted)
+            Imgproc.erode(cleanedMask, erodedMask, kernel);
+            
+            // Edge mask = dilated - eroded
+            Mat edgeMask = scope.newMat();
+            Core.subtract(dilatedMask, erodedMask, edgeMask);
+            
+            // Step 4: Apply very slight blur to the original mask
+            Mat slightlyBlurredMask = scope.newMat();
+            Imgproc.GaussianBlur(cleanedMask, slightlyBlurredMask, new Size(3, 3), 0.8);
+            
+            // Step 5: Combine - use slightly blurred mask only at the edges, keep the rest binary
+            slightlyBlurredMask.copyTo(cleanedMask, edgeMask);
+            
+            return scope.keep(cleanedMask);
+        }
     }
 
     protected Mat createAlphaMatte(Mat mask) {
         // For high-quality, smooth edges with controlled feathering
-        
-        // Step 1: Create a binary mask as base
-        Mat binaryMask = new Mat();
-        Imgproc.threshold(mask, binaryMask, 127, 255, Imgproc.THRESH_BINARY);
-        
-        // Step 2: Extract edge region only with more precision
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
-        Mat dilatedMask = new Mat();
-        Mat erodedMask = new Mat();
-        
-        // Dilate - slightly expand
-        Imgproc.dilate(binaryMask, dilatedMask, kernel);
-        
-        // Erode - slightly contract
-        Imgproc.erode(binaryMask, erodedMask, kernel);
-        
-        // Edge mask = dilated - eroded (narrow band around the edge)
-        Mat edgeMask = new Mat();
-        Core.subtract(dilatedMask, erodedMask, edgeMask);
-        
-        // Step 3: Apply more refined feathering to the edge regions
-        Mat featheredMask = binaryMask.clone();
-        
-        // Create a multi-stage blur for more natural edges
-        Mat blurredEdges = new Mat();
-        // First blur with small sigma for fine details
-        Imgproc.GaussianBlur(binaryMask, blurredEdges, new Size(3, 3), 0.8);
-        
-        // Second blur with larger sigma for more natural transition
-        Mat finalBlur = new Mat();
-        Imgproc.GaussianBlur(blurredEdges, finalBlur, new Size(7, 7), 1.5);
-        blurredEdges.release();
-        
-        // Copy the blurred edges to the edge mask region
-        finalBlur.copyTo(featheredMask, edgeMask);
-        
-        // Clean up
-        binaryMask.release();
-        dilatedMask.release();
-        erodedMask.release();
-        edgeMask.release();
-        finalBlur.release();
-        
-        return featheredMask;
+        try (MatScope scope = new MatScope()) {
+            // Step 1: Create a binary mask as base
+            Mat binaryMask = scope.newMat();
+            Imgproc.threshold(mask, binaryMask, 127, 255, Imgproc.THRESH_BINARY);
+            
+            // Step 2: Extract edge region only with more precision
+            Mat kernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 5);
+            Mat dilatedMask = scope.newMat();
+            Mat erodedMask = scope.newMat();
+            
+            // Dilate - slightly expand
+            Imgproc.dilate(binaryMask, dilatedMask, kernel);
+            
+            // Erode - slightly contract
+            Imgproc.erode(binaryMask, erodedMask, kernel);
+            
+            // Edge mask = dilated - eroded (narrow band around the edge)
+            Mat edgeMask = scope.newMat();
+            Core.subtract(dilatedMask, erodedMask, edgeMask);
+            
+            // Step 3: Apply more refined feathering to the edge regions
+            Mat featheredMask = scope.add(binaryMask.clone());
+            
+            // Create a multi-stage blur for more natural edges
+            Mat blurredEdges = scope.newMat();
+            // First blur with small sigma for fine details
+            Imgproc.GaussianBlur(binaryMask, blurredEdges, new Size(3, 3), 0.8);
+            
+            // Second blur with larger sigma for more natural transition
+            Mat finalBlur = scope.newMat();
+            Imgproc.GaussianBlur(blurredEdges, finalBlur, new Size(7, 7), 1.5);
+            
+            // Copy the blurred edges to the edge mask region
+            finalBlur.copyTo(featheredMask, edgeMask);
+            
+            return scope.keep(featheredMask);
+        }
     }
 
     protected Mat createTransparentImage(Mat image, Mat alphaMask) {
         // Create image with transparent background with high quality
-        Mat result = new Mat();
-        
-        // Ensure we maintain the full color depth
-        Imgproc.cvtColor(image, result, Imgproc.COLOR_BGR2BGRA);
-
-        // Split channels
-        List<Mat> channels = new ArrayList<>();
-        Core.split(result, channels);
-
-        // Ensure alphaMask is properly scaled to match the image dimensions
-        if (alphaMask.size().width != image.size().width || 
-            alphaMask.size().height != image.size().height) {
-            Mat resizedMask = new Mat();
-            Imgproc.resize(alphaMask, resizedMask, image.size(), 0, 0, Imgproc.INTER_CUBIC);
-            resizedMask.copyTo(channels.get(3));
-            resizedMask.release();
-        } else {
-            // Set alpha channel directly if sizes match
-            alphaMask.copyTo(channels.get(3));
+        try (MatScope scope = new MatScope()) {
+            Mat result = scope.newMat();
+            
+            // Ensure we maintain the full color depth
+            Imgproc.cvtColor(image, result, Imgproc.COLOR_BGR2BGRA);
+
+            // Split channels
+            List<Mat> channels = new ArrayList<>();
+            Core.split(result, channels);
+            scope.addAll(channels);
+
+            // Ensure alphaMask is properly scaled to match the image dimensions
+            if (alphaMask.size().width != image.size().width || 
+                alphaMask.size().height != image.size().height) {
+                Mat resizedMask = scope.newMat();
+                Imgproc.resize(alphaMask, resizedMask, image.size(), 0, 0, Imgproc.INTER_CUBIC);
+                resizedMask.copyTo(channels.get(3));
+            } else {
+                // Set alpha channel directly if sizes match
+                alphaMask.copyTo(channels.get(3));
+            }
+
+            // Merge channels
+            Core.merge(channels, result);
+
+            return scope.keep(result);
         }
-
-        // Merge channels
-        Core.merge(channels, result);
-
-        // Release channels
-        for (Mat channel : channels) {
-            channel.release();
-        }
-
-        return result;
     }
 
     protected File createTempFile(MultipartFile file) throws IOException {
@@ -2,22 +2,15 @@ package com.example.passportphotomaker.service.bgremove;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.awt.image.BufferedImage;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.util.Collections;
 import java.util.ArrayList;
 import java.util.List;
-import javax.imageio.ImageIO;
 
 // Import Microsoft's ONNX Runtime
 import ai.onnxruntime.OnnxTensor;
-import ai.onnxruntime.OnnxValue;
 import ai.onnxruntime.OrtEnvironment;
 import ai.onnxruntime.OrtException;
 import ai.onnxruntime.OrtSession;
@@ -29,15 +22,26 @@ import org.opencv.core.Mat;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.core.MatOfPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.passportphotomaker.service.ImageContext;
+import com.example.passportphotomaker.service.debug.DebugCapture;
+import com.example.passportphotomaker.service.memory.MatScope;
+import com.example.passportphotomaker.service.memory.MatTracker;
+import com.example.passportphotomaker.service.metrics.PipelineTrace;
+import com.example.passportphotomaker.service.metrics.jfr.OnnxInferenceEvent;
+import com.example.passportphotomaker.service.metrics.jfr.PipelineEvents;
 
 /**
  * Background remover implementation that uses Microsoft's ONNX Runtime directly
  * without any Deep Java Library (DJL) wrappers
  */
 public class DirectOnnxBackgroundRemover extends BackgroundRemover {
+    private static final Logger log = LoggerFactory.getLogger(DirectOnnxBackgroundRemover.class);
+
     
     private OrtEnvironment env;
     private OrtSession session;
@@ -59,23 +63,18 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
         try {
             // Note: System properties are now set in PhotoService before creating this class
             // This is a compatibility check for multiple OS environments
-            System.out.println("ONNX Runtime version check - java.vm.name: " + System.getProperty("java.vm.name"));
-            System.out.println("ONNX Runtime version check - os.name: " + System.getProperty("os.name"));
-            System.out.println("ONNX Runtime version check - os.arch: " + System.getProperty("os.arch"));
+            log.debug("ONNX Runtime version check - java.vm.name: {}, os.name: {}, os.arch: {}",
+                    System.getProperty("java.vm.name"), System.getProperty("os.name"), System.getProperty("os.arch"));
             
             initOnnxRuntime();
         } catch (UnsatisfiedLinkError e) {
-            System.err.println("ONNX Runtime native library failed to load: " + e.getMessage());
-            System.err.println("This could be due to missing dependencies like the Visual C++ Redistributable on Windows.");
-            if (debugMode) {
-                e.printStackTrace();
-            }
+            log.warn("ONNX Runtime native library failed to load: {}", e.getMessage());
+            log.warn("This could be due to missing dependencies like the Visual C++ Redistributable on Windows.");
+            log.debug("ONNX Runtime native library failed to load", e);
             throw new IOException("Failed to initialize ONNX Runtime (native library error): " + e.getMessage(), e);
         } catch (Exception e) {
-            System.err.println("Error in DirectOnnxBackgroundRemover constructor: " + e.getMessage());
-            if (debugMode) {
-                e.printStackTrace();
-            }
+            log.warn("Error in DirectOnnxBackgroundRemover constructor: {}", e.getMessage());
+            log.debug("Error in DirectOnnxBackgroundRemover constructor", e);
             throw new IOException("Failed to initialize ONNX Runtime: " + e.getMessage(), e);
         }
     }
@@ -84,33 +83,30 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
      * Initialize ONNX Runtime and load the model
      */
     private void initOnnxRuntime() throws IOException {
-        System.out.println("Initializing Direct ONNX Background Remover");
+        log.debug("Initializing Direct ONNX Background Remover");
         
         // Create models directory if it doesn't exist
         File modelsDir = new File("models");
         if (!modelsDir.exists()) {
             modelsDir.mkdirs();
-            System.out.println("Created models directory at: " + modelsDir.getAbsolutePath());
+            log.info("Created models directory at: {}", modelsDir.getAbsolutePath());
         }
         
         // Check for u2net.onnx
         File modelFile = new File(modelsDir, "u2net.onnx");
         if (!modelFile.exists()) {
-            System.out.println("\n=========================================");
-            System.out.println("U2NET MODEL NOT FOUND - PLEASE DOWNLOAD:");
-            System.out.println("Download from: https://github.com/danielgatis/rembg/raw/main/rembg/sessions/u2net.onnx");
-            System.out.println("Save it to: " + modelFile.getAbsolutePath());
-            System.out.println("=========================================\n");
+            log.warn("U2Net model not found, download it from "
+                    + "https://github.com/danielgatis/rembg/raw/main/rembg/sessions/u2net.onnx and save it to: {}",
+                    modelFile.getAbsolutePath());
             throw new IOException("Model file not found at: " + modelFile.getAbsolutePath());
         }
         
-        System.out.println("Found model file: " + modelFile.getAbsolutePath());
-        System.out.println("Model file size: " + modelFile.length() + " bytes");
+        log.info("Found model file: {} ({} bytes)", modelFile.getAbsolutePath(), modelFile.length());
         
         try {
             // Create ONNX Runtime environment
             env = OrtEnvironment.getEnvironment();
-            System.out.println("Created ONNX Runtime environment");
+            log.debug("Created ONNX Runtime environment");
             
             // Configure session options
             OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions();
@@ -120,289 +116,209 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
             sessionOptions.setMemoryPatternOptimization(true);
             
             // CPU is the default execution provider
-            System.out.println("Using default CPU execution provider");
+            log.debug("Using default CPU execution provider");
             
             // Create session with the model file
             session = env.createSession(modelFile.getAbsolutePath(), sessionOptions);
-            System.out.println("Created ONNX Runtime session with model");
+            log.debug("Created ONNX Runtime session with model");
             
             // Print model info
-            System.out.println("Model inputs:");
+            log.debug("Model inputs:");
             for (NodeInfo input : session.getInputInfo().values()) {
-                System.out.println(" - " + input.getName() + ": " + input.getInfo());
+                log.debug(" - {}: {}", input.getName(), input.getInfo());
             }
             
-            System.out.println("Model outputs:");
+            log.debug("Model outputs:");
             for (NodeInfo output : session.getOutputInfo().values()) {
-                System.out.println(" - " + output.getName() + ": " + output.getInfo());
+                log.debug(" - {}: {}", output.getName(), output.getInfo());
             }
             
-            System.out.println("ONNX Runtime initialized successfully");
+            log.info("ONNX Runtime initialized successfully");
         } catch (OrtException e) {
-            System.err.println("Error initializing ONNX Runtime: " + e.getMessage());
-            if (debugMode) {
-                e.printStackTrace();
-            }
+            log.warn("Error initializing ONNX Runtime: {}", e.getMessage());
+            log.debug("Error initializing ONNX Runtime", e);
             throw new IOException("Failed to initialize ONNX Runtime: " + e.getMessage(), e);
         }
     }
     
     @Override
-    public Mat removeBackground(File inputFile) throws IOException {
-        System.out.println("======= STARTING DIRECT ONNX BACKGROUND REMOVAL =======");
-        System.out.println("Processing image: " + inputFile.getAbsolutePath());
-        
-        // Load and preprocess the image
-        BufferedImage originalImage = ImageIO.read(inputFile);
-        int originalWidth = originalImage.getWidth();
-        int originalHeight = originalImage.getHeight();
-        System.out.println("Image dimensions: " + originalWidth + "x" + originalHeight);
-        
+    @SuppressWarnings("try")
+    public Mat removeBackground(ImageContext context) throws IOException {
+        // The original image is shared with the other pipeline stages
+        Mat cvImage = context.getFull();
+        int originalWidth = cvImage.width();
+        int originalHeight = cvImage.height();
+        log.debug("Image dimensions: {}x{}", originalWidth, originalHeight);
+        
+        PipelineTrace trace = context.getTrace();
         try {
             // 1. Preprocess the image
-            float[][][][] inputData = preprocessImage(originalImage, targetSize);
-            
-            // 2. Run inference
-            OnnxTensor inputTensor = OnnxTensor.createTensor(env, inputData);
-            System.out.println("Created input tensor with shape: [1, 3, " + targetSize + ", " + targetSize + "]");
-            
-            // Run inference and get the output
-            OrtSession.Result result = session.run(Collections.singletonMap("input.1", inputTensor));
-            System.out.println("Inference completed successfully");
-            
-            // Extract the mask from the result (first output)
-            OnnxValue outputValue = result.get(0);
-            float[][][][] outputData = (float[][][][]) outputValue.getValue();
-            
-            // 3. Postprocess the mask
-            BufferedImage maskImage = postprocessMask(outputData, originalWidth, originalHeight);
-            
-            // Save debug output if needed
-            if (debugMode) {
-                Path debugPath = Paths.get("debug_onnx_mask.png");
-                ImageIO.write(maskImage, "png", debugPath.toFile());
-                System.out.println("Saved debug mask to: " + debugPath.toFile().getAbsolutePath());
+            FloatBuffer inputData;
+            try (PipelineTrace.Step step = trace.step("preprocess")) {
+                inputData = preprocessImage(context.getModelInput(targetSize));
             }
             
-            // 4. Convert mask to OpenCV Mat
-            Mat cvMask = convertBufferedImageToMat(maskImage);
-            
-            // 5. Load original image in OpenCV format
-            Mat cvImage = Imgcodecs.imread(inputFile.getAbsolutePath());
-            
-            // 6. Ensure mask is same size as image 
-            if (cvMask.size().width != cvImage.size().width || cvMask.size().height != cvImage.size().height) {
-                System.out.println("Resizing mask from " + cvMask.size() + " to " + cvImage.size());
-                Imgproc.resize(cvMask, cvMask, cvImage.size());
-            }
-            
-            // 7. Post-process the mask to improve quality
-            Mat enhancedMask = postProcessMask(cvImage, cvMask);
-            
-            // 8. Create alpha matte for smooth edges
-            Mat alphaMatte = createAlphaMatte(enhancedMask);
-            
-            // 9. Create final transparent image
-            Mat resultImage = createTransparentImage(cvImage, alphaMatte);
-            
-            // Save debug images if needed
-            if (debugMode) {
-                Imgcodecs.imwrite("debug_cv_mask.png", cvMask);
-                Imgcodecs.imwrite("debug_enhanced_mask.png", enhancedMask);
-                Imgcodecs.imwrite("debug_alpha_matte.png", alphaMatte);
-                Imgcodecs.imwrite("debug_result.png", resultImage);
+            // 2. Run inference
+            long[] inputShape = {1, 3, targetSize, targetSize};
+            try (OnnxTensor inputTensor = OnnxTensor.createTensor(env, inputData, inputShape);
+                    OrtSession.Result result = runInference(inputTensor, context)) {
+                log.debug("Inference completed successfully");
+                
+                // 3. Postprocess the mask (first output) to the size of the original image
+                Mat cvMask = postprocessMask((OnnxTensor) result.get(0), originalWidth, originalHeight);
+                
+                // 4. Post-process the mask to improve quality (mostly GrabCut)
+                Mat enhancedMask;
+                try (PipelineTrace.Step step = trace.step("grabcut")) {
+                    enhancedMask = postProcessMask(cvImage, cvMask);
+                }
+                
+                // 5. Create alpha matte for smooth edges, then the final transparent image
+                Mat alphaMatte;
+                Mat resultImage;
+                try (PipelineTrace.Step step = trace.step("matte")) {
+                    alphaMatte = createAlphaMatte(enhancedMask);
+                    resultImage = createTransparentImage(cvImage, alphaMatte);
+                }
+                
+                // Save debug images if the request is captured
+                DebugCapture.save("cv_mask", cvMask);
+                DebugCapture.save("enhanced_mask", enhancedMask);
+                DebugCapture.save("alpha_matte", alphaMatte);
+                DebugCapture.save("result", resultImage);
+                
+                // Clean up
+                cvMask.release();
+                enhancedMask.release();
+                alphaMatte.release();
+                
+                log.debug("Background removal completed successfully");
+                return resultImage;
             }
-            
-            // Clean up
-            cvImage.release();
-            cvMask.release();
-            enhancedMask.release();
-            alphaMatte.release();
-            
-            // Clean up ONNX resources
-            inputTensor.close();
-            result.close();
-            
-            System.out.println("Background removal completed successfully");
-            return resultImage;
         } catch (OrtException e) {
-            System.err.println("Error during ONNX inference: " + e.getMessage());
-            if (debugMode) {
-                e.printStackTrace();
-            }
+            log.error("Error during ONNX inference: {}", e.getMessage());
+            log.debug("Error during ONNX inference", e);
             throw new IOException("ONNX inference failed: " + e.getMessage(), e);
         } catch (Exception e) {
-            System.err.println("Error in background removal: " + e.getMessage());
-            if (debugMode) {
-                e.printStackTrace();
-            }
+            log.error("Error in background removal: {}", e.getMessage());
+            log.debug("Error in background removal", e);
             throw new IOException("Error in background removal: " + e.getMessage(), e);
+        }
+    }
+    
+    @SuppressWarnings("try")
+    private OrtSession.Result runInference(OnnxTensor inputTensor, ImageContext context) throws OrtException {
+        OnnxInferenceEvent event = PipelineEvents.beginInference();
+        try (PipelineTrace.Step step = context.getTrace().step("inference")) {
+            return session.run(Collections.singletonMap("input.1", inputTensor));
         } finally {
-            System.out.println("======= BACKGROUND REMOVAL PROCESS ENDED =======");
+            PipelineEvents.endInference(event, getEngineName(), getModelName(), targetSize, context.getWidth(),
+                    context.getHeight());
         }
     }
     
+    @Override
+    public String getEngineName() {
+        return "onnx";
+    }
+    
+    @Override
+    public String getModelName() {
+        return "u2net";
+    }
+    
     /**
      * Preprocess the image for ONNX inference
      * 
-     * @param image The input image
-     * @param targetSize The target size for the model
-     * @return A 4D float array with shape [1, 3, height, width] normalized to [0, 1]
+     * @param modelInput The image scaled to the model input size (RGB)
+     * @return The pixels in NCHW order, normalized to [0, 1]
      */
-    private float[][][][] preprocessImage(BufferedImage image, int targetSize) {
-        // Resize image to target size
-        BufferedImage resizedImage = new BufferedImage(targetSize, targetSize, BufferedImage.TYPE_INT_RGB);
-        Graphics2D graphics = resizedImage.createGraphics();
-        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        graphics.drawImage(image, 0, 0, targetSize, targetSize, null);
-        graphics.dispose();
-        
-        System.out.println("Resized image to: " + targetSize + "x" + targetSize);
-        
-        // Create tensor with shape [1, 3, height, width]
-        float[][][][] tensor = new float[1][3][targetSize][targetSize];
-        
-        // Fill tensor with normalized RGB values
-        for (int y = 0; y < targetSize; y++) {
-            for (int x = 0; x < targetSize; x++) {
-                int rgb = resizedImage.getRGB(x, y);
-                
-                // Extract RGB values (0-255)
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-                
-                // Normalize to [0, 1] and store in NCHW format
-                tensor[0][0][y][x] = r / 255.0f;
-                tensor[0][1][y][x] = g / 255.0f;
-                tensor[0][2][y][x] = b / 255.0f;
-            }
+    static FloatBuffer preprocessImage(Mat modelInput) {
+        int planeSize = modelInput.width() * modelInput.height();
+        float[] tensor = new float[3 * planeSize];
+        
+        // Normalize to [0, 1], then copy every color plane in turn
+        Mat normalized = new Mat();
+        List<Mat> planes = new ArrayList<>(3);
+        modelInput.convertTo(normalized, CvType.CV_32F, 1.0 / 255.0);
+        Core.split(normalized, planes);
+        float[] plane = new float[planeSize];
+        for (int c = 0; c < 3; c++) {
+            planes.get(c).get(0, 0, plane);
+            System.arraycopy(plane, 0, tensor, c * planeSize, planeSize);
+            planes.get(c).release();
         }
+        normalized.release();
         
-        System.out.println("Created input tensor with shape: [1, 3, " + targetSize + ", " + targetSize + "]");
-        return tensor;
+        log.debug("Created input tensor with shape: [1, 3, {}, {}]", modelInput.height(), modelInput.width());
+        return FloatBuffer.wrap(tensor);
     }
     
     /**
      * Postprocess the mask from the model output
      * 
-     * @param outputData The model output data
+     * @param output The model output, shape [1, 1, height, width]
      * @param originalWidth The original image width
      * @param originalHeight The original image height
-     * @return A binary mask as BufferedImage
+     * @return The mask scaled to 0-255 at the original image size (8 bit, one channel)
      */
-    private BufferedImage postprocessMask(float[][][][] outputData, int originalWidth, int originalHeight) {
-        System.out.println("Output data shape: [" + outputData.length + ", " + 
-                          outputData[0].length + ", " + 
-                          outputData[0][0].length + ", " + 
-                          outputData[0][0][0].length + "]");
-        
-        // Get mask from first output, first batch
-        float[][] maskData = outputData[0][0];
-        int maskHeight = maskData.length;
-        int maskWidth = maskData[0].length;
-        
-        System.out.println("Extracted mask with dimensions: " + maskWidth + "x" + maskHeight);
+    static Mat postprocessMask(OnnxTensor output, int originalWidth, int originalHeight) {
+        long[] shape = output.getInfo().getShape();
+        int maskHeight = (int) shape[2];
+        int maskWidth = (int) shape[3];
+        log.debug("Extracted mask with dimensions: {}x{}", maskWidth, maskHeight);
         
-        // Create grayscale image from mask
-        BufferedImage maskImage = new BufferedImage(maskWidth, maskHeight, BufferedImage.TYPE_BYTE_GRAY);
+        // The first channel of the first batch is the mask
+        float[] maskData = new float[maskWidth * maskHeight];
+        output.getFloatBuffer().get(maskData);
+        Mat rawMask = new Mat(maskHeight, maskWidth, CvType.CV_32F);
+        rawMask.put(0, 0, maskData);
         
-        // Find min and max values for normalization
-        float minVal = Float.MAX_VALUE;
-        float maxVal = Float.MIN_VALUE;
-        
-        for (int y = 0; y < maskHeight; y++) {
-            for (int x = 0; x < maskWidth; x++) {
-                float val = maskData[y][x];
-                minVal = Math.min(minVal, val);
-                maxVal = Math.max(maxVal, val);
-            }
-        }
-        
-        System.out.println("Mask value range: [" + minVal + ", " + maxVal + "]");
-        
-        // Normalize and convert to byte array
-        byte[] pixels = new byte[maskWidth * maskHeight];
-        
-        for (int y = 0; y < maskHeight; y++) {
-            for (int x = 0; x < maskWidth; x++) {
-                float normalizedValue = (maskData[y][x] - minVal) / (maxVal - minVal);
-                pixels[y * maskWidth + x] = (byte)(normalizedValue * 255);
-            }
-        }
+        // Stretch the value range to 0-255
+        Mat mask = new Mat();
+        Core.normalize(rawMask, mask, 0, 255, Core.NORM_MINMAX, CvType.CV_8U);
+        rawMask.release();
         
-        // Set data in the image
-        maskImage.getRaster().setDataElements(0, 0, maskWidth, maskHeight, pixels);
+        DebugCapture.save("onnx_mask", mask);
         
         // Resize to original dimensions if needed
         if (maskWidth != originalWidth || maskHeight != originalHeight) {
-            BufferedImage resized = new BufferedImage(originalWidth, originalHeight, BufferedImage.TYPE_BYTE_GRAY);
-            Graphics2D g = resized.createGraphics();
-            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g.drawImage(maskImage, 0, 0, originalWidth, originalHeight, null);
-            g.dispose();
-            return resized;
+            Imgproc.resize(mask, mask, new Size(originalWidth, originalHeight), 0, 0, Imgproc.INTER_LINEAR);
         }
-        
-        return maskImage;
-    }
-    
-    /**
-     * Convert BufferedImage to OpenCV Mat
-     */
-    private Mat convertBufferedImageToMat(BufferedImage image) {
-        // Create OpenCV Mat with same dimensions
-        Mat mat = new Mat(image.getHeight(), image.getWidth(), CvType.CV_8UC1);
-        
-        // Convert image data to byte array
-        byte[] data = new byte[image.getWidth() * image.getHeight()];
-        int[] rgb = image.getRaster().getPixels(0, 0, image.getWidth(), image.getHeight(), (int[])null);
-        
-        for (int i = 0; i < rgb.length; i++) {
-            data[i] = (byte)rgb[i];
-        }
-        
-        // Put data into Mat
-        mat.put(0, 0, data);
-        
-        return mat;
+        return mask;
     }
     
     /**
      * Post-process the mask to improve quality, especially for human subjects
      */
     private Mat postProcessMask(Mat image, Mat initialMask) {
-        // Apply threshold to make mask more decisive
-        Mat thresholdedMask = new Mat();
-        Imgproc.threshold(initialMask, thresholdedMask, 127, 255, Imgproc.THRESH_BINARY);
-        
-        // Create refined mask with morphological operations
-        Mat refinedMask = new Mat();
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
-        
-        // Close operation to fill gaps in the mask (especially useful for hair)
-        Imgproc.morphologyEx(thresholdedMask, refinedMask, Imgproc.MORPH_CLOSE, kernel);
-        
-        // Further refinement with GrabCut
-        refinedMask = refineMaskWithGrabCut(image, refinedMask);
-        
-        // Apply edge-aware refinement
-        Mat finalMask = refineMaskEdges(image, refinedMask);
-        
-        // Clean up
-        thresholdedMask.release();
-        refinedMask.release();
-        
-        return finalMask;
+        try (MatScope scope = new MatScope()) {
+            // Apply threshold to make mask more decisive
+            Mat thresholdedMask = scope.newMat();
+            Imgproc.threshold(initialMask, thresholdedMask, 127, 255, Imgproc.THRESH_BINARY);
+            
+            // Create refined mask with morphological operations
+            Mat refinedMask = scope.newMat();
+            Mat kernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 5);
+            
+            // Close operation to fill gaps in the mask (especially useful for hair)
+            Imgproc.morphologyEx(thresholdedMask, refinedMask, Imgproc.MORPH_CLOSE, kernel);
+            
+            // Further refinement with GrabCut
+            refinedMask = scope.add(refineMaskWithGrabCut(image, refinedMask));
+            
+            // Apply edge-aware refinement
+            return refineMaskEdges(image, refinedMask);
+        }
     }
     
     /**
      * Enhance mask using GrabCut algorithm - specifically for human subjects
      */
     private Mat refineMaskWithGrabCut(Mat image, Mat mask) {
-        try {
+        try (MatScope scope = new MatScope()) {
             // Convert mask to GrabCut format (GC_BGD, GC_FGD, GC_PR_BGD, GC_PR_FGD)
-            Mat grabCutMask = new Mat(image.size(), CvType.CV_8UC1, new Scalar(Imgproc.GC_PR_BGD));
+            Mat grabCutMask = scope.newMask(image.size(), Imgproc.GC_PR_BGD);
             
             // Create counts to ensure we have both foreground and background samples
             int fgdCount = 0;
@@ -427,8 +343,8 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
             
             // Check if we have both foreground and background samples
             if (fgdCount == 0 || bgdCount == 0) {
-                System.out.println("GrabCut skipped: Not enough foreground (" + fgdCount + 
-                                 ") or background (" + bgdCount + ") samples");
+                log.debug("GrabCut skipped: Not enough foreground ({}) or background ({}) samples", fgdCount,
+                        bgdCount);
                 
                 // Force some samples if needed to avoid the error
                 if (fgdCount == 0) {
@@ -444,7 +360,7 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
                             }
                         }
                     }
-                    System.out.println("Added forced foreground samples in center");
+                    log.debug("Added forced foreground samples in center");
                 }
                 
                 if (bgdCount == 0) {
@@ -478,13 +394,13 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
                             }
                         }
                     }
-                    System.out.println("Added forced background samples at edges");
+                    log.debug("Added forced background samples at edges");
                 }
             }
             
             // Apply GrabCut for better segmentation
-            Mat bgModel = new Mat();
-            Mat fgModel = new Mat();
+            Mat bgModel = scope.newMat();
+            Mat fgModel = scope.newMat();
             
             // For portrait photos, we can make assumptions about the subject position
             // Usually in the center of the frame
@@ -501,35 +417,29 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
             );
             
             // Run GrabCut algorithm
-            Imgproc.grabCut(image, grabCutMask, centerRect, bgModel, fgModel, 3, Imgproc.GC_INIT_WITH_MASK);
-            System.out.println("GrabCut completed successfully");
+            PipelineEvents.grabCut(getEngineName(), image, grabCutMask, centerRect, bgModel, fgModel, 3,
+                    Imgproc.GC_INIT_WITH_MASK);
+            log.debug("GrabCut completed successfully");
             
             // Create final mask
-            Mat foreground = new Mat();
-            Mat probForeground = new Mat();
+            Mat foreground = scope.newMat();
+            Mat probForeground = scope.newMat();
             Core.compare(grabCutMask, new Scalar(Imgproc.GC_FGD), foreground, Core.CMP_EQ);
             Core.compare(grabCutMask, new Scalar(Imgproc.GC_PR_FGD), probForeground, Core.CMP_EQ);
             
             // Combine definite and probable foreground
-            Mat finalMask = new Mat();
+            Mat finalMask = scope.newMat();
             Core.bitwise_or(foreground, probForeground, finalMask);
             
             // Convert to 8-bit
             finalMask.convertTo(finalMask, CvType.CV_8UC1, 255);
             
-            // Clean up
-            grabCutMask.release();
-            bgModel.release();
-            fgModel.release();
-            foreground.release();
-            probForeground.release();
-            
-            return finalMask;
+            return scope.keep(finalMask);
         } catch (Exception e) {
-            System.err.println("GrabCut error: " + e.getMessage());
+            log.warn("GrabCut error: {}", e.getMessage());
             // If GrabCut fails, just return the original mask
-            System.out.println("Returning original mask due to GrabCut failure");
-            return mask.clone();
+            log.debug("Returning original mask due to GrabCut failure");
+            return MatTracker.track(mask.clone());
         }
     }
     
@@ -538,54 +448,48 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
      */
     @Override
     protected Mat refineMaskEdges(Mat image, Mat mask) {
-        // Step 1: Apply threshold to create a binary mask
-        Mat binaryMask = new Mat();
-        Imgproc.threshold(mask, binaryMask, 127, 255, Imgproc.THRESH_BINARY);
-        
-        // Step 2: Clean up small artifacts and holes
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
-        Mat cleanedMask = new Mat();
-        
-        // Close operation to fill gaps
-        Imgproc.morphologyEx(binaryMask, cleanedMask, Imgproc.MORPH_CLOSE, kernel);
-        
-        // Open operation to remove small islands
-        Imgproc.morphologyEx(cleanedMask, cleanedMask, Imgproc.MORPH_OPEN, kernel);
-        
-        // Step 3: Create edge mask to identify boundary regions
-        Mat dilatedMask = new Mat();
-        Mat erodedMask = new Mat();
-        
-        // Use a smaller kernel for edge detection to keep feathering minimal
-        Mat edgeKernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(3, 3));
-        
-        // Dilate - expand slightly
-        Imgproc.dilate(cleanedMask, dilatedMask, edgeKernel);
-        
-        // Erode - contract slightly
-        Imgproc.erode(cleanedMask, erodedMask, edgeKernel);
-        
-        // Edge mask = dilated - eroded (narrow band at the boundary)
-        Mat edgeMask = new Mat();
-        Core.subtract(dilatedMask, erodedMask, edgeMask);
-        
-        // Step 4: Apply very slight blur to the mask
-        Mat slightlyBlurredMask = new Mat();
-        Imgproc.GaussianBlur(cleanedMask, slightlyBlurredMask, new Size(3, 3), 0.8);
-        
-        // Step 5: Combine - use blurred mask only at the edges
-        Mat result = cleanedMask.clone();
-        slightlyBlurredMask.copyTo(result, edgeMask);
-        
-        // Clean up resources
-        binaryMask.release();
-        cleanedMask.release();
-        dilatedMask.release();
-        erodedMask.release();
-        edgeMask.release();
-        slightlyBlurredMask.release();
-        
-        return result;
+        try (MatScope scope = new MatScope()) {
+            // Step 1: Apply threshold to create a binary mask
+            Mat binaryMask = scope.newMat();
+            Imgproc.threshold(mask, binaryMask, 127, 255, Imgproc.THRESH_BINARY);
+            
+            // Step 2: Clean up small artifacts and holes
+            Mat kernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 5);
+            Mat cleanedMask = scope.newMat();
+            
+            // Close operation to fill gaps
+            Imgproc.morphologyEx(binaryMask, cleanedMask, Imgproc.MORPH_CLOSE, kernel);
+            
+            // Open operation to remove small islands
+            Imgproc.morphologyEx(cleanedMask, cleanedMask, Imgproc.MORPH_OPEN, kernel);
+            
+            // Step 3: Create edge mask to identify boundary regions
+            Mat dilatedMask = scope.newMat();
+            Mat erodedMask = scope.newMat();
+            
+            // Use a smaller kernel for edge detection to keep feathering minimal
+            Mat edgeKernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 3);
+            
+            // Dilate - expand slightly
+            Imgproc.dilate(cleanedMask, dilatedMask, edgeKernel);
+            
+            // Erode - contract slightly
+            Imgproc.erode(cleanedMask, erodedMask, edgeKernel);
+            
+            // Edge mask = dilated - eroded (narrow band at the boundary)
+            Mat edgeMask = scope.newMat();
+            Core.subtract(dilatedMask, erodedMask, edgeMask);
+            
+            // Step 4: Apply very slight blur to the mask
+            Mat slightlyBlurredMask = scope.newMat();
+            Imgproc.GaussianBlur(cleanedMask, slightlyBlurredMask, new Size(3, 3), 0.8);
+            
+            // Step 5: Combine - use blurred mask only at the edges
+            Mat result = scope.add(cleanedMask.clone());
+            slightlyBlurredMask.copyTo(result, edgeMask);
+            
+            return scope.keep(result);
+        }
     }
     
     /**
@@ -593,40 +497,35 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
      */
     @Override
     protected Mat createAlphaMatte(Mat mask) {
-        // Step 1: Start with a binary mask
-        Mat binaryMask = new Mat();
-        Imgproc.threshold(mask, binaryMask, 127, 255, Imgproc.THRESH_BINARY);
-        
-        // Step 2: Identify edge regions
-        Mat smallKernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(2, 2));
-        Mat dilatedMask = new Mat();
-        Mat erodedMask = new Mat();
-        
-        // Create narrow band around the edges
-        Imgproc.dilate(binaryMask, dilatedMask, smallKernel);
-        Imgproc.erode(binaryMask, erodedMask, smallKernel);
-        
-        // Edge mask = dilated - eroded
-        Mat edgeMask = new Mat();
-        Core.subtract(dilatedMask, erodedMask, edgeMask);
-        
-        // Step 3: Apply subtle blur
-        Mat blurredMask = new Mat();
-        // Very small sigma (0.5) for minimal feathering
-        Imgproc.GaussianBlur(binaryMask, blurredMask, new Size(3, 3), 0.5);
-        
-        // Step 4: Only apply blur at the edges
-        Mat result = binaryMask.clone();
-        blurredMask.copyTo(result, edgeMask);
-        
-        // Clean up resources
-        binaryMask.release();
-        dilatedMask.release();
-        erodedMask.release();
-        edgeMask.release();
-        blurredMask.release();
-        
-        return result;
+        try (MatScope scope = new MatScope()) {
+            // Step 1: Start with a binary mask
+            Mat binaryMask = scope.newMat();
+            Imgproc.threshold(mask, binaryMask, 127, 255, Imgproc.THRESH_BINARY);
+            
+            // Step 2: Identify edge regions
+            Mat smallKernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 2);
+            Mat dilatedMask = scope.newMat();
+            Mat erodedMask = scope.newMat();
+            
+            // Create narrow band around the edges
+            Imgproc.dilate(binaryMask, dilatedMask, smallKernel);
+            Imgproc.erode(binaryMask, erodedMask, smallKernel);
+            
+            // Edge mask = dilated - eroded
+            Mat edgeMask = scope.newMat();
+            Core.subtract(dilatedMask, erodedMask, edgeMask);
+            
+            // Step 3: Apply subtle blur
+            Mat blurredMask = scope.newMat();
+            // Very small sigma (0.5) for minimal feathering
+            Imgproc.GaussianBlur(binaryMask, blurredMask, new Size(3, 3), 0.5);
+            
+            // Step 4: Only apply blur at the edges
+            Mat result = scope.add(binaryMask.clone());
+            blurredMask.copyTo(result, edgeMask);
+            
+            return scope.keep(result);
+        }
     }
     
     /**
@@ -635,7 +534,7 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
     @Override
     protected Mat createTransparentImage(Mat image, Mat alphaMatte) {
         // Create 4-channel BGRA image
-        Mat result = new Mat(image.size(), CvType.CV_8UC4);
+        Mat result = MatTracker.track(new Mat(image.size(), CvType.CV_8UC4));
         
         // Convert BGR to BGRA
         List<Mat> channels = new ArrayList<>(3);
@@ -660,7 +559,7 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
      */
     @Override
     public void close() {
-        System.out.println("Closing DirectOnnxBackgroundRemover resources");
+        log.debug("Closing DirectOnnxBackgroundRemover resources");
         
         try {
             if (session != null) {
@@ -673,7 +572,7 @@ public class DirectOnnxBackgroundRemover extends BackgroundRemover {
                 env = null;
             }
         } catch (Exception e) {
-            System.err.println("Error closing ONNX Runtime resources: " + e.getMessage());
+            log.warn("Error closing ONNX Runtime resources: {}", e.getMessage());
         }
     }
 } 
\ No newline at end of file
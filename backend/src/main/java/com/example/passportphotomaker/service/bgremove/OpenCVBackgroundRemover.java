@@ -1,9 +1,6 @@
 package com.example.passportphotomaker.service.bgremove;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
@@ -13,154 +10,124 @@ import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import com.example.passportphotomaker.service.ImageContext;
+import com.example.passportphotomaker.service.debug.DebugCapture;
+import com.example.passportphotomaker.service.facedetect.CascadePool;
+import com.example.passportphotomaker.service.memory.MatScope;
+import com.example.passportphotomaker.service.memory.MatTracker;
+import com.example.passportphotomaker.service.metrics.PipelineTrace;
+import com.example.passportphotomaker.service.metrics.jfr.PipelineEvents;
 
 public class OpenCVBackgroundRemover extends BackgroundRemover {
-    // Path to face detection cascade classifier
-    private CascadeClassifier faceDetector;
-    private static final String FACE_CASCADE = "haarcascade_frontalface_default.xml";
+    private static final Logger log = LoggerFactory.getLogger(OpenCVBackgroundRemover.class);
+
+    // Null if the cascade couldn't be loaded, segmentation then works without a face
+    private final CascadePool cascades;
 
     // Constructors
     public OpenCVBackgroundRemover() {
-        initFaceDetector();
+        this(false);
     }
-    
+
+    /**
+     * Standalone remover with a single face classifier of its own, for use
+     * outside the application (benchmarks, regression suite)
+     */
     public OpenCVBackgroundRemover(boolean debugMode) {
+        this(debugMode, loadCascades());
+    }
+
+    /**
+     * @param cascades The face classifiers shared with the rest of the pipeline, or null
+     */
+    public OpenCVBackgroundRemover(boolean debugMode, CascadePool cascades) {
         super(debugMode);
-        initFaceDetector();
+        this.cascades = cascades;
     }
-    
-    private void initFaceDetector() {
+
+    private static CascadePool loadCascades() {
         try {
-            // Try multiple locations for the cascade file
-            
-            // 1. First try resources directory
-            InputStream resourceStream = getClass().getResourceAsStream("/cascades/" + FACE_CASCADE);
-            
-            // 2. Try local cascades directory
-            File localCascadeDir = new File("cascades");
-            File localCascadeFile = new File(localCascadeDir, FACE_CASCADE);
-            
-            // Create cascades directory if it doesn't exist
-            if (!localCascadeDir.exists()) {
-                localCascadeDir.mkdirs();
-                System.out.println("Created cascades directory at: " + localCascadeDir.getAbsolutePath());
-                System.out.println("Please place haarcascade_frontalface_default.xml in this directory");
-            }
-            
-            if (resourceStream != null) {
-                // Load from resources
-                File tempFile = File.createTempFile("cascade", ".xml");
-                try (FileOutputStream out = new FileOutputStream(tempFile)) {
-                    byte[] buffer = new byte[1024];
-                    int length;
-                    while ((length = resourceStream.read(buffer)) != -1) {
-                        out.write(buffer, 0, length);
-                    }
-                }
-                
-                faceDetector = new CascadeClassifier(tempFile.getAbsolutePath());
-                tempFile.delete();
-                
-                System.out.println("Loaded face cascade from resources");
-            } else if (localCascadeFile.exists()) {
-                // Load from local file
-                System.out.println("Loading face cascade from: " + localCascadeFile.getAbsolutePath());
-                faceDetector = new CascadeClassifier(localCascadeFile.getAbsolutePath());
-                System.out.println("Successfully loaded face cascade from local file");
-            } else {
-                // Cascade file not found
-                System.out.println("\n=========================================");
-                System.out.println("FACE CASCADE FILE NOT FOUND - PLEASE DOWNLOAD:");
-                System.out.println("Download from: https://github.com/opencv/opencv/raw/master/data/haarcascades/haarcascade_frontalface_default.xml");
-                System.out.println("Save it to the 'cascades' directory");
-                System.out.println("=========================================\n");
-                
-                faceDetector = null;
-            }
-            
-            if (faceDetector != null && faceDetector.empty()) {
-                System.err.println("Failed to load face cascade classifier. Using fallback methods.");
-                faceDetector = null;
-            }
-        } catch (Exception e) {
-            System.err.println("Error initializing face detector: " + e.getMessage());
-            if (debugMode) {
-                e.printStackTrace();
-            }
-            faceDetector = null;
+            return CascadePool.load(new DefaultResourceLoader(), 1);
+        } catch (IOException e) {
+            log.warn("Face cascade not available, segmenting without face detection: {}", e.getMessage());
+            return null;
         }
     }
 
     // Main method to implement
     @Override
-    public Mat removeBackground(File inputFile) throws IOException {
-        // Load the image
-        Mat originalImage = Imgcodecs.imread(inputFile.getAbsolutePath());
-        if (originalImage.empty()) {
-            throw new IOException("Failed to read image");
-        }
+    @SuppressWarnings("try")
+    public Mat removeBackground(ImageContext context) throws IOException {
+        // The image and its color conversions are shared with the other pipeline stages
+        Mat originalImage = context.getFull();
 
-        // Background removal
-        Mat mask;
-        
-        // Try with face detection first for better segmentation
-        if (faceDetector != null && !faceDetector.empty()) {
-            mask = createSegmentationMaskWithFaceDetection(originalImage);
-        } else {
-            mask = createSegmentationMask(originalImage);
-        }
-        
-        Mat refinedMask = refineMaskEdges(originalImage, mask);
-        Mat alphaMatte = createAlphaMatte(refinedMask);
-        Mat result = createTransparentImage(originalImage, alphaMatte);
-        
-        // Intermediary files for debugging purposes
-        if (debugMode) {
-            Imgcodecs.imwrite("debug_original.png", originalImage);
-            Imgcodecs.imwrite("debug_initial_mask.png", mask);
-            Imgcodecs.imwrite("debug_refined_mask.png", refinedMask);
-            Imgcodecs.imwrite("debug_alpha_matte.png", alphaMatte);
-            Imgcodecs.imwrite("debug_result.png", result);
+        try (MatScope scope = new MatScope()) {
+            // Background removal, trying with face detection first for better segmentation
+            Mat mask = scope.add(cascades != null
+                    ? createSegmentationMaskWithFaceDetection(context)
+                    : createSegmentationMask(context));
+            
+            Mat refinedMask;
+            Mat alphaMatte;
+            Mat result;
+            try (PipelineTrace.Step step = context.getTrace().step("matte")) {
+                refinedMask = scope.add(refineMaskEdges(originalImage, mask));
+                alphaMatte = scope.add(createAlphaMatte(refinedMask));
+                result = createTransparentImage(originalImage, alphaMatte);
+            }
+            
+            // Intermediary images, saved if the request is captured
+            DebugCapture.save("original", originalImage);
+            DebugCapture.save("initial_mask", mask);
+            DebugCapture.save("refined_mask", refinedMask);
+            DebugCapture.save("alpha_matte", alphaMatte);
+            DebugCapture.save("result", result);
+            
+            return result;
         }
-        
-        // Clean up
-        originalImage.release();
-        mask.release();
-        refinedMask.release();
-        alphaMatte.release();
-        
-        return result;
     }
     
     // Enhanced segmentation using face detection
-    private Mat createSegmentationMaskWithFaceDetection(Mat image) {
-        // Detect faces in the image
-        MatOfRect faceDetections = new MatOfRect();
+    @SuppressWarnings("try")
+    private Mat createSegmentationMaskWithFaceDetection(ImageContext context) throws IOException {
+        Mat image = context.getFull();
         
-        // Convert to grayscale for face detection
-        Mat grayImage = new Mat();
-        Imgproc.cvtColor(image, grayImage, Imgproc.COLOR_BGR2GRAY);
-        
-        // Detect faces
-        faceDetector.detectMultiScale(
-            grayImage, 
-            faceDetections,
-            1.1,  // Scale factor
-            5,    // Min neighbors 
-            0,    // Flags
-            new Size(30, 30), // Min size
-            new Size()        // Max size (no limit)
-        );
-        
-        // Create a segmentation mask
-        Mat mask = new Mat(image.size(), CvType.CV_8UC1, new Scalar(0));
-        
-        // Process detected faces
-        Rect[] faces = faceDetections.toArray();
-        if (faces.length > 0) {
+        try (MatScope scope = new MatScope()) {
+            // Detect faces in the image
+            MatOfRect faceDetections = scope.add(new MatOfRect());
+            
+            // Grayscale for face detection
+            Mat grayImage = context.getGray();
+            
+            // Detect faces
+            try (PipelineTrace.Step step = context.getTrace().step("face-detect");
+                    CascadePool.Lease faceDetector = cascades.acquire()) {
+                faceDetector.get().detectMultiScale(
+                    grayImage, 
+                    faceDetections,
+                    1.1,  // Scale factor
+                    5,    // Min neighbors 
+                    0,    // Flags
+                    new Size(30, 30), // Min size
+                    new Size()        // Max size (no limit)
+                );
+            }
+            
+            // Process detected faces
+            Rect[] faces = faceDetections.toArray();
+            if (faces.length == 0) {
+                // Fallback to standard segmentation
+                return createSegmentationMask(context);
+            }
+            
+            // Create a segmentation mask
+            Mat mask = scope.newMask(image.size(), 0);
+            
             // Use the largest face as primary focus
             Rect primaryFace = findLargestFace(faces);
             
@@ -169,147 +136,119 @@ public class OpenCVBackgroundRemover extends BackgroundRemover {
             Rect expandedFaceRect = expandRect(primaryFace, padding, image.size());
             
             // Fill the expanded face region
-            Mat faceRegion = new Mat(mask, expandedFaceRect);
-            faceRegion.setTo(new Scalar(255));
-            faceRegion.release();
+            scope.add(new Mat(mask, expandedFaceRect)).setTo(new Scalar(255));
             
             // Now proceed with regular segmentation but prioritize the face region
-            enhanceMaskWithColorSegmentation(image, mask);
+            enhanceMaskWithColorSegmentation(context, mask);
             
             // Apply GrabCut using the face-enhanced mask
-            return applyGrabCut(image, mask, expandedFaceRect);
-        } else {
-            // Fallback to standard segmentation
-            grayImage.release();
-            return createSegmentationMask(image);
+            try (PipelineTrace.Step step = context.getTrace().step("grabcut")) {
+                return applyGrabCut(image, mask, expandedFaceRect);
+            }
         }
     }
 
     // Private assistive methods for implemented function
-    private Mat createSegmentationMask(Mat image) {
+    @SuppressWarnings("try")
+    private Mat createSegmentationMask(ImageContext context) {
         // Create a segmentation mask using traditional OpenCV methods
+        Mat image = context.getFull();
         
-        // Convert to different color spaces
-        Mat hsv = new Mat();
-        Imgproc.cvtColor(image, hsv, Imgproc.COLOR_BGR2HSV);
-        
-        // Create initial mask
-        Mat mask = new Mat(image.size(), CvType.CV_8UC1, new Scalar(0));
-        
-        // Enhanced color segmentation
-        enhanceMaskWithColorSegmentation(image, mask);
-        
-        // Detect edges for better segmentation
-        Mat edges = new Mat();
-        Mat grayImage = new Mat();
-        Imgproc.cvtColor(image, grayImage, Imgproc.COLOR_BGR2GRAY);
-        Imgproc.Canny(grayImage, edges, 50, 150);
-        
-        // Dilate edges to connect segments
-        Mat dilatedEdges = new Mat();
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(3, 3));
-        Imgproc.dilate(edges, dilatedEdges, kernel);
-        
-        // Add edges to mask
-        Core.bitwise_or(mask, dilatedEdges, mask);
-        
-        if (debugMode) {
-            Imgcodecs.imwrite("debug_enhanced_mask.png", mask);
-            Imgcodecs.imwrite("debug_edges.png", edges);
+        try (MatScope scope = new MatScope()) {
+            // Create initial mask
+            Mat mask = scope.newMask(image.size(), 0);
+            
+            // Enhanced color segmentation
+            enhanceMaskWithColorSegmentation(context, mask);
+            
+            // Detect edges for better segmentation
+            Mat edges = scope.newMat();
+            Imgproc.Canny(context.getGray(), edges, 50, 150);
+            
+            // Dilate edges to connect segments
+            Mat dilatedEdges = scope.newMat();
+            Mat kernel = scope.kernel(Imgproc.MORPH_RECT, 3);
+            Imgproc.dilate(edges, dilatedEdges, kernel);
+            
+            // Add edges to mask
+            Core.bitwise_or(mask, dilatedEdges, mask);
+            
+            DebugCapture.save("enhanced_mask", mask);
+            DebugCapture.save("edges", edges);
+            
+            // Apply GrabCut for better segmentation
+            try (PipelineTrace.Step step = context.getTrace().step("grabcut")) {
+                return applyGrabCut(image, mask, null);
+            }
         }
-        
-        // Clean up resources
-        edges.release();
-        grayImage.release();
-        dilatedEdges.release();
-        
-        // Apply GrabCut for better segmentation
-        return applyGrabCut(image, mask, null);
     }
     
-    private void enhanceMaskWithColorSegmentation(Mat image, Mat mask) {
-        // Convert to different color spaces for better segmentation
-        Mat hsv = new Mat();
-        Mat ycrcb = new Mat();
-        Mat lab = new Mat();
-        Imgproc.cvtColor(image, hsv, Imgproc.COLOR_BGR2HSV);
-        Imgproc.cvtColor(image, ycrcb, Imgproc.COLOR_BGR2YCrCb);
-        Imgproc.cvtColor(image, lab, Imgproc.COLOR_BGR2Lab);
-        
-        // Detect skin using multiple color spaces
-        Mat skinMaskHSV = detectSkinHSV(hsv);
-        Mat skinMaskYCrCb = detectSkinYCrCb(ycrcb);
-        
-        // Detect clothing in LAB color space
-        Mat clothingMask = detectClothing(lab, image);
-        
-        // Combine skin masks
-        Mat combinedSkinMask = new Mat();
-        Core.bitwise_or(skinMaskHSV, skinMaskYCrCb, combinedSkinMask);
-        
-        // Combine skin and clothing
-        Mat humanMask = new Mat();
-        Core.bitwise_or(combinedSkinMask, clothingMask, humanMask);
-        
-        // Detect background (common in passport photos)
-        Mat backgroundMask = detectBackgroundColors(hsv);
-        
-        // Get foreground (inverse of background)
-        Mat foregroundMask = new Mat();
-        Core.bitwise_not(backgroundMask, foregroundMask);
-        
-        // Combine all masks
-        Mat enhancedMask = new Mat();
-        Core.bitwise_or(humanMask, foregroundMask, enhancedMask);
-        
-        // Apply morphological operations to clean up
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
-        Imgproc.morphologyEx(enhancedMask, enhancedMask, Imgproc.MORPH_CLOSE, kernel);
-        
-        // Update the input mask
-        Core.bitwise_or(mask, enhancedMask, mask);
-        
-        if (debugMode) {
-            Imgcodecs.imwrite("debug_skin_hsv.png", skinMaskHSV);
-            Imgcodecs.imwrite("debug_skin_ycrcb.png", skinMaskYCrCb);
-            Imgcodecs.imwrite("debug_clothing.png", clothingMask);
-            Imgcodecs.imwrite("debug_combined_skin.png", combinedSkinMask);
-            Imgcodecs.imwrite("debug_human.png", humanMask);
-            Imgcodecs.imwrite("debug_bg_mask.png", backgroundMask);
-            Imgcodecs.imwrite("debug_fg_mask.png", foregroundMask);
-            Imgcodecs.imwrite("debug_enhanced_combined.png", enhancedMask);
+    private void enhanceMaskWithColorSegmentation(ImageContext context, Mat mask) {
+        // Different color spaces for better segmentation, shared with the other stages
+        Mat hsv = context.getConverted(Imgproc.COLOR_BGR2HSV);
+        Mat ycrcb = context.getConverted(Imgproc.COLOR_BGR2YCrCb);
+        Mat lab = context.getConverted(Imgproc.COLOR_BGR2Lab);
+        
+        try (MatScope scope = new MatScope()) {
+            // Detect skin using multiple color spaces
+            Mat skinMaskHSV = scope.add(detectSkinHSV(hsv));
+            Mat skinMaskYCrCb = scope.add(detectSkinYCrCb(ycrcb));
+            
+            // Detect clothing in LAB color space
+            Mat clothingMask = scope.add(detectClothing(lab, context.getGray()));
+            
+            // Combine skin masks
+            Mat combinedSkinMask = scope.newMat();
+            Core.bitwise_or(skinMaskHSV, skinMaskYCrCb, combinedSkinMask);
+            
+            // Combine skin and clothing
+            Mat humanMask = scope.newMat();
+            Core.bitwise_or(combinedSkinMask, clothingMask, humanMask);
+            
+            // Detect background (common in passport photos)
+            Mat backgroundMask = scope.add(detectBackgroundColors(hsv));
+            
+            // Get foreground (inverse of background)
+            Mat foregroundMask = scope.newMat();
+            Core.bitwise_not(backgroundMask, foregroundMask);
+            
+            // Combine all masks
+            Mat enhancedMask = scope.newMat();
+            Core.bitwise_or(humanMask, foregroundMask, enhancedMask);
+            
+            // Apply morphological operations to clean up
+            Mat kernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 5);
+            Imgproc.morphologyEx(enhancedMask, enhancedMask, Imgproc.MORPH_CLOSE, kernel);
+            
+            // Update the input mask
+            Core.bitwise_or(mask, enhancedMask, mask);
+            
+            DebugCapture.save("skin_hsv", skinMaskHSV);
+            DebugCapture.save("skin_ycrcb", skinMaskYCrCb);
+            DebugCapture.save("clothing", clothingMask);
+            DebugCapture.save("combined_skin", combinedSkinMask);
+            DebugCapture.save("human", humanMask);
+            DebugCapture.save("bg_mask", backgroundMask);
+            DebugCapture.save("fg_mask", foregroundMask);
+            DebugCapture.save("enhanced_combined", enhancedMask);
         }
-        
-        // Clean up resources
-        hsv.release();
-        ycrcb.release();
-        lab.release();
-        skinMaskHSV.release();
-        skinMaskYCrCb.release();
-        clothingMask.release();
-        combinedSkinMask.release();
-        humanMask.release();
-        backgroundMask.release();
-        foregroundMask.release();
-        enhancedMask.release();
     }
     
-    private Mat applyGrabCut(Mat image, Mat initialMask, Rect faceRect) {
+    // Package-private for the benchmarks
+    Mat applyGrabCut(Mat image, Mat initialMask, Rect faceRect) {
         // Prepare GrabCut mask
-        Mat grabCutMask = new Mat(image.size(), CvType.CV_8UC1, new Scalar(Imgproc.GC_PR_BGD));
+        Mat grabCutMask = MatTracker.track(new Mat(image.size(), CvType.CV_8UC1, new Scalar(Imgproc.GC_PR_BGD)));
         
         // Initialize counters for foreground and background samples
         int fgdCount = 0;
         int bgdCount = 0;
         
-        // Set probable foreground from our masks with more aggressive thresholds
+        // Set probable foreground from our masks. The color heuristics mark most
+        // of a plain backdrop as well, so it stays probable and GrabCut decides.
         for (int y = 0; y < initialMask.rows(); y++) {
             for (int x = 0; x < initialMask.cols(); x++) {
                 double[] pixel = initialMask.get(y, x);
-                if (pixel[0] > 180) {
-                    grabCutMask.put(y, x, Imgproc.GC_FGD);
-                    fgdCount++;
-                } else if (pixel[0] > 120) {
+                if (pixel[0] > 120) {
                     grabCutMask.put(y, x, Imgproc.GC_PR_FGD);
                     fgdCount++;
                 } else if (pixel[0] < 50) {
@@ -401,7 +340,7 @@ public class OpenCVBackgroundRemover extends BackgroundRemover {
         
         // Ensure we have enough samples
         if (fgdCount < 100 || bgdCount < 100) {
-            System.out.println("Warning: Not enough samples for GrabCut. FG: " + fgdCount + ", BG: " + bgdCount);
+            log.debug("Not enough samples for GrabCut. FG: {}, BG: {}", fgdCount, bgdCount);
             // Add more background samples from the edges if needed
             if (bgdCount < 100) {
                 int margin = 20;
@@ -417,143 +356,131 @@ public class OpenCVBackgroundRemover extends BackgroundRemover {
         }
         
         // Apply GrabCut with more iterations for better results
-        Mat bgModel = new Mat();
-        Mat fgModel = new Mat();
-        
-        try {
-            // If we have a face rect, use it to init the algorithm
-            if (faceRect != null) {
-                Imgproc.grabCut(image, grabCutMask, faceRect, bgModel, fgModel, 8, Imgproc.GC_INIT_WITH_MASK);
-            } else {
-                Imgproc.grabCut(image, grabCutMask, new Rect(), bgModel, fgModel, 8, Imgproc.GC_INIT_WITH_MASK);
-            }
-        } catch (Exception e) {
-            System.err.println("GrabCut error: " + e.getMessage());
-            if (debugMode) {
-                e.printStackTrace();
+        try (MatScope scope = new MatScope()) {
+            scope.add(grabCutMask);
+            Mat bgModel = scope.newMat();
+            Mat fgModel = scope.newMat();
+            
+            try {
+                // If we have a face rect, use it to init the algorithm
+                if (faceRect != null) {
+                    PipelineEvents.grabCut(getEngineName(), image, grabCutMask, faceRect, bgModel, fgModel, 8,
+                            Imgproc.GC_INIT_WITH_MASK);
+                } else {
+                    PipelineEvents.grabCut(getEngineName(), image, grabCutMask, new Rect(), bgModel, fgModel, 8,
+                            Imgproc.GC_INIT_WITH_MASK);
+                }
+            } catch (Exception e) {
+                log.warn("GrabCut error: {}", e.getMessage());
+                log.debug("GrabCut error", e);
             }
+            
+            // Get foreground mask with a more lenient approach
+            Mat foreground = scope.newMat();
+            Mat probForeground = scope.newMat();
+            Core.compare(grabCutMask, new Scalar(Imgproc.GC_FGD), foreground, Core.CMP_EQ);
+            Core.compare(grabCutMask, new Scalar(Imgproc.GC_PR_FGD), probForeground, Core.CMP_EQ);
+            
+            // Combine definite and probable foreground
+            Mat finalMask = scope.newMat();
+            Core.bitwise_or(foreground, probForeground, finalMask);
+            
+            // Convert to 8-bit
+            finalMask.convertTo(finalMask, CvType.CV_8UC1, 255);
+            
+            // Apply closing to connect disconnected body parts
+            Mat kernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 9);
+            Imgproc.morphologyEx(finalMask, finalMask, Imgproc.MORPH_CLOSE, kernel, new Point(-1, -1), 3);
+            
+            return scope.keep(finalMask);
         }
-        
-        // Get foreground mask with a more lenient approach
-        Mat foreground = new Mat();
-        Mat probForeground = new Mat();
-        Core.compare(grabCutMask, new Scalar(Imgproc.GC_FGD), foreground, Core.CMP_EQ);
-        Core.compare(grabCutMask, new Scalar(Imgproc.GC_PR_FGD), probForeground, Core.CMP_EQ);
-        
-        // Combine definite and probable foreground
-        Mat finalMask = new Mat();
-        Core.bitwise_or(foreground, probForeground, finalMask);
-        
-        // Convert to 8-bit
-        finalMask.convertTo(finalMask, CvType.CV_8UC1, 255);
-        
-        // Apply closing to connect disconnected body parts
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(9, 9));
-        Imgproc.morphologyEx(finalMask, finalMask, Imgproc.MORPH_CLOSE, kernel, new Point(-1, -1), 3);
-        
-        // Clean up resources
-        grabCutMask.release();
-        bgModel.release();
-        fgModel.release();
-        foreground.release();
-        probForeground.release();
-        
-        return finalMask;
     }
 
     private Mat detectSkinHSV(Mat hsv) {
-        // Detect skin tones in HSV
-        Mat skinMask = new Mat(hsv.size(), CvType.CV_8UC1, new Scalar(0));
-        
-        // Skin tone ranges (improved ranges for better detection across skin types)
-        Mat skinRegion1 = new Mat();
-        Mat skinRegion2 = new Mat();
-        Mat skinRegion3 = new Mat();
-        
-        // Lighter skin tones (0-50 in Hue)
-        Core.inRange(hsv, new Scalar(0, 20, 70), new Scalar(50, 170, 255), skinRegion1);
-        
-        // Mid range skin tones (specific to certain ethnicities)
-        Core.inRange(hsv, new Scalar(10, 50, 70), new Scalar(30, 200, 255), skinRegion2);
-        
-        // Darker skin tones
-        Core.inRange(hsv, new Scalar(0, 10, 40), new Scalar(25, 150, 200), skinRegion3);
-        
-        // Combine ranges
-        Core.bitwise_or(skinRegion1, skinRegion2, skinMask);
-        Core.bitwise_or(skinMask, skinRegion3, skinMask);
-        
-        // Morphological operations to clean up
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
-        Imgproc.morphologyEx(skinMask, skinMask, Imgproc.MORPH_CLOSE, kernel);
-        
-        // Clean up
-        skinRegion1.release();
-        skinRegion2.release();
-        skinRegion3.release();
-        
-        return skinMask;
+        try (MatScope scope = new MatScope()) {
+            // Detect skin tones in HSV
+            Mat skinMask = scope.newMask(hsv.size(), 0);
+            
+            // Skin tone ranges (improved ranges for better detection across skin types)
+            Mat skinRegion1 = scope.newMat();
+            Mat skinRegion2 = scope.newMat();
+            Mat skinRegion3 = scope.newMat();
+            
+            // Lighter skin tones (0-50 in Hue)
+            Core.inRange(hsv, new Scalar(0, 20, 70), new Scalar(50, 170, 255), skinRegion1);
+            
+            // Mid range skin tones (specific to certain ethnicities)
+            Core.inRange(hsv, new Scalar(10, 50, 70), new Scalar(30, 200, 255), skinRegion2);
+            
+            // Darker skin tones
+            Core.inRange(hsv, new Scalar(0, 10, 40), new Scalar(25, 150, 200), skinRegion3);
+            
+            // Combine ranges
+            Core.bitwise_or(skinRegion1, skinRegion2, skinMask);
+            Core.bitwise_or(skinMask, skinRegion3, skinMask);
+            
+            // Morphological operations to clean up
+            Mat kernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 5);
+            Imgproc.morphologyEx(skinMask, skinMask, Imgproc.MORPH_CLOSE, kernel);
+            
+            return scope.keep(skinMask);
+        }
     }
     
     private Mat detectSkinYCrCb(Mat ycrcb) {
-        // YCrCb color space is better for skin detection
-        Mat skinMask = new Mat(ycrcb.size(), CvType.CV_8UC1, new Scalar(0));
-        
-        // Define skin tone range in YCrCb
-        // These ranges cover most skin tones across ethnicities
-        Core.inRange(ycrcb, new Scalar(0, 133, 77), new Scalar(255, 173, 127), skinMask);
-        
-        // Morphological operations to clean up
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
-        Imgproc.morphologyEx(skinMask, skinMask, Imgproc.MORPH_CLOSE, kernel);
-        
-        return skinMask;
+        try (MatScope scope = new MatScope()) {
+            // YCrCb color space is better for skin detection
+            Mat skinMask = scope.newMask(ycrcb.size(), 0);
+            
+            // Define skin tone range in YCrCb
+            // These ranges cover most skin tones across ethnicities
+            Core.inRange(ycrcb, new Scalar(0, 133, 77), new Scalar(255, 173, 127), skinMask);
+            
+            // Morphological operations to clean up
+            Mat kernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 5);
+            Imgproc.morphologyEx(skinMask, skinMask, Imgproc.MORPH_CLOSE, kernel);
+            
+            return scope.keep(skinMask);
+        }
     }
 
     private Mat detectBackgroundColors(Mat hsv) {
-        // Detect common background colors in passport photos
-        Mat blueMask = new Mat();
-        Mat greenMask = new Mat();
-        Mat whiteMask = new Mat();
-        Mat grayMask = new Mat();
-        Mat redMask = new Mat();
-        
-        // Blue background (common in passport photos)
-        Core.inRange(hsv, new Scalar(100, 50, 50), new Scalar(140, 255, 255), blueMask);
-        
-        // Green background (common in chroma key)
-        Core.inRange(hsv, new Scalar(40, 50, 50), new Scalar(80, 255, 255), greenMask);
-        
-        // White background (studio)
-        Core.inRange(hsv, new Scalar(0, 0, 200), new Scalar(180, 30, 255), whiteMask);
-        
-        // Gray background (neutral)
-        Core.inRange(hsv, new Scalar(0, 0, 100), new Scalar(180, 30, 180), grayMask);
-        
-        // Red background (sometimes used)
-        Mat redMask1 = new Mat();
-        Mat redMask2 = new Mat();
-        Core.inRange(hsv, new Scalar(0, 50, 50), new Scalar(10, 255, 255), redMask1);
-        Core.inRange(hsv, new Scalar(170, 50, 50), new Scalar(180, 255, 255), redMask2);
-        Core.bitwise_or(redMask1, redMask2, redMask);
-        
-        // Combine backgrounds
-        Mat backgroundMask = new Mat();
-        Core.bitwise_or(blueMask, greenMask, backgroundMask);
-        Core.bitwise_or(backgroundMask, whiteMask, backgroundMask);
-        Core.bitwise_or(backgroundMask, grayMask, backgroundMask);
-        Core.bitwise_or(backgroundMask, redMask, backgroundMask);
-        
-        // Clean up
-        blueMask.release();
-        greenMask.release();
-        whiteMask.release();
-        grayMask.release();
-        redMask.release();
-        redMask1.release();
-        redMask2.release();
-        
-        return backgroundMask;
+        try (MatScope scope = new MatScope()) {
+            // Detect common background colors in passport photos
+            Mat blueMask = scope.newMat();
+            Mat greenMask = scope.newMat();
+            Mat whiteMask = scope.newMat();
+            Mat grayMask = scope.newMat();
+            Mat redMask = scope.newMat();
+            
+            // Blue background (common in passport photos)
+            Core.inRange(hsv, new Scalar(100, 50, 50), new Scalar(140, 255, 255), blueMask);
+            
+            // Green background (common in chroma key)
+            Core.inRange(hsv, new Scalar(40, 50, 50), new Scalar(80, 255, 255), greenMask);
+            
+            // White background (studio)
+            Core.inRange(hsv, new Scalar(0, 0, 200), new Scalar(180, 30, 255), whiteMask);
+            
+            // Gray background (neutral)
+            Core.inRange(hsv, new Scalar(0, 0, 100), new Scalar(180, 30, 180), grayMask);
+            
+            // Red background (sometimes used)
+            Mat redMask1 = scope.newMat();
+            Mat redMask2 = scope.newMat();
+            Core.inRange(hsv, new Scalar(0, 50, 50), new Scalar(10, 255, 255), redMask1);
+            Core.inRange(hsv, new Scalar(170, 50, 50), new Scalar(180, 255, 255), redMask2);
+            Core.bitwise_or(redMask1, redMask2, redMask);
+            
+            // Combine backgrounds
+            Mat backgroundMask = scope.newMat();
+            Core.bitwise_or(blueMask, greenMask, backgroundMask);
+            Core.bitwise_or(backgroundMask, whiteMask, backgroundMask);
+            Core.bitwise_or(backgroundMask, grayMask, backgroundMask);
+            Core.bitwise_or(backgroundMask, redMask, backgroundMask);
+            
+            return scope.keep(backgroundMask);
+        }
     }
     
     // Helper method to find the largest face rectangle
@@ -580,70 +507,59 @@ public class OpenCVBackgroundRemover extends BackgroundRemover {
     }
     
     // Add a new method to detect clothing in LAB color space
-    private Mat detectClothing(Mat lab, Mat originalImage) {
-        // Create empty mask
-        Mat clothingMask = new Mat(lab.size(), CvType.CV_8UC1, new Scalar(0));
-        
-        // Detect general clothing colors with improved ranges
-        // Dark clothing (black, navy, etc.)
-        Mat darkClothing = new Mat();
-        Core.inRange(lab, new Scalar(0, 0, 0), new Scalar(80, 135, 135), darkClothing);
-        
-        // Light clothing (white, beige, etc.)
-        Mat lightClothing = new Mat();
-        Core.inRange(lab, new Scalar(130, 0, 0), new Scalar(255, 140, 140), lightClothing);
-        
-        // Blue clothing (specific for light blue shirts)
-        Mat blueClothing = new Mat();
-        Core.inRange(lab, new Scalar(100, 120, 130), new Scalar(200, 140, 150), blueClothing);
-        
-        // Colored clothing (using wider thresholds)
-        Mat coloredClothing = new Mat();
-        Core.inRange(lab, new Scalar(20, 110, 110), new Scalar(230, 250, 250), coloredClothing);
-        
-        // Combine all clothing detections
-        Core.bitwise_or(darkClothing, lightClothing, clothingMask);
-        Core.bitwise_or(clothingMask, blueClothing, clothingMask);
-        Core.bitwise_or(clothingMask, coloredClothing, clothingMask);
-        
-        // Intensity-based detection (helps with complex textures)
-        Mat grayImage = new Mat();
-        Imgproc.cvtColor(originalImage, grayImage, Imgproc.COLOR_BGR2GRAY);
-        
-        // Use adaptive thresholding with improved parameters
-        Mat adaptiveThresh = new Mat();
-        Imgproc.adaptiveThreshold(grayImage, adaptiveThresh, 255, 
-            Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, 
-            Imgproc.THRESH_BINARY, 15, 5);
-        
-        // Combine with color-based detection
-        Core.bitwise_or(clothingMask, adaptiveThresh, clothingMask);
-        
-        // Enhanced morphological operations
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(7, 7));
-        
-        // Close operation to fill gaps
-        Imgproc.morphologyEx(clothingMask, clothingMask, Imgproc.MORPH_CLOSE, kernel);
-        
-        // Dilate to ensure better coverage
-        Imgproc.dilate(clothingMask, clothingMask, kernel, new Point(-1, -1), 2);
-        
-        // Clean up resources
-        darkClothing.release();
-        lightClothing.release();
-        blueClothing.release();
-        coloredClothing.release();
-        grayImage.release();
-        adaptiveThresh.release();
-        
-        return clothingMask;
+    private Mat detectClothing(Mat lab, Mat grayImage) {
+        try (MatScope scope = new MatScope()) {
+            // Create empty mask
+            Mat clothingMask = scope.newMask(lab.size(), 0);
+            
+            // Detect general clothing colors with improved ranges
+            // Dark clothing (black, navy, etc.)
+            Mat darkClothing = scope.newMat();
+            Core.inRange(lab, new Scalar(0, 0, 0), new Scalar(80, 135, 135), darkClothing);
+            
+            // Light clothing (white, beige, etc.)
+            Mat lightClothing = scope.newMat();
+            Core.inRange(lab, new Scalar(130, 0, 0), new Scalar(255, 140, 140), lightClothing);
+            
+            // Blue clothing (specific for light blue shirts)
+            Mat blueClothing = scope.newMat();
+            Core.inRange(lab, new Scalar(100, 120, 130), new Scalar(200, 140, 150), blueClothing);
+            
+            // Colored clothing (using wider thresholds)
+            Mat coloredClothing = scope.newMat();
+            Core.inRange(lab, new Scalar(20, 110, 110), new Scalar(230, 250, 250), coloredClothing);
+            
+            // Combine all clothing detections
+            Core.bitwise_or(darkClothing, lightClothing, clothingMask);
+            Core.bitwise_or(clothingMask, blueClothing, clothingMask);
+            Core.bitwise_or(clothingMask, coloredClothing, clothingMask);
+            
+            // Intensity-based detection (helps with complex textures)
+
+            // Use adaptive thresholding with improved parameters
+            Mat adaptiveThresh = scope.newMat();
+            Imgproc.adaptiveThreshold(grayImage, adaptiveThresh, 255, 
+                Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, 
+                Imgproc.THRESH_BINARY, 15, 5);
+            
+            // Combine with color-based detection
+            Core.bitwise_or(clothingMask, adaptiveThresh, clothingMask);
+            
+            // Enhanced morphological operations
+            Mat kernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 7);
+            
+            // Close operation to fill gaps
+            Imgproc.morphologyEx(clothingMask, clothingMask, Imgproc.MORPH_CLOSE, kernel);
+            
+            // Dilate to ensure better coverage
+            Imgproc.dilate(clothingMask, clothingMask, kernel, new Point(-1, -1), 2);
+            
+            return scope.keep(clothingMask);
+        }
     }
     
     @Override
-    public void close() {
-        // Clean up any resources
-        if (faceDetector != null) {
-            faceDetector.empty(); // Release native resources
-        }
+    public String getEngineName() {
+        return "opencv";
     }
 }
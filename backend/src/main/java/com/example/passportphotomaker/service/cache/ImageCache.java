@@ -0,0 +1,345 @@
+package com.example.passportphotomaker.service.cache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory cache of decoded OpenCV images.
+ * Entries are evicted in least-recently-used order once the total native size
+ * of the cached Mats exceeds the configured byte budget, or once an entry has
+ * not been accessed for longer than the configured time-to-live.
+ * The cache owns every Mat stored in it and releases it on eviction.
+ * Copies are made outside the cache lock: a reader pins the entry while it
+ * clones, and an entry removed in the meantime is released by its last reader.
+ */
+public class ImageCache {
+    private static final Logger log = LoggerFactory.getLogger(ImageCache.class);
+
+    private final String name;
+    private final long maxBytes;
+    private final long ttlMillis;
+
+    // Access-ordered map: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes = 0;
+
+    // Statistics
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+    private long expirationCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param name      Name used in log output
+     * @param maxBytes  Maximum total size of cached pixel data in bytes
+     * @param ttlMillis Idle time after which an entry expires (0 = never)
+     */
+    public ImageCache(String name, long maxBytes, long ttlMillis) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+        }
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Build a cache key from the content of an image
+     *
+     * @param imageBytes The encoded image bytes
+     * @return Hex encoded SHA-256 digest of the bytes
+     */
+    public static String contentKey(byte[] imageBytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(imageBytes);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory for every Java platform
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Get a copy of a cached image
+     *
+     * @param key The cache key
+     * @return A clone of the cached Mat (owned by the caller), or null if not cached
+     */
+    public Mat get(String key) {
+        Entry entry = pin(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return entry.mat.clone();
+        } finally {
+            unpin(entry);
+        }
+    }
+
+    /**
+     * Look up an entry and pin it, so it isn't released until it's unpinned
+     */
+    private synchronized Entry pin(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+            removeEntry(key);
+            expirationCount++;
+            entry = null;
+        }
+
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        entry.lastAccess = System.currentTimeMillis();
+        entry.pins++;
+        return entry;
+    }
+
+    private synchronized void unpin(Entry entry) {
+        entry.pins--;
+        if (entry.removed && entry.pins == 0) {
+            entry.mat.release();
+        }
+    }
+
+    /**
+     * Check whether an entry is cached without counting a hit or a miss
+     */
+    public synchronized boolean contains(String key) {
+        Entry entry = entries.get(key);
+        return entry != null && !isExpired(entry, System.currentTimeMillis());
+    }
+
+    /**
+     * Mark an entry as used without copying it, e.g. while only a derived
+     * entry is read, so the entry neither expires nor gets evicted first
+     *
+     * @return true if the entry is cached
+     */
+    public synchronized boolean touch(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (isExpired(entry, now)) {
+            removeEntry(key);
+            expirationCount++;
+            return false;
+        }
+        entry.lastAccess = now;
+        return true;
+    }
+
+    /**
+     * Store an image in the cache. Ownership of the Mat passes to the cache,
+     * so the caller must not use or release it afterwards.
+     *
+     * @param key The cache key
+     * @param mat The image to cache
+     * @return true if the image was cached, false if it is larger than the whole cache
+     *         (in which case it has been released)
+     */
+    public synchronized boolean put(String key, Mat mat) {
+        long size = sizeOf(mat);
+        if (size > maxBytes) {
+            mat.release();
+            return false;
+        }
+
+        removeEntry(key);
+        evictExpired();
+
+        // Evict least recently used entries until the new one fits
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (currentBytes + size > maxBytes && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            discard(eldest);
+            evictionCount++;
+        }
+
+        entries.put(key, new Entry(mat, size));
+        currentBytes += size;
+        return true;
+    }
+
+    /**
+     * Store an image derived from another cached entry (e.g. a downscaled copy).
+     * The derived entry is evicted on its own, but invalidating the parent
+     * removes it as well. Ownership of the Mat passes to the cache.
+     *
+     * @param parentKey The key of the entry the image was derived from
+     * @param key       The cache key of the derived image
+     * @param mat       The derived image
+     * @return true if the image was cached
+     */
+    public synchronized boolean putDerived(String parentKey, String key, Mat mat) {
+        if (!put(key, mat)) {
+            return false;
+        }
+        Entry parent = entries.get(parentKey);
+        if (parent != null) {
+            parent.derivedKeys.add(key);
+        }
+        return true;
+    }
+
+    /**
+     * Remove an entry and the entries derived from it, and release their Mats
+     */
+    public synchronized void invalidate(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            for (String derivedKey : entry.derivedKeys) {
+                removeEntry(derivedKey);
+            }
+        }
+        removeEntry(key);
+    }
+
+    /**
+     * Drop all entries that have not been accessed within the time-to-live
+     *
+     * @return The number of expired entries
+     */
+    public synchronized int evictExpired() {
+        if (ttlMillis <= 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (isExpired(entry, now)) {
+                it.remove();
+                discard(entry);
+                removed++;
+            }
+        }
+        expirationCount += removed;
+        return removed;
+    }
+
+    /**
+     * Release every cached Mat
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            try {
+                discard(entry);
+            } catch (Exception e) {
+                log.warn("Error releasing cached Mat in {}: {}", name, e.getMessage());
+            }
+        }
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getSizeBytes() {
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized long getExpirationCount() {
+        return expirationCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + "[entries=" + entries.size() + ", bytes=" + currentBytes + "/" + maxBytes
+                + ", hits=" + hitCount + ", misses=" + missCount
+                + ", evictions=" + evictionCount + ", expirations=" + expirationCount + "]";
+    }
+
+    /**
+     * Native size of the pixel data held by a Mat
+     */
+    public static long sizeOf(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return ttlMillis > 0 && now - entry.lastAccess > ttlMillis;
+    }
+
+    private void removeEntry(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            discard(old);
+        }
+    }
+
+    /**
+     * Account for an entry that has been taken out of the map and release its
+     * Mat, or leave that to the last reader if the entry is pinned
+     */
+    private void discard(Entry entry) {
+        currentBytes -= entry.bytes;
+        entry.removed = true;
+        if (entry.pins == 0) {
+            entry.mat.release();
+        }
+    }
+
+    private static class Entry {
+        private final Mat mat;
+        private final long bytes;
+        private final Set<String> derivedKeys = new HashSet<>();
+        private long lastAccess;
+        // Readers cloning the Mat outside the lock
+        private int pins;
+        private boolean removed;
+
+        private Entry(Mat mat, long bytes) {
+            this.mat = mat;
+            this.bytes = bytes;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.passportphotomaker.service.debug;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes the intermediate images of debug-captured requests to disk on a
+ * background thread. Every request gets its own directory, named after its
+ * request id plus a generated suffix, since clients choose their ids. The queue is bounded by count and by native bytes; artifacts
+ * that don't fit are dropped, so capturing never slows a response down.
+ */
+@Component
+public class DebugArtifactWriter {
+    private static final Logger log = LoggerFactory.getLogger(DebugArtifactWriter.class);
+
+    // Requests may ask for capture with the X-Debug-Capture header or the debug parameter
+    @Value("${debug.artifacts.allowed:${debug.mode:false}}")
+    private boolean allowed;
+
+    // Capture every request, not only those that ask for it
+    @Value("${debug.artifacts.capture-all:false}")
+    private boolean captureAll;
+
+    @Value("${debug.artifacts.dir:debug-artifacts}")
+    private String directory;
+
+    @Value("${debug.artifacts.queue-capacity:64}")
+    private int queueCapacity;
+
+    @Value("${debug.artifacts.max-pending-bytes:134217728}")
+    private long maxPendingBytes;
+
+    private ThreadPoolExecutor executor;
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        // DiscardPolicy isn't enough: a rejected artifact still has to release its Mat
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "debug-artifact-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Whether requests may switch on debug capture
+     */
+    public boolean isAllowed() {
+        return allowed || captureAll;
+    }
+
+    public boolean isCaptureAll() {
+        return captureAll;
+    }
+
+    /**
+     * Start capturing the artifacts of a request
+     *
+     * @param requestId Id of the request, the artifact directory starts with it
+     */
+    public DebugCapture open(String requestId) {
+        String directoryName = requestId + "-" + UUID.randomUUID().toString().substring(0, 8);
+        return new DebugCapture(this, requestId, directoryName);
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * Reserve room for an artifact, counts it as dropped if there is none
+     */
+    boolean reserve(long bytes) {
+        if (pendingBytes.addAndGet(bytes) > maxPendingBytes) {
+            pendingBytes.addAndGet(-bytes);
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queue a reserved artifact for writing, the writer takes ownership of the Mat
+     */
+    void submit(String directoryName, String fileName, Mat image, long bytes) {
+        try {
+            executor.execute(() -> write(directoryName, fileName, image, bytes));
+        } catch (RejectedExecutionException e) {
+            image.release();
+            pendingBytes.addAndGet(-bytes);
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    private void write(String directoryName, String fileName, Mat image, long bytes) {
+        try {
+            Path requestDir = Paths.get(directory, directoryName);
+            Files.createDirectories(requestDir);
+            if (Imgcodecs.imwrite(requestDir.resolve(fileName).toString(), image)) {
+                writtenCount.incrementAndGet();
+            } else {
+                log.warn("Could not write debug artifact {} to {}", fileName, directoryName);
+            }
+        } catch (IOException e) {
+            log.warn("Could not create debug artifact directory {}: {}", directoryName, e.getMessage());
+        } finally {
+            image.release();
+            pendingBytes.addAndGet(-bytes);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.passportphotomaker.service.debug;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Mat;
+
+/**
+ * The debug artifacts of one request. A capture is bound to the thread running
+ * the request; pipeline code hands intermediate images to save(), which does
+ * nothing unless the request asked for capture. Saved images are copied, so
+ * callers may release theirs right away.
+ */
+public class DebugCapture {
+    private static final ThreadLocal<DebugCapture> CURRENT = new ThreadLocal<>();
+
+    private final DebugArtifactWriter writer;
+    private final String requestId;
+    private final String directoryName;
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    DebugCapture(DebugArtifactWriter writer, String requestId, String directoryName) {
+        this.writer = writer;
+        this.requestId = requestId;
+        this.directoryName = directoryName;
+    }
+
+    /**
+     * Save an intermediate image of the current request, if it's being captured
+     *
+     * @param name  Name of the artifact (e.g. "initial_mask")
+     * @param image The image, left untouched
+     */
+    public static void save(String name, Mat image) {
+        DebugCapture capture = CURRENT.get();
+        if (capture != null && image != null && !image.empty()) {
+            capture.add(name, image);
+        }
+    }
+
+    /**
+     * The capture bound to the calling thread, null if none
+     */
+    public static DebugCapture current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Bind a capture to the calling thread, null to unbind
+     */
+    public static void bind(DebugCapture capture) {
+        if (capture == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(capture);
+        }
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Name of the directory the artifacts go to, unique even if clients reuse request ids
+     */
+    public String getDirectoryName() {
+        return directoryName;
+    }
+
+    private void add(String name, Mat image) {
+        long bytes = image.total() * image.elemSize();
+        if (!writer.reserve(bytes)) {
+            return;
+        }
+        // Numbered so the files sort in pipeline order
+        String fileName = String.format("%02d-%s.png", sequence.incrementAndGet(), name);
+        writer.submit(directoryName, fileName, image.clone(), bytes);
+    }
+}
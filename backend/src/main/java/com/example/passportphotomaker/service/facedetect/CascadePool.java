@@ -0,0 +1,109 @@
+package com.example.passportphotomaker.service.facedetect;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.opencv.objdetect.CascadeClassifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * A fixed number of face cascade classifiers, shared by every pipeline stage
+ * that detects faces. CascadeClassifier isn't thread safe, so each detection
+ * borrows a classifier for its duration. The pool is sized to the admission
+ * controller's CPU slots, which bounds how many pipelines run at once, so a
+ * borrower only waits if detections outnumber the slots.
+ */
+public class CascadePool {
+    private static final Logger log = LoggerFactory.getLogger(CascadePool.class);
+
+    public static final String CASCADE_PATH = "cascades/haarcascade_frontalface_default.xml";
+
+    private final BlockingQueue<CascadeClassifier> classifiers;
+    private final int size;
+
+    private CascadePool(BlockingQueue<CascadeClassifier> classifiers, int size) {
+        this.classifiers = classifiers;
+        this.size = size;
+    }
+
+    /**
+     * Load the bundled frontal face cascade into the given number of classifiers
+     *
+     * @param resourceLoader Loader for the classpath cascade
+     * @param size           Number of classifiers, at least 1
+     * @return The pool with every classifier loaded
+     * @throws IOException If the cascade is missing or can't be parsed
+     */
+    public static CascadePool load(ResourceLoader resourceLoader, int size) throws IOException {
+        int count = Math.max(1, size);
+        Resource cascadeResource = resourceLoader.getResource("classpath:" + CASCADE_PATH);
+        if (!cascadeResource.exists()) {
+            throw new IOException("Haar cascade not found: " + CASCADE_PATH);
+        }
+
+        long start = System.nanoTime();
+        // OpenCV only reads the cascade from a file
+        File cascadeFile = File.createTempFile("cascade", ".xml");
+        try {
+            FileCopyUtils.copy(cascadeResource.getInputStream(), new FileOutputStream(cascadeFile));
+            BlockingQueue<CascadeClassifier> classifiers = new ArrayBlockingQueue<>(count);
+            for (int i = 0; i < count; i++) {
+                CascadeClassifier classifier = new CascadeClassifier(cascadeFile.getAbsolutePath());
+                if (classifier.empty()) {
+                    throw new IOException("Failed to load the Haar cascade");
+                }
+                classifiers.add(classifier);
+            }
+            log.info("Loaded {} face cascade classifiers in {} ms", count, (System.nanoTime() - start) / 1_000_000);
+            return new CascadePool(classifiers, count);
+        } finally {
+            cascadeFile.delete();
+        }
+    }
+
+    /**
+     * Borrow a classifier, waiting while all of them are in use
+     *
+     * @return The lease, close it to return the classifier
+     * @throws IOException If interrupted while waiting
+     */
+    public Lease acquire() throws IOException {
+        try {
+            return new Lease(classifiers.take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a face classifier", e);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * A borrowed classifier, returned to the pool on close
+     */
+    public class Lease implements AutoCloseable {
+        private final CascadeClassifier classifier;
+
+        private Lease(CascadeClassifier classifier) {
+            this.classifier = classifier;
+        }
+
+        public CascadeClassifier get() {
+            return classifier;
+        }
+
+        @Override
+        public void close() {
+            classifiers.add(classifier);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.example.passportphotomaker.service.facedetect;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 
 import org.opencv.core.Mat;
@@ -11,20 +10,25 @@ import org.opencv.core.MatOfRect;
 import org.opencv.core.Rect;
 import org.opencv.core.Size;
 import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.ResourceLoader;
-import org.springframework.util.FileCopyUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.passportphotomaker.service.ImageContext;
+import com.example.passportphotomaker.service.memory.MatScope;
+import com.example.passportphotomaker.service.metrics.PipelineTrace;
 
 public class FaceDetector {
+    private static final Logger log = LoggerFactory.getLogger(FaceDetector.class);
+
     protected boolean debugMode = false;
-    private final ResourceLoader resourceLoader;
-    private CascadeClassifier faceDetector;
+    // Null if the cascade couldn't be loaded, detection then falls back to the image center
+    private final CascadePool cascades;
+    // Faces are detected on a copy of about this size (longest side)
+    private static final int DETECTION_SIZE = 800;
 
-    public FaceDetector(boolean debugMode, ResourceLoader resourceLoader) {
+    public FaceDetector(boolean debugMode, CascadePool cascades) {
         this.debugMode = debugMode;
-        this.resourceLoader = resourceLoader;
+        this.cascades = cascades;
     }
 
     public Rect detectFace(File inputFile) throws IOException {
@@ -32,12 +36,23 @@ public class FaceDetector {
         if (image.empty()) {
             throw new IOException("Failed to read image");
         }
-        // Load the Haar cascade for face detection
-        String cascadePath = "haarcascades/haarcascade_frontalface_default.xml";
-        Resource cascadeResource = resourceLoader.getResource("classpath:" + cascadePath);
-        
-        if (!cascadeResource.exists()) {
-            System.err.println("Haar cascade file not found. Using fallback face detection.");
+        try (ImageContext context = ImageContext.owning(image)) {
+            return detectFace(context);
+        }
+    }
+
+    /**
+     * Detect the most confident face. Detection runs on the smallest pyramid
+     * level of the context that is still DETECTION_SIZE pixels on its longest
+     * side, the result is scaled back to full-image coordinates.
+     *
+     * @param context The image of the current request
+     * @return The face rectangle, or a rectangle in the center of the image if no face is found
+     */
+    @SuppressWarnings("try")
+    public Rect detectFace(ImageContext context) throws IOException {
+        Mat image = context.getFull();
+        if (cascades == null) {
             // Return a rectangle in the center of the image as fallback
             int centerX = image.width() / 2;
             int centerY = image.height() / 2;
@@ -46,42 +61,37 @@ public class FaceDetector {
             return new Rect(centerX - width/2, centerY - height/2, width, height);
         }
         
-        try {
-            // Create a temporary file for the cascade
-            File cascadeFile = File.createTempFile("cascade", ".xml");
-            FileCopyUtils.copy(cascadeResource.getInputStream(), new FileOutputStream(cascadeFile));
-            
-            // Load the cascade
-            faceDetector = new CascadeClassifier(cascadeFile.getAbsolutePath());
-            cascadeFile.delete();
-            
-            // Convert to grayscale for face detection
-            Mat gray = new Mat();
-            Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
-            Imgproc.equalizeHist(gray, gray);
+        try (MatScope scope = new MatScope()) {
+            // Equalized grayscale at the detection size, shared with the other stages
+            int level = image.width() >= image.height()
+                    ? context.levelFor(Math.min(DETECTION_SIZE, image.width()), 1)
+                    : context.levelFor(1, Math.min(DETECTION_SIZE, image.height()));
+            Mat gray = context.getGrayEqualized(level);
+            double scale = context.getScale(level);
             
             // MatOfRect to hold faces
-            MatOfRect faces = new MatOfRect();
+            MatOfRect faces = scope.add(new MatOfRect());
             // MatOfInt to hold confidence values (will be populated by detectMultiScale)
-            MatOfInt confidence = new MatOfInt();
+            MatOfInt confidence = scope.add(new MatOfInt());
             // MatOfDouble to hold detailed confidence scores
-            MatOfDouble confidenceScores = new MatOfDouble();
+            MatOfDouble confidenceScores = scope.add(new MatOfDouble());
             
             // Detect faces with confidence scoring
-            faceDetector.detectMultiScale3(
-                gray,           // Input image
-                faces,          // Output detected faces
-                confidence,     // Output confidence values
-                confidenceScores, // Detailed confidence scores
-                1.1,            // Scale factor
-                5,              // Min neighbors
-                0,              // Flags
-                new Size(30, 30), // Min size
-                new Size(),     // Max size (no limit)
-                true            // Output confidence values
-            );
-            
-            gray.release();
+            try (PipelineTrace.Step step = context.getTrace().step("face-detect");
+                    CascadePool.Lease classifier = cascades.acquire()) {
+                classifier.get().detectMultiScale3(
+                    gray,           // Input image
+                    faces,          // Output detected faces
+                    confidence,     // Output confidence values
+                    confidenceScores, // Detailed confidence scores
+                    1.1,            // Scale factor
+                    5,              // Min neighbors
+                    0,              // Flags
+                    new Size(30, 30), // Min size
+                    new Size(),     // Max size (no limit)
+                    true            // Output confidence values
+                );
+            }
             
             // Get the detected faces and their confidence scores
             Rect[] facesArray = faces.toArray();
@@ -100,13 +110,13 @@ public class FaceDetector {
                 }
                 
                 // Log the confidence of the selected face
-                System.out.println("Selected face with confidence: " + bestConfidence);
+                log.debug("Selected face with confidence: {}", bestConfidence);
                 
-                return bestFace;
+                return new Rect((int) Math.round(bestFace.x / scale), (int) Math.round(bestFace.y / scale),
+                        (int) Math.round(bestFace.width / scale), (int) Math.round(bestFace.height / scale));
             }
         } catch (Exception e) {
-            System.err.println("Error in face detection: " + e.getMessage());
-            e.printStackTrace();
+            log.error("Error in face detection", e);
         }
         
         // Fallback to center of image
@@ -116,14 +126,4 @@ public class FaceDetector {
         int height = image.height() / 4;
         return new Rect(centerX - width/2, centerY - height/2, width, height);
     }
-
-    /**
-     * Releases resources used by the face detector.
-     * This method should be called when the detector is no longer needed.
-     */
-    public void close() {
-        if (faceDetector != null) {
-            faceDetector.empty(); // Release native resources
-        }
-    }
 }
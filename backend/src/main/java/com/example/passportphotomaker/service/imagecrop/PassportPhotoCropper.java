@@ -4,6 +4,10 @@ import org.opencv.core.Mat;
 import org.opencv.core.Rect;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.passportphotomaker.service.ImageContext;
 
 /**
  * Specialized class for cropping passport photos according to standard formats.
@@ -12,6 +16,8 @@ import org.opencv.imgproc.Imgproc;
  * standard passport photo dimensions.
  */
 public class PassportPhotoCropper {
+    private static final Logger log = LoggerFactory.getLogger(PassportPhotoCropper.class);
+
     private boolean debugMode = false;
     private String photoFormat = null;
     private double photoWidth = 0;
@@ -57,10 +63,7 @@ public class PassportPhotoCropper {
             this.dpi = 300;
         }
 
-        if (debugMode) {
-            System.out.println(
-                    "Set photo format: " + format + " - " + width + "x" + height + " " + unit + " at " + dpi + " DPI");
-        }
+        log.debug("Set photo format: {} - {}x{} {} at {} DPI", format, width, height, unit, dpi);
     }
 
     /**
@@ -70,9 +73,7 @@ public class PassportPhotoCropper {
      */
     public void setCustomDpi(int dpi) {
         this.dpi = dpi;
-        if (debugMode) {
-            System.out.println("Set custom DPI: " + dpi);
-        }
+        log.debug("Set custom DPI: {}", dpi);
     }
 
     /**
@@ -87,6 +88,23 @@ public class PassportPhotoCropper {
             throw new IllegalArgumentException("Input image is null or empty");
         }
 
+        try (ImageContext context = new ImageContext(image)) {
+            return cropToPassportFormat(context, faceRect);
+        }
+    }
+
+    /**
+     * Crop an image to passport photo format based on face detection.
+     * The crop is taken from the smallest pyramid level that still has at least
+     * the target resolution, so large images aren't resized from full size.
+     * 
+     * @param context  The image of the current request
+     * @param faceRect The detected face rectangle, in full-image coordinates
+     * @return The cropped image
+     */
+    public Mat cropToPassportFormat(ImageContext context, Rect faceRect) {
+        Mat image = context.getFull();
+
         if (faceRect == null) {
             throw new IllegalArgumentException("Face rectangle is null");
         }
@@ -100,12 +118,9 @@ public class PassportPhotoCropper {
         int targetWidth = calculatePixelSize(photoWidth, photoUnit, dpi);
         int targetHeight = calculatePixelSize(photoHeight, photoUnit, dpi);
 
-        if (debugMode) {
-            System.out.println("Target dimensions: " + targetWidth + "x" + targetHeight + " pixels");
-            System.out.println("Original image dimensions: " + image.width() + "x" + image.height() + " pixels");
-            System.out.println(
-                    "Face rectangle: " + faceRect.x + "," + faceRect.y + "," + faceRect.width + "," + faceRect.height);
-        }
+        log.debug("Target dimensions: {}x{} pixels", targetWidth, targetHeight);
+        log.debug("Original image dimensions: {}x{} pixels", image.width(), image.height());
+        log.debug("Face rectangle: {},{},{},{}", faceRect.x, faceRect.y, faceRect.width, faceRect.height);
 
         // Determine the final aspect ratio
         double targetAspectRatio = (double) targetWidth / targetHeight;
@@ -147,8 +162,25 @@ public class PassportPhotoCropper {
         cropWidth = Math.min(cropWidth, image.width() - cropX);
         cropHeight = Math.min(cropHeight, image.height() - cropY);
 
+        // Use the smallest pyramid level where the crop still covers the target size
+        int level = context.levelFor(
+                (int) Math.ceil((double) image.width() * targetWidth / cropWidth),
+                (int) Math.ceil((double) image.height() * targetHeight / cropHeight));
+        Mat source = context.getLevel(level);
+        double scaleX = (double) source.width() / image.width();
+        double scaleY = (double) source.height() / image.height();
+        int levelX = (int) Math.floor(cropX * scaleX);
+        int levelY = (int) Math.floor(cropY * scaleY);
+        Rect levelRect = new Rect(levelX, levelY,
+                Math.min(source.width() - levelX, Math.max(1, (int) Math.round(cropWidth * scaleX))),
+                Math.min(source.height() - levelY, Math.max(1, (int) Math.round(cropHeight * scaleY))));
+
+        if (level > 0) {
+            log.debug("Cropping from pyramid level {}: {}x{} pixels", level, source.width(), source.height());
+        }
+
         // Extract the region of interest
-        Mat roi = new Mat(image, new Rect(cropX, cropY, cropWidth, cropHeight));
+        Mat roi = new Mat(source, levelRect);
 
         // Resize to the target dimensions with higher quality interpolation
         Mat resized = new Mat();
@@ -157,9 +189,7 @@ public class PassportPhotoCropper {
         // Release resources
         roi.release();
 
-        if (debugMode) {
-            System.out.println("Final image dimensions: " + resized.width() + "x" + resized.height() + " pixels");
-        }
+        log.debug("Final image dimensions: {}x{} pixels", resized.width(), resized.height());
 
         return resized;
     }
@@ -1,10 +1,6 @@
 package com.example.passportphotomaker.service.imageedit;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
@@ -24,60 +20,43 @@ public class ImageAdjuster {
     public static Mat applyAdjustments(Mat image, double brightness, double contrast, double saturation) {
         boolean hasAlpha = image.channels() == 4;
 
-        // 1. Split channels
-        List<Mat> channels = new ArrayList<>();
-        Core.split(image, channels);
-
+        // 1. Brightness + contrast on the color channels. The alpha channel is
+        // taken out directly instead of splitting and merging every channel
+        Mat adjusted = new Mat();
         Mat alpha = null;
         if (hasAlpha) {
-            alpha = channels.remove(3); // Extract alpha
+            alpha = new Mat();
+            Core.extractChannel(image, alpha, 3);
+            Imgproc.cvtColor(image, adjusted, Imgproc.COLOR_BGRA2BGR);
+            adjusted.convertTo(adjusted, -1, contrast, brightness);
+        } else {
+            // Brightness is added to each pixel as a simple linear mapping
+            image.convertTo(adjusted, -1, contrast, brightness);
         }
 
-        // Merge BGR for processing
-        Mat bgr = new Mat();
-        Core.merge(channels, bgr);
-
-        // 2. Brightness + contrast
-        Mat adjusted = new Mat();
-        // For brightness, we want to map -100 to +100 to a reasonable pixel shift
-        // For OpenCV, brightness is added to each pixel, so we'll use a more moderate scale
-        double brightnessScaled = brightness; // Simple linear mapping
-        bgr.convertTo(adjusted, -1, contrast, brightnessScaled);
-        bgr.release();
-
-        // 3. Saturation in HSV
-        Mat hsv = new Mat();
-        Imgproc.cvtColor(adjusted, hsv, Imgproc.COLOR_BGR2HSV);
-        adjusted.release();
-
-        List<Mat> hsvChannels = new ArrayList<>();
-        Core.split(hsv, hsvChannels);
-
-        Mat saturationMat = hsvChannels.get(1);
-        saturationMat.convertTo(saturationMat, CvType.CV_32F);
-        Core.multiply(saturationMat, new Scalar(saturation), saturationMat);
-        Core.min(saturationMat, new Scalar(255), saturationMat);
-        saturationMat.convertTo(saturationMat, CvType.CV_8U);
-
-        hsvChannels.set(1, saturationMat);
-        Core.merge(hsvChannels, hsv);
-        for (Mat m : hsvChannels) m.release();
-
-        Mat finalBgr = new Mat();
-        Imgproc.cvtColor(hsv, finalBgr, Imgproc.COLOR_HSV2BGR);
-        hsv.release();
+        // 2. Saturation in HSV, skipped when unchanged since the round trip isn't free
+        if (saturation != 1.0) {
+            Mat hsv = new Mat();
+            Mat saturationMat = new Mat();
+            Imgproc.cvtColor(adjusted, hsv, Imgproc.COLOR_BGR2HSV);
+            Core.extractChannel(hsv, saturationMat, 1);
+            // 8 bit multiplication rounds and saturates at 255
+            Core.multiply(saturationMat, new Scalar(saturation), saturationMat);
+            Core.insertChannel(saturationMat, hsv, 1);
+            Imgproc.cvtColor(hsv, adjusted, Imgproc.COLOR_HSV2BGR);
+            hsv.release();
+            saturationMat.release();
+        }
 
-        // 4. Merge alpha back if needed
-        if (hasAlpha && alpha != null) {
-            List<Mat> finalChannels = new ArrayList<>();
-            Core.split(finalBgr, finalChannels);
-            finalChannels.add(alpha); // add back alpha
+        // 3. Put alpha back if needed
+        if (hasAlpha) {
             Mat finalBgra = new Mat();
-            Core.merge(finalChannels, finalBgra);
-            finalBgr.release();
+            Imgproc.cvtColor(adjusted, finalBgra, Imgproc.COLOR_BGR2BGRA);
+            Core.insertChannel(alpha, finalBgra, 3);
+            adjusted.release();
+            alpha.release();
             return finalBgra;
-        } else {
-            return finalBgr;
         }
+        return adjusted;
     }
 }
@@ -0,0 +1,75 @@
+package com.example.passportphotomaker.service.imageprobe;
+
+/**
+ * Basic facts about an encoded image, read from its header
+ */
+public class ImageInfo {
+    private final String format;
+    private final int width;
+    private final int height;
+    private final int channels;
+    private final int orientation;
+
+    public ImageInfo(String format, int width, int height, int channels, int orientation) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.orientation = orientation;
+    }
+
+    /**
+     * "jpeg", "png" or "webp"
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Width of the stored pixels, before any EXIF orientation is applied
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Height of the stored pixels, before any EXIF orientation is applied
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Number of color channels (1 gray, 2 gray + alpha, 3 color, 4 color + alpha)
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    public boolean hasAlpha() {
+        return channels == 2 || channels == 4;
+    }
+
+    /**
+     * EXIF orientation (1 to 8), 1 if the image has none
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Whether the EXIF orientation swaps width and height
+     */
+    public boolean isTransposed() {
+        return orientation >= 5 && orientation <= 8;
+    }
+
+    public long getPixelCount() {
+        return (long) width * height;
+    }
+
+    @Override
+    public String toString() {
+        return format + " " + width + "x" + height + ", " + channels + " channels, orientation " + orientation;
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.passportphotomaker.service.imageprobe;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads dimensions, channel count and EXIF orientation from the header of a
+ * JPEG, PNG or WebP file without decoding any pixels, so oversized or
+ * mismatched uploads can be rejected before memory is allocated for them.
+ */
+public class ImageProbe {
+
+    /**
+     * Probe an encoded image
+     *
+     * @param data The encoded image
+     * @return The header information, or null if the format isn't recognised or
+     *         the header can't be parsed (the full decoder gets to decide then)
+     */
+    public static ImageInfo probe(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            if (isJpeg(data)) {
+                return probeJpeg(data);
+            }
+            if (isPng(data)) {
+                return probePng(data);
+            }
+            if (isWebp(data)) {
+                return probeWebp(data);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Truncated header
+            return null;
+        }
+        return null;
+    }
+
+    private static boolean isJpeg(byte[] data) {
+        return data.length > 3 && u8(data, 0) == 0xFF && u8(data, 1) == 0xD8 && u8(data, 2) == 0xFF;
+    }
+
+    private static boolean isPng(byte[] data) {
+        return data.length > 8 && u8(data, 0) == 0x89 && ascii(data, 1, 3).equals("PNG");
+    }
+
+    private static boolean isWebp(byte[] data) {
+        return data.length > 16 && ascii(data, 0, 4).equals("RIFF") && ascii(data, 8, 4).equals("WEBP");
+    }
+
+    private static ImageInfo probeJpeg(byte[] data) {
+        int orientation = 1;
+        int pos = 2;
+        while (pos + 4 <= data.length) {
+            if (u8(data, pos) != 0xFF) {
+                return null;
+            }
+            int marker = u8(data, pos + 1);
+            if (marker == 0xFF) {
+                // Fill byte
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                // Markers without a payload
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // End of image or start of scan before any frame header
+                return null;
+            }
+
+            int length = u16be(data, pos + 2);
+            int segment = pos + 4;
+            if (length < 2) {
+                return null;
+            }
+
+            if (marker == 0xE1 && length >= 8 && ascii(data, segment, 4).equals("Exif")) {
+                orientation = exifOrientation(data, segment + 6, segment + length - 2);
+            } else if (isStartOfFrame(marker)) {
+                int height = u16be(data, segment + 1);
+                int width = u16be(data, segment + 3);
+                int components = u8(data, segment + 5);
+                return new ImageInfo("jpeg", width, height, components == 1 ? 1 : 3, orientation);
+            }
+            pos += 2 + length;
+        }
+        return null;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0-SOF15, except DHT (C4), JPG (C8) and DAC (CC)
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static ImageInfo probePng(byte[] data) {
+        // The IHDR chunk always comes first, right after the 8 byte signature
+        if (!ascii(data, 12, 4).equals("IHDR")) {
+            return null;
+        }
+        int width = (int) u32be(data, 16);
+        int height = (int) u32be(data, 20);
+        int colorType = u8(data, 25);
+
+        // A tRNS chunk before the image data adds transparency to gray, RGB and palette images
+        boolean transparency = false;
+        int pos = 8;
+        while (pos + 8 <= data.length) {
+            long length = u32be(data, pos);
+            String type = ascii(data, pos + 4, 4);
+            if (type.equals("IDAT") || type.equals("IEND")) {
+                break;
+            }
+            if (type.equals("tRNS")) {
+                transparency = true;
+                break;
+            }
+            if (length > data.length) {
+                break;
+            }
+            pos += 12 + (int) length;
+        }
+
+        int channels;
+        switch (colorType) {
+            case 0:
+                channels = transparency ? 2 : 1;
+                break;
+            case 4:
+                channels = 2;
+                break;
+            case 6:
+                channels = 4;
+                break;
+            default:
+                // RGB (2) and palette (3)
+                channels = transparency ? 4 : 3;
+                break;
+        }
+        return new ImageInfo("png", width, height, channels, 1);
+    }
+
+    private static ImageInfo probeWebp(byte[] data) {
+        String chunk = ascii(data, 12, 4);
+        int payload = 20;
+
+        if (chunk.equals("VP8 ")) {
+            // Lossy: 3 byte frame tag, 3 byte start code, then 14 bit width and height
+            if (u8(data, payload + 3) != 0x9D || u8(data, payload + 4) != 0x01 || u8(data, payload + 5) != 0x2A) {
+                return null;
+            }
+            int width = u16le(data, payload + 6) & 0x3FFF;
+            int height = u16le(data, payload + 8) & 0x3FFF;
+            return new ImageInfo("webp", width, height, 3, 1);
+        }
+
+        if (chunk.equals("VP8L")) {
+            // Lossless: signature byte, then 14 bit width - 1, 14 bit height - 1 and the alpha hint
+            if (u8(data, payload) != 0x2F) {
+                return null;
+            }
+            long bits = u32le(data, payload + 1);
+            int width = (int) (bits & 0x3FFF) + 1;
+            int height = (int) ((bits >> 14) & 0x3FFF) + 1;
+            boolean alpha = ((bits >> 28) & 1) != 0;
+            return new ImageInfo("webp", width, height, alpha ? 4 : 3, 1);
+        }
+
+        if (chunk.equals("VP8X")) {
+            // Extended: feature flags, then 24 bit canvas width - 1 and height - 1
+            int flags = u8(data, payload);
+            int width = u24le(data, payload + 4) + 1;
+            int height = u24le(data, payload + 7) + 1;
+            boolean alpha = (flags & 0x10) != 0;
+            int orientation = (flags & 0x08) != 0 ? webpExifOrientation(data) : 1;
+            return new ImageInfo("webp", width, height, alpha ? 4 : 3, orientation);
+        }
+        return null;
+    }
+
+    private static int webpExifOrientation(byte[] data) {
+        int pos = 12;
+        while (pos + 8 <= data.length) {
+            String type = ascii(data, pos, 4);
+            long size = u32le(data, pos + 4);
+            if (size > data.length) {
+                break;
+            }
+            if (type.equals("EXIF")) {
+                int start = pos + 8;
+                // Some encoders keep the JPEG style "Exif\0\0" prefix
+                if (ascii(data, start, 4).equals("Exif")) {
+                    start += 6;
+                }
+                return exifOrientation(data, start, pos + 8 + (int) size);
+            }
+            // Chunks are padded to an even size
+            pos += 8 + (int) size + (int) (size & 1);
+        }
+        return 1;
+    }
+
+    /**
+     * Read the orientation tag from the first IFD of a TIFF structure
+     *
+     * @param tiff Offset of the TIFF header
+     * @param end  End of the EXIF data
+     */
+    private static int exifOrientation(byte[] data, int tiff, int end) {
+        if (end > data.length || tiff + 8 > end) {
+            return 1;
+        }
+        String byteOrder = ascii(data, tiff, 2);
+        if (!byteOrder.equals("II") && !byteOrder.equals("MM")) {
+            return 1;
+        }
+        boolean littleEndian = byteOrder.equals("II");
+        // The IFD follows the 8 byte header, any other offset is corrupt. Checked as a
+        // long, so huge offsets can't wrap around to a position before the end
+        long offset = read32(data, tiff + 4, littleEndian);
+        if (offset < 8 || offset > end - tiff - 2) {
+            return 1;
+        }
+        int ifd = tiff + (int) offset;
+        int entries = read16(data, ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                break;
+            }
+            if (read16(data, entry, littleEndian) == 0x0112) {
+                int orientation = read16(data, entry + 8, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int u8(byte[] data, int pos) {
+        return data[pos] & 0xFF;
+    }
+
+    private static int u16be(byte[] data, int pos) {
+        return (u8(data, pos) << 8) | u8(data, pos + 1);
+    }
+
+    private static int u16le(byte[] data, int pos) {
+        return u8(data, pos) | (u8(data, pos + 1) << 8);
+    }
+
+    private static int u24le(byte[] data, int pos) {
+        return u8(data, pos) | (u8(data, pos + 1) << 8) | (u8(data, pos + 2) << 16);
+    }
+
+    private static long u32be(byte[] data, int pos) {
+        return ((long) u16be(data, pos) << 16) | u16be(data, pos + 2);
+    }
+
+    private static long u32le(byte[] data, int pos) {
+        return u16le(data, pos) | ((long) u16le(data, pos + 2) << 16);
+    }
+
+    private static int read16(byte[] data, int pos, boolean littleEndian) {
+        return littleEndian ? u16le(data, pos) : u16be(data, pos);
+    }
+
+    private static long read32(byte[] data, int pos, boolean littleEndian) {
+        return littleEndian ? u32le(data, pos) : u32be(data, pos);
+    }
+
+    private static String ascii(byte[] data, int pos, int length) {
+        if (pos < 0 || pos + length > data.length) {
+            return "";
+        }
+        return new String(data, pos, length, StandardCharsets.US_ASCII);
+    }
+}
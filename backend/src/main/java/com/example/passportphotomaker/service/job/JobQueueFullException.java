@@ -0,0 +1,22 @@
+package com.example.passportphotomaker.service.job;
+
+/**
+ * Thrown when a job can't be accepted because the job queue is full
+ */
+public class JobQueueFullException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public JobQueueFullException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Suggested number of seconds the client should wait before retrying
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.passportphotomaker.service.job;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * State of an asynchronous photo processing job
+ */
+public class PhotoJob {
+    public enum Status {
+        // REJECTED: the server was at capacity when the job ran, submitting it again later can succeed
+        QUEUED, RUNNING, SUCCEEDED, FAILED, REJECTED
+    }
+
+    private final String id;
+    private final long createdAt = System.currentTimeMillis();
+    private volatile Status status = Status.QUEUED;
+    private volatile String stage = "queued";
+    private volatile int progress = 0;
+    private volatile String error;
+    private volatile byte[] result;
+    private volatile long retryAfterSeconds;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+
+    // Clients subscribed to progress events
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+    public PhotoJob(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public byte[] getResult() {
+        return result;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Suggested wait before submitting a rejected job again
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Size of the retained result, 0 until the job has succeeded
+     */
+    public long getResultBytes() {
+        byte[] bytes = result;
+        return bytes != null ? bytes.length : 0;
+    }
+
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED || status == Status.REJECTED;
+    }
+
+    void markRunning() {
+        this.startedAt = System.currentTimeMillis();
+        this.status = Status.RUNNING;
+        publish();
+    }
+
+    void updateStage(String stage, int progress) {
+        this.stage = stage;
+        this.progress = progress;
+        publish();
+    }
+
+    void markSucceeded(byte[] result) {
+        this.result = result;
+        this.stage = "done";
+        this.progress = 100;
+        this.finishedAt = System.currentTimeMillis();
+        this.status = Status.SUCCEEDED;
+        publish();
+        completeEmitters();
+    }
+
+    void markFailed(String error) {
+        this.error = error;
+        this.stage = "failed";
+        this.finishedAt = System.currentTimeMillis();
+        this.status = Status.FAILED;
+        publish();
+        completeEmitters();
+    }
+
+    void markRejected(String error, long retryAfterSeconds) {
+        this.error = error;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.stage = "rejected";
+        this.finishedAt = System.currentTimeMillis();
+        this.status = Status.REJECTED;
+        publish();
+        completeEmitters();
+    }
+
+    /**
+     * Register a client for progress events. The current state is sent immediately.
+     */
+    void addEmitter(SseEmitter emitter) {
+        emitters.add(emitter);
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(e -> emitters.remove(emitter));
+
+        send(emitter);
+        if (isFinished()) {
+            emitters.remove(emitter);
+            emitter.complete();
+        }
+    }
+
+    /**
+     * Snapshot of the job state for status responses and progress events
+     */
+    public Map<String, Object> toStatusMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("jobId", id);
+        map.put("status", status.name());
+        map.put("stage", stage);
+        map.put("progress", progress);
+        if (error != null) {
+            map.put("error", error);
+        }
+        if (status == Status.REJECTED) {
+            map.put("retryAfterSeconds", retryAfterSeconds);
+        }
+        map.put("createdAt", createdAt);
+        if (startedAt > 0) {
+            map.put("queuedMillis", startedAt - createdAt);
+        }
+        if (finishedAt > 0) {
+            map.put("processingMillis", finishedAt - startedAt);
+        }
+        return map;
+    }
+
+    private void publish() {
+        for (SseEmitter emitter : emitters) {
+            send(emitter);
+        }
+    }
+
+    private void send(SseEmitter emitter) {
+        try {
+            emitter.send(SseEmitter.event().name("progress").data(toStatusMap()));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away - stop sending to it
+            emitters.remove(emitter);
+        }
+    }
+
+    private void completeEmitters() {
+        for (SseEmitter emitter : emitters) {
+            emitter.complete();
+        }
+        emitters.clear();
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.passportphotomaker.service.job;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.example.passportphotomaker.service.PhotoService;
+import com.example.passportphotomaker.service.admission.AdmissionRejectedException;
+import com.example.passportphotomaker.service.debug.DebugCapture;
+
+/**
+ * Runs photo processing jobs on a dedicated, bounded worker pool so slow
+ * requests don't hold on to servlet container threads.
+ */
+@Service
+public class PhotoJobService {
+    private static final Logger log = LoggerFactory.getLogger(PhotoJobService.class);
+
+    private final PhotoService photoService;
+
+    @Value("${photo.jobs.workers:0}")
+    private int workerCount;
+
+    @Value("${photo.jobs.queue-capacity:32}")
+    private int queueCapacity;
+
+    @Value("${photo.jobs.retention-seconds:600}")
+    private long retentionSeconds;
+
+    // Total size of the results kept for finished jobs, the oldest are dropped beyond it
+    @Value("${photo.jobs.max-result-bytes:268435456}")
+    private long maxResultBytes;
+
+    @Value("${photo.jobs.sse-timeout-seconds:120}")
+    private long sseTimeoutSeconds;
+
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService cleanup;
+    private final Map<String, PhotoJob> jobs = new ConcurrentHashMap<>();
+
+    // Moving average of the job processing time, used to estimate Retry-After. Updated under the service lock.
+    private volatile double averageJobMillis = 2000;
+
+    public PhotoJobService(PhotoService photoService) {
+        this.photoService = photoService;
+    }
+
+    @PostConstruct
+    public void init() {
+        int workers = workerCount > 0
+                ? workerCount
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "photo-job-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        // AbortPolicy: a full queue rejects the job instead of blocking the request thread
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+
+        // Finished jobs hold their result bytes, drop them even when no new jobs come in
+        long cleanupSeconds = Math.max(1, Math.min(60, retentionSeconds));
+        this.cleanup = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "photo-job-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleanup.scheduleWithFixedDelay(this::removeExpiredJobs, cleanupSeconds, cleanupSeconds, TimeUnit.SECONDS);
+
+        log.info("Photo job pool started with {} workers and queue capacity {}", workers, queueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (cleanup != null) {
+            cleanup.shutdownNow();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        jobs.clear();
+    }
+
+    /**
+     * Queue a background removal job
+     *
+     * @return The queued job
+     * @throws IOException           If the upload is invalid
+     * @throws JobQueueFullException If the job queue is full
+     */
+    public PhotoJob submit(MultipartFile file, String photoFormat, Double photoWidth, Double photoHeight,
+            String photoUnit) throws IOException, JobQueueFullException {
+        // Validate and copy the upload now - the multipart file is gone once the request ends
+        photoService.validateInputFile(file);
+        byte[] imageBytes = file.getBytes();
+        // Reject decompression bombs with the submit request, not as a failed job later
+        photoService.probeImage(imageBytes);
+
+        removeExpiredJobs();
+
+        PhotoJob job = new PhotoJob(UUID.randomUUID().toString());
+        jobs.put(job.getId(), job);
+
+        // Keep the submitting request's id on the job's log lines, and its debug capture
+        Map<String, String> logContext = MDC.getCopyOfContextMap();
+        DebugCapture capture = DebugCapture.current();
+        try {
+            executor.execute(() -> run(job, imageBytes, photoFormat, photoWidth, photoHeight, photoUnit,
+                    logContext, capture));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw new JobQueueFullException("Photo job queue is full", estimateRetryAfterSeconds());
+        }
+        return job;
+    }
+
+    /**
+     * Look up a job
+     *
+     * @return The job, or null if it doesn't exist or has expired
+     */
+    public PhotoJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Subscribe to the progress events of a job
+     *
+     * @return The emitter, or null if the job doesn't exist
+     */
+    public SseEmitter subscribe(String jobId) {
+        PhotoJob job = jobs.get(jobId);
+        if (job == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(TimeUnit.SECONDS.toMillis(sseTimeoutSeconds));
+        job.addEmitter(emitter);
+        return emitter;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    private void run(PhotoJob job, byte[] imageBytes, String photoFormat, Double photoWidth, Double photoHeight,
+            String photoUnit, Map<String, String> logContext, DebugCapture capture) {
+        if (logContext != null) {
+            MDC.setContextMap(logContext);
+        }
+        DebugCapture.bind(capture);
+        job.markRunning();
+        long start = System.currentTimeMillis();
+        try {
+            byte[] result = photoService.processImage(imageBytes, photoFormat, photoWidth, photoHeight, photoUnit,
+                    job::updateStage);
+            job.markSucceeded(result);
+            enforceResultBudget();
+        } catch (AdmissionRejectedException e) {
+            if (e.getRetryAfterSeconds() > 0) {
+                log.info("Photo job {} rejected, server at capacity: {}", job.getId(), e.getMessage());
+                job.markRejected(e.getMessage(), e.getRetryAfterSeconds());
+            } else {
+                log.warn("Photo job {} failed: {}", job.getId(), e.getMessage());
+                job.markFailed(e.getMessage());
+            }
+        } catch (Exception e) {
+            log.warn("Photo job {} failed: {}", job.getId(), e.getMessage());
+            job.markFailed(e.getMessage());
+        } finally {
+            recordJobMillis(System.currentTimeMillis() - start);
+            MDC.clear();
+            DebugCapture.bind(null);
+        }
+    }
+
+    private synchronized void recordJobMillis(long elapsed) {
+        averageJobMillis = averageJobMillis * 0.8 + elapsed * 0.2;
+    }
+
+    /**
+     * Estimate how long until a queue slot frees up
+     */
+    private long estimateRetryAfterSeconds() {
+        int workers = Math.max(1, executor.getMaximumPoolSize());
+        double waitMillis = averageJobMillis * (executor.getQueue().size() + 1) / workers;
+        return Math.max(1, (long) Math.ceil(waitMillis / 1000.0));
+    }
+
+    /**
+     * Drop the oldest finished jobs until the retained results fit in the
+     * configured size. Pending jobs are bounded by the queue, finished ones
+     * would otherwise only be bounded by the retention time.
+     */
+    private synchronized void enforceResultBudget() {
+        List<PhotoJob> finished = new ArrayList<>();
+        long total = 0;
+        for (PhotoJob job : jobs.values()) {
+            if (job.isFinished()) {
+                finished.add(job);
+                total += job.getResultBytes();
+            }
+        }
+        if (total <= maxResultBytes) {
+            return;
+        }
+        finished.sort(Comparator.comparingLong(PhotoJob::getFinishedAt));
+        int dropped = 0;
+        for (PhotoJob job : finished) {
+            if (total <= maxResultBytes) {
+                break;
+            }
+            jobs.remove(job.getId());
+            total -= job.getResultBytes();
+            dropped++;
+        }
+        log.debug("Dropped {} finished photo jobs to keep their results within {} bytes", dropped, maxResultBytes);
+    }
+
+    /**
+     * Forget finished jobs (and their results) once the retention time has passed.
+     * Runs on every submit and periodically on the cleanup thread.
+     */
+    private void removeExpiredJobs() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(retentionSeconds);
+        Iterator<PhotoJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            PhotoJob job = it.next();
+            if (job.isFinished() && job.getFinishedAt() < cutoff) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.passportphotomaker.service.memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Owner of the temporary Mats of a block of image processing code. Every Mat
+ * created through or added to the scope is released when the scope is closed,
+ * except the ones handed to the caller with keep(). Use it with
+ * try-with-resources, so early returns and exceptions release the Mats too:
+ *
+ * <pre>
+ * try (MatScope scope = new MatScope()) {
+ *     Mat edges = scope.newMat();
+ *     Mat kernel = scope.kernel(Imgproc.MORPH_ELLIPSE, 5);
+ *     ...
+ *     return scope.keep(result);
+ * }
+ * </pre>
+ *
+ * All Mats are also tracked by MatTracker for the current request.
+ */
+public class MatScope implements AutoCloseable {
+    private final List<Mat> mats = new ArrayList<>();
+
+    /**
+     * An empty Mat, to be filled by an OpenCV call
+     */
+    public Mat newMat() {
+        return add(new Mat());
+    }
+
+    /**
+     * A Mat of the given size and type with every element set to the value
+     */
+    public Mat newMat(Size size, int type, Scalar value) {
+        return add(new Mat(size, type, value));
+    }
+
+    /**
+     * A single channel 8 bit Mat with every element set to the value
+     */
+    public Mat newMask(Size size, double value) {
+        return newMat(size, CvType.CV_8UC1, new Scalar(value));
+    }
+
+    /**
+     * A structuring element for morphology operations
+     *
+     * @param shape Imgproc.MORPH_RECT, MORPH_ELLIPSE or MORPH_CROSS
+     * @param size  Width and height of the element
+     */
+    public Mat kernel(int shape, int size) {
+        return add(Imgproc.getStructuringElement(shape, new Size(size, size)));
+    }
+
+    /**
+     * Take ownership of a Mat created elsewhere (a clone, a submat, a MatOfRect, ...)
+     *
+     * @return The same Mat
+     */
+    public <T extends Mat> T add(T mat) {
+        mats.add(mat);
+        return MatTracker.track(mat);
+    }
+
+    /**
+     * Take ownership of a list of Mats, e.g. the channels from Core.split
+     */
+    public <T extends Mat> List<T> addAll(List<T> list) {
+        for (T mat : list) {
+            add(mat);
+        }
+        return list;
+    }
+
+    /**
+     * Hand a Mat of the scope over to the caller, who becomes responsible for releasing it
+     *
+     * @return The same Mat
+     */
+    public <T extends Mat> T keep(T mat) {
+        for (int i = mats.size() - 1; i >= 0; i--) {
+            if (mats.get(i) == mat) {
+                mats.remove(i);
+                break;
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * Release every Mat still owned by the scope
+     */
+    @Override
+    public void close() {
+        for (Mat mat : mats) {
+            mat.release();
+        }
+        mats.clear();
+    }
+}
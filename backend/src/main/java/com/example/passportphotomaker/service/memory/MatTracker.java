@@ -0,0 +1,201 @@
+package com.example.passportphotomaker.service.memory;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accounting for the native memory of the Mats a request allocates. Mats
+ * are tracked while a request is open on the allocating thread (see
+ * beginRequest), usually through a MatScope. When the request ends, every
+ * tracked Mat that still holds pixel data is counted as leaked, with leak
+ * detection on it's also reported together with the place it was allocated.
+ *
+ * Mats that outlive their request on purpose (cache entries) must not be tracked.
+ */
+public class MatTracker {
+    private static final Logger log = LoggerFactory.getLogger(MatTracker.class);
+
+    private static final ThreadLocal<Request> CURRENT = new ThreadLocal<>();
+    private static final Set<Request> OPEN_REQUESTS = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong LEAKED_MATS = new AtomicLong();
+    private static final AtomicLong LEAKED_BYTES = new AtomicLong();
+
+    private static volatile boolean leakDetection;
+
+    private static class Allocation {
+        final Mat mat;
+        // Where the Mat was allocated, only recorded with leak detection on
+        final Throwable site;
+
+        Allocation(Mat mat, Throwable site) {
+            this.mat = mat;
+            this.site = site;
+        }
+    }
+
+    /**
+     * The Mats allocated by one request. Closing it checks them for leaks.
+     */
+    public static class Request implements AutoCloseable {
+        private static final Request NONE = new Request(null);
+
+        private final String name;
+        private final Queue<Allocation> allocations = new ConcurrentLinkedQueue<>();
+
+        private Request(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            if (this == NONE) {
+                return;
+            }
+            CURRENT.remove();
+            OPEN_REQUESTS.remove(this);
+
+            int leaked = 0;
+            long leakedBytes = 0;
+            for (Allocation allocation : allocations) {
+                long bytes = bytes(allocation.mat);
+                if (bytes > 0) {
+                    leaked++;
+                    leakedBytes += bytes;
+                    if (allocation.site != null) {
+                        reportLeak(name, allocation, bytes);
+                    }
+                }
+            }
+            allocations.clear();
+            if (leaked > 0) {
+                LEAKED_MATS.addAndGet(leaked);
+                LEAKED_BYTES.addAndGet(leakedBytes);
+                log.warn("Request {} left {} Mat(s) with {} bytes unreleased{}", name, leaked, leakedBytes,
+                        leakDetection ? "" : " (enable mat.leak-detection for details)");
+            }
+        }
+
+        private long liveBytes() {
+            long total = 0;
+            for (Allocation allocation : allocations) {
+                total += bytes(allocation.mat);
+            }
+            return total;
+        }
+
+        private long liveCount() {
+            long count = 0;
+            for (Allocation allocation : allocations) {
+                if (bytes(allocation.mat) > 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Start tracking the Mats allocated on the current thread. Requests don't
+     * nest: inside an open request this returns a handle that does nothing.
+     *
+     * @param name Name of the request, used in leak reports (e.g. "process-photo")
+     */
+    public static Request beginRequest(String name) {
+        if (CURRENT.get() != null) {
+            return Request.NONE;
+        }
+        Request request = new Request(name);
+        CURRENT.set(request);
+        OPEN_REQUESTS.add(request);
+        return request;
+    }
+
+    /**
+     * Track a Mat for the request open on the current thread, if any
+     *
+     * @return The same Mat
+     */
+    public static <T extends Mat> T track(T mat) {
+        Request request = CURRENT.get();
+        if (request != null && mat != null) {
+            request.allocations.add(new Allocation(mat, leakDetection ? new Throwable() : null));
+        }
+        return mat;
+    }
+
+    public static void setLeakDetection(boolean enabled) {
+        leakDetection = enabled;
+    }
+
+    public static boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    /**
+     * Native bytes held by the tracked Mats of all open requests
+     */
+    public static long getLiveBytes() {
+        long total = 0;
+        for (Request request : OPEN_REQUESTS) {
+            total += request.liveBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Number of tracked Mats of all open requests that hold pixel data
+     */
+    public static long getLiveCount() {
+        long count = 0;
+        for (Request request : OPEN_REQUESTS) {
+            count += request.liveCount();
+        }
+        return count;
+    }
+
+    /**
+     * Number of Mats still holding data when their request ended, since startup
+     */
+    public static long getLeakedCount() {
+        return LEAKED_MATS.get();
+    }
+
+    /**
+     * Native bytes of the Mats counted by getLeakedCount
+     */
+    public static long getLeakedBytes() {
+        return LEAKED_BYTES.get();
+    }
+
+    private static long bytes(Mat mat) {
+        if (mat.dataAddr() == 0) {
+            return 0;
+        }
+        return mat.total() * mat.elemSize();
+    }
+
+    private static void reportLeak(String request, Allocation allocation, long bytes) {
+        Mat mat = allocation.mat;
+        StringBuilder report = new StringBuilder("Unreleased Mat after ").append(request).append(": ")
+                .append(mat.width()).append('x').append(mat.height()).append(", ").append(mat.channels())
+                .append(" channel(s), ").append(bytes).append(" bytes, allocated at");
+        for (StackTraceElement frame : allocation.site.getStackTrace()) {
+            if (frame.getClassName().startsWith(MatTracker.class.getPackage().getName())) {
+                // Skip the tracker and scope frames
+                continue;
+            }
+            report.append("\n\tat ").append(frame);
+            if (!frame.getClassName().startsWith("com.example.passportphotomaker")) {
+                break;
+            }
+        }
+        log.warn("{}", report);
+    }
+}
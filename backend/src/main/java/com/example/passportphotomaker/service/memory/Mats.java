@@ -0,0 +1,29 @@
+package com.example.passportphotomaker.service.memory;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Mat helpers that don't leave temporary native buffers behind
+ */
+public class Mats {
+
+    /**
+     * Decode an image. Unlike Imgcodecs.imdecode(new MatOfByte(data), flags) the
+     * native copy of the encoded bytes is released right away instead of
+     * waiting for the garbage collector.
+     *
+     * @param data  The encoded image
+     * @param flags Imgcodecs.IMREAD_* flags
+     * @return The decoded image, empty if it can't be decoded
+     */
+    public static Mat decode(byte[] data, int flags) {
+        MatOfByte buffer = new MatOfByte(data);
+        try {
+            return Imgcodecs.imdecode(buffer, flags);
+        } finally {
+            buffer.release();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.passportphotomaker.service.metrics;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.stereotype.Component;
+
+import com.example.passportphotomaker.service.PhotoService;
+import com.example.passportphotomaker.service.admission.AdmissionController;
+import com.example.passportphotomaker.service.bgchange.BackgroundAssetCache;
+import com.example.passportphotomaker.service.cache.ImageCache;
+import com.example.passportphotomaker.service.debug.DebugArtifactWriter;
+import com.example.passportphotomaker.service.job.PhotoJobService;
+import com.example.passportphotomaker.service.memory.MatTracker;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Gauges for the state around the pipeline: image cache sizes, the admission
+ * queue and in-flight work, the asynchronous job queue and the native memory
+ * held by Mats of running requests, and the debug artifact writer
+ */
+@Component
+public class PipelineGauges {
+    private final MeterRegistry registry;
+    private final PhotoService photoService;
+    private final BackgroundAssetCache backgroundAssets;
+    private final AdmissionController admissionController;
+    private final PhotoJobService jobService;
+    private final DebugArtifactWriter debugArtifacts;
+
+    public PipelineGauges(MeterRegistry registry, PhotoService photoService, BackgroundAssetCache backgroundAssets,
+            AdmissionController admissionController, PhotoJobService jobService,
+            DebugArtifactWriter debugArtifacts) {
+        this.registry = registry;
+        this.photoService = photoService;
+        this.backgroundAssets = backgroundAssets;
+        this.admissionController = admissionController;
+        this.jobService = jobService;
+        this.debugArtifacts = debugArtifacts;
+    }
+
+    @PostConstruct
+    public void register() {
+        registerCache(photoService.getOriginalImageCache());
+        registerCache(photoService.getEditSessionCache());
+        registerCache(backgroundAssets.getCache());
+
+        Gauge.builder("photo.admission.queue.depth", admissionController, AdmissionController::getQueueDepth)
+                .description("Requests waiting for admission to the pipeline")
+                .register(registry);
+        Gauge.builder("photo.admission.in.flight", admissionController, AdmissionController::getInFlight)
+                .description("Requests currently running in the pipeline")
+                .register(registry);
+        Gauge.builder("photo.admission.native.bytes", admissionController,
+                AdmissionController::getNativeBytesInUse)
+                .description("Estimated native memory reserved by admitted requests")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("photo.admission.rejected", admissionController,
+                AdmissionController::getRejectedCount)
+                .description("Requests turned away by admission control")
+                .register(registry);
+
+        Gauge.builder("photo.jobs.queue.depth", jobService, PhotoJobService::getQueueDepth)
+                .description("Asynchronous photo jobs waiting for a worker")
+                .register(registry);
+        Gauge.builder("photo.jobs.active", jobService, PhotoJobService::getActiveCount)
+                .description("Asynchronous photo jobs being processed")
+                .register(registry);
+
+        Gauge.builder("photo.native.mats.bytes", MatTracker::getLiveBytes)
+                .description("Native memory held by Mats of running requests")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("photo.native.mats.live", MatTracker::getLiveCount)
+                .description("Mats allocated by running requests and not yet released")
+                .register(registry);
+        FunctionCounter.builder("photo.native.mats.leaked", MatTracker.class, c -> MatTracker.getLeakedCount())
+                .description("Mats still holding memory when their request finished")
+                .register(registry);
+        FunctionCounter.builder("photo.native.mats.leaked.bytes", MatTracker.class, c -> MatTracker.getLeakedBytes())
+                .description("Native memory of Mats still held when their request finished")
+                .baseUnit("bytes")
+                .register(registry);
+
+        FunctionCounter.builder("photo.debug.artifacts.written", debugArtifacts,
+                DebugArtifactWriter::getWrittenCount)
+                .description("Debug artifacts written to disk")
+                .register(registry);
+        FunctionCounter.builder("photo.debug.artifacts.dropped", debugArtifacts,
+                DebugArtifactWriter::getDroppedCount)
+                .description("Debug artifacts dropped because the writer was behind")
+                .register(registry);
+    }
+
+    private void registerCache(ImageCache cache) {
+        if (cache == null) {
+            return;
+        }
+        Gauge.builder("photo.cache.entries", cache, ImageCache::size)
+                .description("Images held by the cache")
+                .tag("cache", cache.getName())
+                .register(registry);
+        Gauge.builder("photo.cache.size", cache, ImageCache::getSizeBytes)
+                .description("Native size of the images held by the cache")
+                .tag("cache", cache.getName())
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("photo.cache.hits", cache, ImageCache::getHitCount)
+                .tag("cache", cache.getName())
+                .register(registry);
+        FunctionCounter.builder("photo.cache.misses", cache, ImageCache::getMissCount)
+                .tag("cache", cache.getName())
+                .register(registry);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.passportphotomaker.service.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publishes pipeline timings to Micrometer:
+ * photo.pipeline.requests (whole requests, by outcome), photo.pipeline.stage
+ * (consecutive stages such as decode or encode) and photo.pipeline.step
+ * (work inside a stage such as inference or GrabCut). All of them are tagged
+ * with the operation, background removal engine, model and output format.
+ * A sample of the requests is also logged with its stage timings.
+ */
+@Component
+public class PipelineMetrics {
+    private final MeterRegistry registry;
+    private final AtomicLong summaryCounter = new AtomicLong();
+
+    // Every n-th request gets a summary log line, 0 for none
+    @Value("${pipeline.log.summary-every:100}")
+    private int summaryEvery;
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Start timing a request. If a PipelineProfile is bound to the calling
+     * thread, the timings are added to it as well.
+     *
+     * @param operation The kind of request (e.g. "process-photo")
+     * @param engine    The background removal engine (e.g. "onnx")
+     * @param model     The segmentation model, "none" if the engine has none
+     * @param format    The output format (e.g. "png")
+     * @return The trace, to be closed when the request ends
+     */
+    public PipelineTrace startTrace(String operation, String engine, String model, String format) {
+        return new PipelineTrace(this, Tags.of(
+                "operation", operation,
+                "engine", engine,
+                "model", model,
+                "format", format), PipelineProfile.current());
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Whether the next finished request should be logged with its stage timings
+     */
+    boolean sampleSummary() {
+        return summaryEvery > 0 && summaryCounter.getAndIncrement() % summaryEvery == 0;
+    }
+
+    void recordRequest(Tags tags, String outcome, long nanos) {
+        Timer.builder("photo.pipeline.requests")
+                .description("Time spent on photo pipeline requests")
+                .tags(tags)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordStage(Tags tags, String stage, long nanos) {
+        Timer.builder("photo.pipeline.stage")
+                .description("Time spent in each stage of the photo pipeline")
+                .tags(tags)
+                .tag("stage", stage)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordStep(Tags tags, String stage, String step, long nanos) {
+        Timer.builder("photo.pipeline.step")
+                .description("Time spent in steps within a pipeline stage")
+                .tags(tags)
+                .tag("stage", stage)
+                .tag("step", step)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.passportphotomaker.service.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Stage and step durations of the pipeline runs made while handling one HTTP
+ * request, so they can be reported back to the client. A profile is bound to
+ * the request thread from begin() to end(), traces started on that thread in
+ * between add their timings to it.
+ */
+public class PipelineProfile {
+    private static final ThreadLocal<PipelineProfile> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private long endNanos;
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+
+    private static class Entry {
+        final String name;
+        final String stage;
+        final long nanos;
+
+        Entry(String name, String stage, long nanos) {
+            this.name = name;
+            this.stage = stage;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Start collecting timings for the current thread
+     */
+    public static PipelineProfile begin() {
+        PipelineProfile profile = new PipelineProfile();
+        CURRENT.set(profile);
+        return profile;
+    }
+
+    /**
+     * The profile bound to the current thread, or null
+     */
+    static PipelineProfile current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Stop collecting and unbind the profile from the current thread
+     */
+    public void end() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+        if (endNanos == 0) {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    void setAttribute(String name, String value) {
+        attributes.putIfAbsent(name, value);
+    }
+
+    void addStage(String stage, long nanos) {
+        entries.add(new Entry(stage, null, nanos));
+    }
+
+    void addStep(String stage, String step, long nanos) {
+        entries.add(new Entry(step, stage, nanos));
+    }
+
+    /**
+     * The timings as a Server-Timing header value, e.g.
+     * {@code decode;dur=4.2, inference;desc="remove-background";dur=310.5, total;dur=402.0}
+     */
+    public String toServerTiming() {
+        StringBuilder header = new StringBuilder();
+        for (Entry entry : entries) {
+            header.append(entry.name);
+            if (entry.stage != null) {
+                header.append(";desc=\"").append(entry.stage).append('"');
+            }
+            header.append(";dur=").append(millis(entry.nanos)).append(", ");
+        }
+        return header.append("total;dur=").append(millis(totalNanos())).toString();
+    }
+
+    /**
+     * The timings as a structure for JSON output: the tags of the pipeline run,
+     * the total time, and the stages with their steps (all in milliseconds)
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> profile = new LinkedHashMap<>(attributes);
+        profile.put("totalMs", Double.valueOf(millis(totalNanos())));
+
+        List<Map<String, Object>> stages = new ArrayList<>();
+        List<Map<String, Object>> steps = new ArrayList<>();
+        for (Entry entry : entries) {
+            Map<String, Object> timing = new LinkedHashMap<>();
+            if (entry.stage != null) {
+                timing.put("stage", entry.stage);
+            }
+            timing.put("name", entry.name);
+            timing.put("ms", Double.valueOf(millis(entry.nanos)));
+            (entry.stage != null ? steps : stages).add(timing);
+        }
+        profile.put("stages", stages);
+        profile.put("steps", steps);
+        return profile;
+    }
+
+    private long totalNanos() {
+        return (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.passportphotomaker.service.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.passportphotomaker.service.PipelineListener;
+import com.example.passportphotomaker.service.metrics.jfr.PhotoPipelineStageEvent;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Timings of one request through the photo pipeline.
+ * Stages follow each other - entering a stage ends the previous one - and add
+ * up to the whole request. Steps are timed inside the current stage (model
+ * inference, GrabCut, ...). Every stage is also emitted as a
+ * PhotoPipelineStage Flight Recorder event. Failed requests and a sample of
+ * the others are logged with their stage timings when the trace is closed.
+ * A trace belongs to a single request and isn't thread-safe.
+ */
+public class PipelineTrace implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(PipelineTrace.class);
+
+    /** Trace that records nothing, for callers without metrics */
+    public static final PipelineTrace NONE = new PipelineTrace(null, Tags.empty(), null);
+
+    private final PipelineMetrics metrics;
+    private final Tags tags;
+    // Profile of the HTTP request running this pipeline, null if none is collected
+    private final PipelineProfile profile;
+    private final long startNanos;
+    // Finished stages and their durations, for the summary log line
+    private final List<String> stageNames = new ArrayList<>();
+    private final List<Long> stageNanos = new ArrayList<>();
+
+    private String currentStage;
+    private long stageStartNanos;
+    private PhotoPipelineStageEvent stageEvent;
+    private int imageWidth;
+    private int imageHeight;
+    private String outcome = "success";
+    private boolean closed;
+
+    PipelineTrace(PipelineMetrics metrics, Tags tags, PipelineProfile profile) {
+        this.metrics = metrics;
+        this.tags = tags;
+        this.profile = profile;
+        this.startNanos = System.nanoTime();
+        if (profile != null) {
+            tags.forEach(tag -> profile.setAttribute(tag.getKey(), tag.getValue()));
+        }
+    }
+
+    /**
+     * Wrap a progress listener so every stage notification also starts timing that stage
+     */
+    public PipelineListener listener(PipelineListener delegate) {
+        if (metrics == null) {
+            return delegate;
+        }
+        return (stage, percent) -> {
+            enterStage(stage);
+            delegate.onStage(stage, percent);
+        };
+    }
+
+    /**
+     * End the current stage and start timing the next one
+     */
+    public void enterStage(String stage) {
+        if (metrics == null || closed) {
+            return;
+        }
+        long now = System.nanoTime();
+        endStage(now);
+        currentStage = stage;
+        stageStartNanos = now;
+        stageEvent = new PhotoPipelineStageEvent();
+        stageEvent.begin();
+    }
+
+    /**
+     * Size of the image the pipeline currently works on, reported with the stage events
+     */
+    public void setImageSize(int width, int height) {
+        imageWidth = width;
+        imageHeight = height;
+    }
+
+    /**
+     * Start timing a step of the current stage, the step ends when the returned handle is closed.
+     * The handle is never used inside the try block, so callers suppress the "try" lint warning.
+     *
+     * @param name Name of the step (e.g. "inference")
+     */
+    public Step step(String name) {
+        if (metrics == null) {
+            return Step.NONE;
+        }
+        String stage = currentStage != null ? currentStage : "none";
+        long start = System.nanoTime();
+        return () -> {
+            long nanos = System.nanoTime() - start;
+            metrics.recordStep(tags, stage, name, nanos);
+            if (profile != null) {
+                profile.addStep(stage, name, nanos);
+            }
+        };
+    }
+
+    /**
+     * Mark the request as failed
+     */
+    public void markFailed() {
+        outcome = "error";
+    }
+
+    /**
+     * Mark the request as turned away by admission control
+     */
+    public void markRejected() {
+        outcome = "rejected";
+    }
+
+    /**
+     * End the last stage and record the whole request
+     */
+    @Override
+    public void close() {
+        if (metrics == null || closed) {
+            return;
+        }
+        closed = true;
+        long now = System.nanoTime();
+        endStage(now);
+        metrics.recordRequest(tags, outcome, now - startNanos);
+        if (!"success".equals(outcome) || metrics.sampleSummary()) {
+            log.info("{} {} in {} ms ({} {}x{}): {}", tagValue("operation"), outcome,
+                    millis(now - startNanos), tagValue("engine"), imageWidth, imageHeight, stageSummary());
+        }
+    }
+
+    private void endStage(long now) {
+        if (currentStage != null) {
+            metrics.recordStage(tags, currentStage, now - stageStartNanos);
+            stageNames.add(currentStage);
+            stageNanos.add(now - stageStartNanos);
+            if (profile != null) {
+                profile.addStage(currentStage, now - stageStartNanos);
+            }
+            commitStageEvent();
+            currentStage = null;
+        }
+    }
+
+    private void commitStageEvent() {
+        stageEvent.end();
+        if (stageEvent.shouldCommit()) {
+            stageEvent.operation = tagValue("operation");
+            stageEvent.stage = currentStage;
+            stageEvent.engine = tagValue("engine");
+            stageEvent.model = tagValue("model");
+            stageEvent.format = tagValue("format");
+            stageEvent.imageWidth = imageWidth;
+            stageEvent.imageHeight = imageHeight;
+            stageEvent.commit();
+        }
+        stageEvent = null;
+    }
+
+    private String stageSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < stageNames.size(); i++) {
+            if (i > 0) {
+                summary.append(", ");
+            }
+            summary.append(stageNames.get(i)).append('=').append(millis(stageNanos.get(i)));
+        }
+        return summary.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+    }
+
+    private String tagValue(String key) {
+        for (Tag tag : tags) {
+            if (tag.getKey().equals(key)) {
+                return tag.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A running step
+     */
+    public interface Step extends AutoCloseable {
+        Step NONE = () -> {
+        };
+
+        @Override
+        void close();
+    }
+}
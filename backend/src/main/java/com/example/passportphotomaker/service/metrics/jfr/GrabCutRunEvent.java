@@ -0,0 +1,34 @@
+package com.example.passportphotomaker.service.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One call of OpenCV's GrabCut
+ */
+@Name("com.example.passportphotomaker.GrabCutRun")
+@Label("GrabCut Run")
+@Category({ "Passport Photo", "Background Removal" })
+@Description("A GrabCut segmentation refining the foreground mask")
+public class GrabCutRunEvent extends jdk.jfr.Event {
+    @Label("Engine")
+    public String engine;
+
+    @Label("Image Width")
+    public int imageWidth;
+
+    @Label("Image Height")
+    public int imageHeight;
+
+    @Label("Iterations")
+    public int iterations;
+
+    @Label("Mode")
+    @Description("How GrabCut was initialised: mask or rect")
+    public String mode;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
@@ -0,0 +1,32 @@
+package com.example.passportphotomaker.service.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One image encoded for a response
+ */
+@Name("com.example.passportphotomaker.ImageEncode")
+@Label("Image Encode")
+@Category({ "Passport Photo", "Encoding" })
+@Description("An image encoded to PNG, JPEG or WebP")
+public class ImageEncodeEvent extends jdk.jfr.Event {
+    @Label("Format")
+    public String format;
+
+    @Label("Image Width")
+    public int imageWidth;
+
+    @Label("Image Height")
+    public int imageHeight;
+
+    @Label("Channels")
+    public int channels;
+
+    @Label("Encoded Size")
+    @DataAmount
+    public long bytes;
+}
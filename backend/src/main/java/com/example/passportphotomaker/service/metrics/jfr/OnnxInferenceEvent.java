@@ -0,0 +1,31 @@
+package com.example.passportphotomaker.service.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One run of the segmentation model
+ */
+@Name("com.example.passportphotomaker.OnnxInference")
+@Label("Model Inference")
+@Category({ "Passport Photo", "Background Removal" })
+@Description("A run of the background segmentation model")
+public class OnnxInferenceEvent extends jdk.jfr.Event {
+    @Label("Engine")
+    public String engine;
+
+    @Label("Model")
+    public String model;
+
+    @Label("Input Size")
+    @Description("Width and height of the square model input")
+    public int inputSize;
+
+    @Label("Image Width")
+    public int imageWidth;
+
+    @Label("Image Height")
+    public int imageHeight;
+}
@@ -0,0 +1,36 @@
+package com.example.passportphotomaker.service.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One stage of a request through the photo pipeline (decode, remove-background, encode, ...)
+ */
+@Name("com.example.passportphotomaker.PhotoPipelineStage")
+@Label("Photo Pipeline Stage")
+@Category({ "Passport Photo", "Pipeline" })
+@Description("A stage of a request through the photo pipeline")
+public class PhotoPipelineStageEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Engine")
+    public String engine;
+
+    @Label("Model")
+    public String model;
+
+    @Label("Output Format")
+    public String format;
+
+    @Label("Image Width")
+    public int imageWidth;
+
+    @Label("Image Height")
+    public int imageHeight;
+}
@@ -0,0 +1,84 @@
+package com.example.passportphotomaker.service.metrics.jfr;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * OpenCV calls wrapped in Flight Recorder events. The events cost next to
+ * nothing unless a recording is running, e.g. one started with
+ * -XX:StartFlightRecording or jcmd &lt;pid&gt; JFR.start.
+ */
+public class PipelineEvents {
+
+    /**
+     * Run GrabCut and record it as a GrabCutRun event
+     *
+     * @param engine The background removal engine running it (e.g. "opencv")
+     */
+    public static void grabCut(String engine, Mat image, Mat mask, Rect rect, Mat bgdModel, Mat fgdModel,
+            int iterations, int mode) {
+        GrabCutRunEvent event = new GrabCutRunEvent();
+        event.begin();
+        try {
+            Imgproc.grabCut(image, mask, rect, bgdModel, fgdModel, iterations, mode);
+            event.succeeded = true;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.engine = engine;
+                event.imageWidth = image.width();
+                event.imageHeight = image.height();
+                event.iterations = iterations;
+                event.mode = mode == Imgproc.GC_INIT_WITH_RECT ? "rect" : "mask";
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Encode an image and record it as an ImageEncode event
+     *
+     * @return Whether encoding succeeded, as Imgcodecs.imencode
+     */
+    public static boolean encode(String extension, Mat image, MatOfByte buffer, MatOfInt params) {
+        ImageEncodeEvent event = new ImageEncodeEvent();
+        event.begin();
+        boolean encoded = Imgcodecs.imencode(extension, image, buffer, params);
+        event.end();
+        if (event.shouldCommit()) {
+            event.format = extension.startsWith(".") ? extension.substring(1) : extension;
+            event.imageWidth = image.width();
+            event.imageHeight = image.height();
+            event.channels = image.channels();
+            event.bytes = encoded ? buffer.total() * buffer.elemSize() : 0;
+            event.commit();
+        }
+        return encoded;
+    }
+
+    /**
+     * Start an OnnxInference event, to be passed to endInference after the model ran
+     */
+    public static OnnxInferenceEvent beginInference() {
+        OnnxInferenceEvent event = new OnnxInferenceEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void endInference(OnnxInferenceEvent event, String engine, String model, int inputSize,
+            int imageWidth, int imageHeight) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.engine = engine;
+            event.model = model;
+            event.inputSize = inputSize;
+            event.imageWidth = imageWidth;
+            event.imageHeight = imageHeight;
+            event.commit();
+        }
+    }
+}
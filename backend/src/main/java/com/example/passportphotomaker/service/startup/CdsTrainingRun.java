@@ -0,0 +1,190 @@
+package com.example.passportphotomaker.service.startup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Training run for the class-data-sharing archive (the cds build profile).
+ * Once the application is up it sends a few requests to its own endpoints,
+ * so the web stack, the pipeline and the encoders all get their classes
+ * loaded, then exits. The JVM writes the archive on exit.
+ */
+@Component
+@ConditionalOnProperty(name = "cds.training", havingValue = "true")
+public class CdsTrainingRun {
+    private static final Logger log = LoggerFactory.getLogger(CdsTrainingRun.class);
+
+    private final ConfigurableApplicationContext context;
+    private final Environment environment;
+
+    @Value("${cds.training.rounds:3}")
+    private int rounds;
+
+    public CdsTrainingRun(ConfigurableApplicationContext context, Environment environment) {
+        this.context = context;
+        this.environment = environment;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread thread = new Thread(this::run, "cds-training");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        int failures = 0;
+        try {
+            String base = "http://localhost:" + environment.getRequiredProperty("local.server.port");
+            RestTemplate rest = new RestTemplate();
+            byte[] image = samplePortrait();
+
+            for (int round = 1; round <= Math.max(1, rounds); round++) {
+                long start = System.nanoTime();
+                for (Map.Entry<String, MultiValueMap<String, Object>> request : requests(image).entrySet()) {
+                    if (!post(rest, base + request.getKey(), request.getValue())) {
+                        failures++;
+                    }
+                }
+                for (String path : new String[] { "/api/background-assets", "/actuator/health", "/actuator/prometheus" }) {
+                    if (!get(rest, base + path)) {
+                        failures++;
+                    }
+                }
+                log.info("Training round {} took {} ms", round, (System.nanoTime() - start) / 1_000_000);
+            }
+        } catch (RuntimeException e) {
+            log.error("Training run failed: {}", e.getMessage(), e);
+            failures++;
+        }
+
+        int exitCode = failures == 0 ? 0 : 1;
+        if (failures > 0) {
+            log.error("Training run finished with {} failed requests", failures);
+        } else {
+            log.info("Training run finished, exiting so the class archive gets written");
+        }
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+
+    /**
+     * One request per pipeline path: full processing with a colour background,
+     * the passport photo with adjustments, and an adjustment preview
+     */
+    private static Map<String, MultiValueMap<String, Object>> requests(byte[] image) {
+        Map<String, MultiValueMap<String, Object>> requests = new LinkedHashMap<>();
+
+        MultiValueMap<String, Object> process = form(image);
+        process.add("backgroundColor", "#FFFFFF");
+        requests.put("/api/process-photo", process);
+
+        MultiValueMap<String, Object> create = form(image);
+        create.add("backgroundColor", "#E8EEF4");
+        create.add("format", "jpg");
+        create.add("brightness", "5");
+        create.add("contrast", "1.1");
+        create.add("saturation", "0.9");
+        requests.put("/api/create-photo", create);
+
+        MultiValueMap<String, Object> adjust = form(image);
+        adjust.add("brightness", "10");
+        adjust.add("contrast", "1.2");
+        adjust.add("saturation", "1.1");
+        adjust.add("preview", "true");
+        requests.put("/api/adjust-photo", adjust);
+        return requests;
+    }
+
+    private static MultiValueMap<String, Object> form(byte[] image) {
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("image", new ByteArrayResource(image) {
+            @Override
+            public String getFilename() {
+                return "training.jpg";
+            }
+        });
+        return form;
+    }
+
+    private static boolean post(RestTemplate rest, String url, MultiValueMap<String, Object> form) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        try {
+            ResponseEntity<byte[]> response = rest.postForEntity(url, new HttpEntity<>(form, headers), byte[].class);
+            log.debug("POST {}: {}", url, response.getStatusCodeValue());
+            return true;
+        } catch (RestClientException e) {
+            log.warn("POST {} failed: {}", url, e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean get(RestTemplate rest, String url) {
+        try {
+            rest.getForEntity(url, byte[].class);
+            return true;
+        } catch (RestClientException e) {
+            log.warn("GET {} failed: {}", url, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * A drawn head-and-shoulders portrait, encoded as JPEG like a typical upload
+     */
+    private static byte[] samplePortrait() {
+        NativeLoader.ensureLoaded();
+        Size size = new Size(700, 900);
+        Mat image = new Mat(size, CvType.CV_8UC3, new Scalar(225, 195, 150));
+        Imgproc.ellipse(image, new Point(350, 900), new Size(300, 230), 0, 180, 360, new Scalar(60, 70, 90), -1);
+        Imgproc.rectangle(image, new Point(305, 470), new Point(395, 600), new Scalar(130, 160, 205), -1);
+        Imgproc.ellipse(image, new Point(350, 300), new Size(140, 170), 0, 0, 360, new Scalar(40, 50, 60), -1);
+        Imgproc.ellipse(image, new Point(350, 340), new Size(120, 155), 0, 0, 360, new Scalar(130, 160, 205), -1);
+        Imgproc.circle(image, new Point(305, 310), 10, new Scalar(50, 40, 30), -1);
+        Imgproc.circle(image, new Point(395, 310), 10, new Scalar(50, 40, 30), -1);
+        Imgproc.ellipse(image, new Point(350, 410), new Size(30, 8), 0, 0, 180, new Scalar(80, 70, 170), -1);
+
+        Mat noise = new Mat(size, CvType.CV_8UC3);
+        Core.randn(noise, 0, 6);
+        Core.add(image, noise, image);
+        noise.release();
+
+        MatOfByte encoded = new MatOfByte();
+        try {
+            Imgcodecs.imencode(".jpg", image, encoded);
+            return encoded.toArray();
+        } finally {
+            encoded.release();
+            image.release();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.passportphotomaker.service.startup;
+
+import javax.annotation.PostConstruct;
+
+import org.opencv.core.Core;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads the OpenCV natives, once per JVM. Beans that use OpenCV while starting
+ * up depend on this one, code outside Spring calls ensureLoaded() itself.
+ */
+@Component
+public class NativeLoader {
+    private static final Logger log = LoggerFactory.getLogger(NativeLoader.class);
+
+    private static volatile boolean loaded;
+
+    @PostConstruct
+    public void init() {
+        try {
+            ensureLoaded();
+        } catch (UnsatisfiedLinkError | RuntimeException e) {
+            log.error("Native code library failed to load: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Load the OpenCV natives unless they're loaded already
+     */
+    public static void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (NativeLoader.class) {
+            if (!loaded) {
+                long start = System.nanoTime();
+                nu.pattern.OpenCV.loadLocally();
+                loaded = true;
+                log.info("OpenCV {} loaded in {} ms", Core.VERSION, (System.nanoTime() - start) / 1_000_000);
+            }
+        }
+    }
+
+    public static boolean isLoaded() {
+        return loaded;
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.passportphotomaker.service.startup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import com.example.passportphotomaker.service.admission.AdmissionController;
+import com.example.passportphotomaker.service.bgremove.BackgroundRemover;
+import com.example.passportphotomaker.service.bgremove.DJLBackgroundRemover;
+import com.example.passportphotomaker.service.bgremove.DirectOnnxBackgroundRemover;
+import com.example.passportphotomaker.service.bgremove.OpenCVBackgroundRemover;
+import com.example.passportphotomaker.service.facedetect.CascadePool;
+import com.example.passportphotomaker.service.facedetect.FaceDetector;
+
+/**
+ * Builds the pipeline's models in the background while the rest of the
+ * application starts. The face cascades and the preferred background removal
+ * engine (the ONNX Runtime session, unless configured otherwise) load in
+ * parallel and startup doesn't wait for them, the first request does if they
+ * aren't ready yet. One face classifier is loaded per admission CPU slot and
+ * shared by the face detector and the OpenCV engine. Fallback engines are only built on first use, after the
+ * preferred one failed, so a healthy node never pays for them.
+ */
+@Component
+public class PipelineInitializer {
+    private static final Logger log = LoggerFactory.getLogger(PipelineInitializer.class);
+
+    private static final String ONNX = "onnx";
+    private static final String DJL = "djl";
+    private static final String OPENCV = "opencv";
+
+    private final ResourceLoader resourceLoader;
+    private final AdmissionController admissionController;
+
+    @Value("${debug.mode:false}")
+    private boolean debugMode;
+
+    // auto tries ONNX Runtime, then DJL, then OpenCV
+    @Value("${background.removal.method:auto}")
+    private String backgroundRemovalMethod;
+
+    private List<String> engines;
+    // Completes with null if the cascade can't be loaded
+    private CompletableFuture<CascadePool> cascades;
+    private CompletableFuture<FaceDetector> faceDetector;
+    private CompletableFuture<BackgroundRemover> preferredRemover;
+    private volatile BackgroundRemover bgRemover;
+
+    /**
+     * @param nativeLoader        Not used, but OpenCV has to be loaded before the models
+     * @param admissionController Sizes the face classifier pool
+     */
+    public PipelineInitializer(NativeLoader nativeLoader, ResourceLoader resourceLoader,
+            AdmissionController admissionController) {
+        this.resourceLoader = resourceLoader;
+        this.admissionController = admissionController;
+    }
+
+    @PostConstruct
+    public void init() {
+        engines = engineOrder(backgroundRemovalMethod);
+        long start = System.nanoTime();
+
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "pipeline-init-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        cascades = CompletableFuture.supplyAsync(this::loadCascades, executor);
+        faceDetector = cascades.thenApply(pool -> new FaceDetector(debugMode, pool));
+        preferredRemover = CompletableFuture.supplyAsync(() -> {
+            try {
+                return createEngine(engines.get(0));
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+
+        CompletableFuture.allOf(faceDetector, preferredRemover).whenComplete((ignored, error) -> {
+            executor.shutdown();
+            log.info("Pipeline models loaded in {} ms{}", (System.nanoTime() - start) / 1_000_000,
+                    error != null ? ", " + engines.get(0) + " background remover unavailable" : "");
+        });
+        log.info("Loading pipeline models in the background, background removal engines: {}", engines);
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        closeQuietly(preferredRemover, BackgroundRemover::close);
+        BackgroundRemover remover = bgRemover;
+        if (remover != null && preferredRemover.handle((loaded, e) -> loaded).getNow(null) != remover) {
+            remover.close();
+        }
+    }
+
+    /**
+     * The background removal engine to use. Waits while the preferred engine
+     * is still loading, and builds the first working fallback if it failed.
+     *
+     * @throws IOException If no engine could be built
+     */
+    public BackgroundRemover getBackgroundRemover() throws IOException {
+        BackgroundRemover remover = bgRemover;
+        if (remover != null) {
+            return remover;
+        }
+        synchronized (this) {
+            if (bgRemover == null) {
+                bgRemover = resolveBackgroundRemover();
+            }
+            return bgRemover;
+        }
+    }
+
+    /**
+     * The background removal engine if it's ready, without waiting or loading a fallback
+     *
+     * @return The engine, or null while none is ready
+     */
+    public BackgroundRemover getLoadedBackgroundRemover() {
+        BackgroundRemover remover = bgRemover;
+        if (remover == null && preferredRemover.isDone() && !preferredRemover.isCompletedExceptionally()) {
+            remover = preferredRemover.getNow(null);
+        }
+        return remover;
+    }
+
+    /**
+     * The face detector, waiting for its cascade if it's still loading
+     */
+    public FaceDetector getFaceDetector() throws IOException {
+        return await(faceDetector, "face detector");
+    }
+
+    private BackgroundRemover resolveBackgroundRemover() throws IOException {
+        try {
+            BackgroundRemover remover = await(preferredRemover, engines.get(0) + " background remover");
+            log.info("Using {} background remover", remover.getEngineName());
+            return remover;
+        } catch (IOException e) {
+            log.warn("{}", e.getMessage());
+        }
+
+        for (String engine : engines.subList(1, engines.size())) {
+            try {
+                BackgroundRemover remover = createEngine(engine);
+                log.info("Falling back to {} background remover", remover.getEngineName());
+                return remover;
+            } catch (Exception e) {
+                log.warn("Failed to initialize {} background remover: {}", engine, e.getMessage());
+                log.debug("Failed to initialize " + engine + " background remover", e);
+            }
+        }
+        throw new IOException("No background removal engine available");
+    }
+
+    private BackgroundRemover createEngine(String engine) throws Exception {
+        long start = System.nanoTime();
+        BackgroundRemover remover;
+        switch (engine) {
+            case ONNX:
+                remover = new DirectOnnxBackgroundRemover(debugMode);
+                break;
+            case DJL:
+                remover = new DJLBackgroundRemover(debugMode);
+                break;
+            default:
+                remover = new OpenCVBackgroundRemover(debugMode, await(cascades, "face cascades"));
+                break;
+        }
+        log.info("{} background remover ready in {} ms", remover.getEngineName(),
+                (System.nanoTime() - start) / 1_000_000);
+        return remover;
+    }
+
+    private CascadePool loadCascades() {
+        try {
+            return CascadePool.load(resourceLoader, admissionController.getCpuSlots());
+        } catch (IOException e) {
+            log.warn("{}, using fallback face detection", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Engines to try, in order, for the configured method
+     */
+    static List<String> engineOrder(String method) {
+        if (OPENCV.equalsIgnoreCase(method)) {
+            return List.of(OPENCV);
+        }
+        if (DJL.equalsIgnoreCase(method)) {
+            return List.of(DJL, OPENCV);
+        }
+        if (!"auto".equalsIgnoreCase(method) && !ONNX.equalsIgnoreCase(method)) {
+            log.warn("Unknown background.removal.method '{}', using auto", method);
+        }
+        return List.of(ONNX, DJL, OPENCV);
+    }
+
+    private static <T> T await(CompletableFuture<T> future, String what) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the " + what, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new IOException("Failed to initialize " + what + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    private static <T> void closeQuietly(CompletableFuture<T> future, Consumer<T> close) {
+        if (future == null) {
+            return;
+        }
+        T value = future.isCompletedExceptionally() ? null : future.getNow(null);
+        if (value != null) {
+            try {
+                close.accept(value);
+            } catch (RuntimeException e) {
+                log.error("Error closing {}: {}", value.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+    }
+}
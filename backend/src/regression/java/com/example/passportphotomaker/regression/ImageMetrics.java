@@ -0,0 +1,76 @@
+package com.example.passportphotomaker.regression;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Similarity measures between a pipeline result and its golden counterpart
+ */
+public class ImageMetrics {
+
+    /**
+     * Whether a mask is entirely opaque or entirely transparent at half
+     * opacity, the threshold the IoU is measured at. Against such a mask the
+     * IoU only shows that the engine still finds nothing, not the subject.
+     *
+     * @param mask Mask or alpha matte (8 bit, one channel)
+     */
+    public static boolean isUniform(Mat mask) {
+        Mat opaque = new Mat();
+        try {
+            Imgproc.threshold(mask, opaque, 127, 255, Imgproc.THRESH_BINARY);
+            int count = Core.countNonZero(opaque);
+            return count == 0 || count == mask.total();
+        } finally {
+            opaque.release();
+        }
+    }
+
+    /**
+     * Intersection over union of two masks, each thresholded at half opacity.
+     * Two empty masks are identical.
+     *
+     * @param actual   Mask or alpha matte (8 bit, one channel)
+     * @param expected Mask or alpha matte of the same size
+     * @return 0 for disjoint masks up to 1 for identical ones
+     */
+    public static double iou(Mat actual, Mat expected) {
+        requireSameShape(actual, expected);
+        Mat a = new Mat();
+        Mat b = new Mat();
+        Mat overlap = new Mat();
+        try {
+            Imgproc.threshold(actual, a, 127, 255, Imgproc.THRESH_BINARY);
+            Imgproc.threshold(expected, b, 127, 255, Imgproc.THRESH_BINARY);
+            Core.bitwise_and(a, b, overlap);
+            int intersection = Core.countNonZero(overlap);
+            Core.bitwise_or(a, b, overlap);
+            int union = Core.countNonZero(overlap);
+            return union == 0 ? 1.0 : (double) intersection / union;
+        } finally {
+            a.release();
+            b.release();
+            overlap.release();
+        }
+    }
+
+    /**
+     * Peak signal-to-noise ratio between two 8 bit images
+     *
+     * @return The PSNR in dB, infinite for identical images
+     */
+    public static double psnr(Mat actual, Mat expected) {
+        requireSameShape(actual, expected);
+        double psnr = Core.PSNR(actual, expected);
+        // OpenCV reports identical images as 361 dB
+        return psnr >= 360 ? Double.POSITIVE_INFINITY : psnr;
+    }
+
+    private static void requireSameShape(Mat actual, Mat expected) {
+        if (!actual.size().equals(expected.size()) || actual.type() != expected.type()) {
+            throw new IllegalArgumentException("Expected a " + expected.size() + " image of type " + expected.type()
+                    + ", got " + actual.size() + " of type " + actual.type());
+        }
+    }
+}
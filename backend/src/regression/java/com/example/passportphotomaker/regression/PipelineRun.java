@@ -0,0 +1,141 @@
+package com.example.passportphotomaker.regression;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import com.example.passportphotomaker.service.ImageContext;
+import com.example.passportphotomaker.service.bgchange.BackgroundChanger;
+import com.example.passportphotomaker.service.bgremove.BackgroundRemover;
+import com.example.passportphotomaker.service.imagecrop.PassportPhotoCropper;
+import com.example.passportphotomaker.service.imageedit.ImageAdjuster;
+import com.example.passportphotomaker.service.memory.Mats;
+
+import ai.djl.translate.TranslateException;
+
+/**
+ * One pass of a portrait through the stages of the create-photo pipeline, in
+ * the order PhotoService runs them: decode, resize to the 35x45 mm format,
+ * background removal, compositing on white, adjustments and the final JPEG
+ * encode. Every stage is timed on its own.
+ */
+public class PipelineRun implements AutoCloseable {
+    static final String[] STAGES = {"decode", "resize", "remove-background", "composite", "adjust", "encode"};
+
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+    private Mat mask;
+    private Mat photo;
+
+    /**
+     * Run the pipeline
+     *
+     * @param imageBytes The encoded portrait
+     * @param remover    The background removal engine under test
+     */
+    public static PipelineRun run(byte[] imageBytes, BackgroundRemover remover)
+            throws IOException, TranslateException {
+        PipelineRun run = new PipelineRun();
+        try {
+            run.execute(imageBytes, remover);
+            return run;
+        } catch (IOException | TranslateException | RuntimeException e) {
+            run.close();
+            throw e;
+        }
+    }
+
+    private void execute(byte[] imageBytes, BackgroundRemover remover) throws IOException, TranslateException {
+        long start = System.nanoTime();
+        Mat decoded = Mats.decode(imageBytes, Imgcodecs.IMREAD_COLOR);
+        if (decoded.empty()) {
+            throw new IOException("Failed to decode portrait");
+        }
+        start = lap("decode", start);
+
+        // Like PhotoService, the cropper only sizes the image, around a centered rectangle
+        PassportPhotoCropper cropper = new PassportPhotoCropper(false);
+        cropper.setPhotoFormat("35x45", 35, 45, "mm");
+        Rect center = new Rect(decoded.width() / 4, decoded.height() / 4, decoded.width() / 2, decoded.height() / 2);
+        Mat resized;
+        try (ImageContext context = ImageContext.owning(decoded)) {
+            resized = cropper.cropToPassportFormat(context, center);
+        }
+        start = lap("resize", start);
+
+        Mat foreground = null;
+        Mat composite = null;
+        try {
+            try (ImageContext context = new ImageContext(resized)) {
+                foreground = remover.removeBackground(context);
+            }
+            if (foreground == null || foreground.empty()) {
+                throw new IOException("Background removal returned no image");
+            }
+            start = lap("remove-background", start);
+
+            composite = BackgroundChanger.compositeOnColor(foreground, "#FFFFFF");
+            start = lap("composite", start);
+
+            photo = ImageAdjuster.applyAdjustments(composite, 10, 1.1, 1.05);
+            start = lap("adjust", start);
+
+            MatOfByte encoded = new MatOfByte();
+            Imgcodecs.imencode(".jpg", photo, encoded, new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, 95));
+            encoded.release();
+            lap("encode", start);
+
+            mask = new Mat();
+            Core.extractChannel(foreground, mask, 3);
+        } finally {
+            resized.release();
+            release(foreground);
+            release(composite);
+        }
+    }
+
+    /**
+     * The alpha matte from background removal (8 bit, one channel)
+     */
+    public Mat getMask() {
+        return mask;
+    }
+
+    /**
+     * The final photo before encoding (BGR)
+     */
+    public Mat getPhoto() {
+        return photo;
+    }
+
+    /**
+     * Time spent in every stage, in pipeline order
+     */
+    public Map<String, Long> getStageNanos() {
+        return stageNanos;
+    }
+
+    @Override
+    public void close() {
+        release(mask);
+        release(photo);
+    }
+
+    private long lap(String stage, long start) {
+        long now = System.nanoTime();
+        stageNanos.put(stage, now - start);
+        return now;
+    }
+
+    private static void release(Mat mat) {
+        if (mat != null) {
+            mat.release();
+        }
+    }
+}
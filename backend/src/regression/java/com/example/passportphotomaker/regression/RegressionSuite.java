@@ -0,0 +1,315 @@
+package com.example.passportphotomaker.regression;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import com.example.passportphotomaker.service.bgremove.BackgroundRemover;
+import com.example.passportphotomaker.service.bgremove.DirectOnnxBackgroundRemover;
+import com.example.passportphotomaker.service.bgremove.OpenCVBackgroundRemover;
+import com.example.passportphotomaker.service.startup.NativeLoader;
+
+/**
+ * Golden-image regression suite. Runs every portrait in the fixture directory
+ * through the pipeline several times and fails if
+ * <ul>
+ * <li>the alpha matte drifts from the golden matte (IoU below the tolerance),</li>
+ * <li>the final photo drifts from the golden photo (PSNR below the tolerance), or</li>
+ * <li>a stage's median time exceeds its budget.</li>
+ * </ul>
+ * Budgets are measured on the reference machine, --budget-scale adjusts them
+ * for slower or faster ones. After an intended change to the output, run with
+ * --update to store the new golden results and review them like code.
+ *
+ * Run: mvn -Pregression test-compile exec:exec -Dregression.args="..."
+ */
+public class RegressionSuite {
+    private static final String USAGE = String.join("\n",
+            "Options (all optional):",
+            "  --portraits=src/fixtures/portraits                input portraits",
+            "  --golden=src/regression/resources/golden         golden results, one directory per engine",
+            "  --config=src/regression/resources/regression.properties",
+            "                                                    tolerances and stage budgets",
+            "  --engine=opencv                                   opencv or onnx",
+            "  --runs=5                                          measured runs per portrait",
+            "  --warmup=2                                        unmeasured runs per portrait",
+            "  --budget-scale=1.0                                multiplier for all stage budgets",
+            "  --update                                          store the results as the new golden results");
+
+    private Path portraits = Paths.get("src/fixtures/portraits");
+    private Path golden = Paths.get("src/regression/resources/golden");
+    private Path config = Paths.get("src/regression/resources/regression.properties");
+    private String engine = "opencv";
+    private int runs = 5;
+    private int warmup = 2;
+    private double budgetScale = 1.0;
+    private boolean update;
+
+    private double minIou;
+    private double minPsnr;
+    private final Map<String, Double> budgetsMs = new LinkedHashMap<>();
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        RegressionSuite suite = new RegressionSuite();
+        try {
+            suite.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        System.exit(suite.run() ? 0 : 1);
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            if ("--update".equals(arg)) {
+                update = true;
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(2, eq)) {
+                case "portraits":
+                    portraits = Paths.get(value);
+                    break;
+                case "golden":
+                    golden = Paths.get(value);
+                    break;
+                case "config":
+                    config = Paths.get(value);
+                    break;
+                case "engine":
+                    engine = value;
+                    break;
+                case "runs":
+                    runs = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "warmup":
+                    warmup = Math.max(0, Integer.parseInt(value));
+                    break;
+                case "budget-scale":
+                    budgetScale = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+
+    /**
+     * @return true if every portrait passed
+     */
+    boolean run() throws Exception {
+        NativeLoader.ensureLoaded();
+        loadConfig();
+        List<Path> inputs = listPortraits();
+        if (inputs.isEmpty()) {
+            throw new IOException("No portraits in " + portraits.toAbsolutePath());
+        }
+
+        BackgroundRemover remover = createRemover();
+        try {
+            System.out.printf("Regression suite: %d portraits, engine %s, %d runs after %d warmup runs%s%n%n",
+                    inputs.size(), engine, runs, warmup, update ? ", updating golden results" : "");
+            for (Path input : inputs) {
+                check(input, remover);
+            }
+        } finally {
+            remover.close();
+        }
+
+        System.out.println();
+        if (update) {
+            System.out.println("Golden results written to " + golden.resolve(engine).toAbsolutePath());
+        }
+        if (failures.isEmpty()) {
+            System.out.println("PASSED");
+            return true;
+        }
+        System.out.println("FAILED:");
+        failures.forEach(failure -> System.out.println("  " + failure));
+        return false;
+    }
+
+    private void check(Path input, BackgroundRemover remover) throws Exception {
+        String name = input.getFileName().toString();
+        byte[] imageBytes = Files.readAllBytes(input);
+        Path goldenDir = golden.resolve(engine).resolve(name.substring(0, name.lastIndexOf('.')));
+        Mat goldenMask = update ? null : readGolden(goldenDir.resolve("mask.png"), Imgcodecs.IMREAD_GRAYSCALE);
+        Mat goldenPhoto = update ? null : readGolden(goldenDir.resolve("photo.png"), Imgcodecs.IMREAD_COLOR);
+        boolean uniformGolden = goldenMask != null && ImageMetrics.isUniform(goldenMask);
+        boolean uniformResult = false;
+
+        for (int i = 0; i < warmup; i++) {
+            PipelineRun.run(imageBytes, remover).close();
+        }
+
+        // Quality is checked on every run and the worst one counts, GrabCut isn't deterministic
+        Map<String, List<Long>> times = new LinkedHashMap<>();
+        double worstIou = Double.POSITIVE_INFINITY;
+        double worstPsnr = Double.POSITIVE_INFINITY;
+        String shapeMismatch = null;
+        for (int i = 0; i < runs; i++) {
+            try (PipelineRun run = PipelineRun.run(imageBytes, remover)) {
+                run.getStageNanos().forEach((stage, nanos) ->
+                        times.computeIfAbsent(stage, key -> new ArrayList<>()).add(nanos));
+                if (update && i == 0) {
+                    // A uniform matte means no background was removed, it can't serve as a reference
+                    uniformResult = ImageMetrics.isUniform(run.getMask());
+                    if (!uniformResult) {
+                        Files.createDirectories(goldenDir);
+                        write(goldenDir.resolve("mask.png"), run.getMask());
+                        write(goldenDir.resolve("photo.png"), run.getPhoto());
+                    }
+                } else if (goldenMask != null && goldenPhoto != null && !uniformGolden) {
+                    if (!sameShape(run.getMask(), goldenMask) || !sameShape(run.getPhoto(), goldenPhoto)) {
+                        shapeMismatch = run.getPhoto().size() + " instead of " + goldenPhoto.size();
+                        continue;
+                    }
+                    worstIou = Math.min(worstIou, ImageMetrics.iou(run.getMask(), goldenMask));
+                    worstPsnr = Math.min(worstPsnr, ImageMetrics.psnr(run.getPhoto(), goldenPhoto));
+                }
+            }
+        }
+
+        System.out.println(name);
+        if (uniformResult) {
+            System.out.println("  FAIL uniform matte, golden results not written");
+            fail(name + ": the " + engine + " engine removed no background, the matte is uniform");
+        }
+        if (!update) {
+            if (goldenMask == null || goldenPhoto == null) {
+                System.out.println("  FAIL no golden results");
+                fail(name + ": no golden results in " + goldenDir + ", run with --update");
+            } else if (uniformGolden) {
+                System.out.println("  FAIL uniform golden matte");
+                fail(name + ": the golden matte in " + goldenDir + " is uniform, regenerate it with --update");
+            } else if (shapeMismatch != null) {
+                System.out.println("  FAIL output size changed");
+                fail(name + ": output size changed, " + shapeMismatch);
+            } else {
+                System.out.printf("  %-18s %10.4f %10.4f  %s%n", "mask IoU", worstIou, minIou,
+                        verdict(worstIou >= minIou, name + ": mask IoU " + format(worstIou) + " < " + minIou));
+                System.out.printf("  %-18s %10.2f %10.2f  %s%n", "photo PSNR (dB)", worstPsnr, minPsnr,
+                        verdict(worstPsnr >= minPsnr, name + ": photo PSNR " + format(worstPsnr) + " dB < " + minPsnr));
+            }
+            release(goldenMask);
+            release(goldenPhoto);
+        }
+
+        System.out.printf("  %-18s %10s %10s%n", "stage", "median ms", "budget ms");
+        for (Map.Entry<String, List<Long>> stage : times.entrySet()) {
+            double median = median(stage.getValue()) / 1e6;
+            Double budget = budgetsMs.get(stage.getKey());
+            if (budget == null) {
+                System.out.printf("  %-18s %10.1f %10s%n", stage.getKey(), median, "-");
+                continue;
+            }
+            double scaled = budget * budgetScale;
+            System.out.printf("  %-18s %10.1f %10.1f  %s%n", stage.getKey(), median, scaled,
+                    verdict(median <= scaled, name + ": " + stage.getKey() + " median " + format(median)
+                            + " ms over the budget of " + format(scaled) + " ms"));
+        }
+    }
+
+    private void loadConfig() throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(config)) {
+            properties.load(reader);
+        }
+        minIou = Double.parseDouble(properties.getProperty("quality.mask.min-iou", "0.98"));
+        minPsnr = Double.parseDouble(properties.getProperty("quality.photo.min-psnr", "35"));
+        for (String stage : PipelineRun.STAGES) {
+            String budget = properties.getProperty("budget." + stage + ".median-ms");
+            if (budget != null) {
+                budgetsMs.put(stage, Double.parseDouble(budget));
+            }
+        }
+    }
+
+    private List<Path> listPortraits() throws IOException {
+        try (Stream<Path> files = Files.list(portraits)) {
+            return files.filter(file -> file.getFileName().toString().matches("(?i).+\\.(png|jpe?g|webp)"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private BackgroundRemover createRemover() throws IOException {
+        switch (engine) {
+            case "opencv":
+                return new OpenCVBackgroundRemover(false);
+            case "onnx":
+                return new DirectOnnxBackgroundRemover(false);
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine + ", expected one of "
+                        + Arrays.asList("opencv", "onnx"));
+        }
+    }
+
+    private String verdict(boolean passed, String failure) {
+        if (passed) {
+            return "ok";
+        }
+        fail(failure);
+        return "FAIL";
+    }
+
+    private void fail(String failure) {
+        failures.add(failure);
+    }
+
+    private static Mat readGolden(Path file, int flags) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Mat image = Imgcodecs.imread(file.toString(), flags);
+        return image.empty() ? null : image;
+    }
+
+    private static void write(Path file, Mat image) throws IOException {
+        if (!Imgcodecs.imwrite(file.toString(), image)) {
+            throw new IOException("Failed to write " + file);
+        }
+    }
+
+    private static boolean sameShape(Mat actual, Mat expected) {
+        return actual.size().equals(expected.size()) && actual.type() == expected.type();
+    }
+
+    private static double median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        sorted.sort(null);
+        int middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2.0;
+    }
+
+    private static String format(double value) {
+        return String.format("%.2f", value);
+    }
+
+    private static void release(Mat mat) {
+        if (mat != null) {
+            mat.release();
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.example.passportphotomaker.service.imageprobe;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ImageProbeTest {
+
+    // JPEG
+
+    @Test
+    void readsJpegDimensions() throws IOException {
+        ImageInfo info = ImageProbe.probe(encode(BufferedImage.TYPE_INT_RGB, 640, 480, "jpg"));
+        assertInfo(info, "jpeg", 640, 480, 3, 1);
+    }
+
+    @Test
+    void readsGrayJpeg() throws IOException {
+        ImageInfo info = ImageProbe.probe(encode(BufferedImage.TYPE_BYTE_GRAY, 31, 17, "jpg"));
+        assertInfo(info, "jpeg", 31, 17, 1, 1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 1, 2, 3, 4, 5, 6, 7, 8 })
+    void readsJpegExifOrientationInBothByteOrders(int orientation) throws IOException {
+        byte[] jpeg = encode(BufferedImage.TYPE_INT_RGB, 40, 30, "jpg");
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+            ImageInfo info = ImageProbe.probe(withJpegExif(jpeg, tiff(order, 8, 1, orientation)));
+            assertInfo(info, "jpeg", 40, 30, 3, orientation);
+            assertEquals(orientation >= 5, info.isTransposed());
+        }
+    }
+
+    @Test
+    void ignoresOutOfRangeOrientation() throws IOException {
+        byte[] jpeg = encode(BufferedImage.TYPE_INT_RGB, 40, 30, "jpg");
+        assertInfo(ImageProbe.probe(withJpegExif(jpeg, tiff(ByteOrder.BIG_ENDIAN, 8, 1, 9))), "jpeg", 40, 30, 3, 1);
+        assertInfo(ImageProbe.probe(withJpegExif(jpeg, tiff(ByteOrder.BIG_ENDIAN, 8, 1, 0))), "jpeg", 40, 30, 3, 1);
+    }
+
+    @Test
+    void keepsDimensionsWhenTheIfdOffsetLies() throws IOException {
+        byte[] jpeg = encode(BufferedImage.TYPE_INT_RGB, 40, 30, "jpg");
+        for (int offset : new int[] { 0, 3, 500, 0x7FFFFFFF, 0xFFFFFFF0 }) {
+            ImageInfo info = ImageProbe.probe(withJpegExif(jpeg, tiff(ByteOrder.LITTLE_ENDIAN, offset, 1, 6)));
+            assertInfo(info, "jpeg", 40, 30, 3, 1);
+        }
+    }
+
+    @Test
+    void keepsDimensionsWhenTheIfdEntryCountLies() throws IOException {
+        byte[] jpeg = encode(BufferedImage.TYPE_INT_RGB, 40, 30, "jpg");
+        ImageInfo info = ImageProbe.probe(withJpegExif(jpeg, tiff(ByteOrder.BIG_ENDIAN, 8, 0xFFFF, 1)));
+        assertInfo(info, "jpeg", 40, 30, 3, 1);
+    }
+
+    @Test
+    void ignoresExifWithUnknownByteOrder() throws IOException {
+        byte[] jpeg = encode(BufferedImage.TYPE_INT_RGB, 40, 30, "jpg");
+        byte[] tiff = tiff(ByteOrder.LITTLE_ENDIAN, 8, 1, 6);
+        tiff[0] = 'X';
+        tiff[1] = 'X';
+        assertInfo(ImageProbe.probe(withJpegExif(jpeg, tiff)), "jpeg", 40, 30, 3, 1);
+    }
+
+    @Test
+    void skipsFillBytesBetweenJpegSegments() throws IOException {
+        byte[] jpeg = encode(BufferedImage.TYPE_INT_RGB, 40, 30, "jpg");
+        byte[] filled = concat(Arrays.copyOf(jpeg, 2), new byte[] { (byte) 0xFF, (byte) 0xFF },
+                Arrays.copyOfRange(jpeg, 2, jpeg.length));
+        assertInfo(ImageProbe.probe(filled), "jpeg", 40, 30, 3, 1);
+    }
+
+    @Test
+    void rejectsJpegSegmentShorterThanItsLengthField() {
+        byte[] jpeg = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 1, 0, 0 };
+        assertNull(ImageProbe.probe(jpeg));
+    }
+
+    @Test
+    void rejectsJpegSegmentLengthBeyondTheFile() {
+        byte[] jpeg = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, (byte) 0xFF, (byte) 0xF0, 0, 0, 0, 0 };
+        assertNull(ImageProbe.probe(jpeg));
+    }
+
+    @Test
+    void rejectsJpegWithoutFrameHeader() {
+        byte[] jpeg = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 2, 0, 0 };
+        assertNull(ImageProbe.probe(jpeg));
+    }
+
+    @Test
+    void truncatedJpegNeverThrows() throws IOException {
+        byte[] jpeg = withJpegExif(encode(BufferedImage.TYPE_INT_RGB, 40, 30, "jpg"),
+                tiff(ByteOrder.BIG_ENDIAN, 8, 1, 6));
+        assertTruncationsAreSafe(jpeg, "jpeg");
+    }
+
+    // PNG
+
+    @Test
+    void readsPngChannels() throws IOException {
+        assertInfo(ImageProbe.probe(encode(BufferedImage.TYPE_INT_RGB, 64, 48, "png")), "png", 64, 48, 3, 1);
+        assertInfo(ImageProbe.probe(encode(BufferedImage.TYPE_INT_ARGB, 64, 48, "png")), "png", 64, 48, 4, 1);
+        assertInfo(ImageProbe.probe(encode(BufferedImage.TYPE_BYTE_GRAY, 64, 48, "png")), "png", 64, 48, 1, 1);
+    }
+
+    @Test
+    void readsPngColorTypesAndTransparency() {
+        assertInfo(ImageProbe.probe(png(5, 7, 4)), "png", 5, 7, 2, 1);
+        assertInfo(ImageProbe.probe(png(5, 7, 0, chunk("tRNS", new byte[2]))), "png", 5, 7, 2, 1);
+        assertInfo(ImageProbe.probe(png(5, 7, 3, chunk("PLTE", new byte[3]), chunk("tRNS", new byte[1]))),
+                "png", 5, 7, 4, 1);
+        assertInfo(ImageProbe.probe(png(5, 7, 3, chunk("PLTE", new byte[3]))), "png", 5, 7, 3, 1);
+    }
+
+    @Test
+    void ignoresTransparencyAfterTheImageData() {
+        byte[] png = png(5, 7, 2, chunk("IDAT", new byte[4]), chunk("tRNS", new byte[6]));
+        assertInfo(ImageProbe.probe(png), "png", 5, 7, 3, 1);
+    }
+
+    @Test
+    void keepsPngDimensionsWhenAChunkLengthLies() {
+        byte[] lying = chunk("tEXt", new byte[4]);
+        ByteBuffer.wrap(lying).putInt(0, 0x7FFFFFF0);
+        assertInfo(ImageProbe.probe(png(5, 7, 2, lying, chunk("tRNS", new byte[6]))), "png", 5, 7, 3, 1);
+    }
+
+    @Test
+    void rejectsPngWithoutLeadingHeaderChunk() {
+        byte[] png = png(5, 7, 2);
+        png[12] = 'X';
+        assertNull(ImageProbe.probe(png));
+    }
+
+    @Test
+    void truncatedPngNeverThrows() throws IOException {
+        assertTruncationsAreSafe(encode(BufferedImage.TYPE_INT_ARGB, 16, 16, "png"), "png");
+    }
+
+    // WebP
+
+    @Test
+    void readsLossyWebp() {
+        assertInfo(ImageProbe.probe(webpLossy(1000, 750)), "webp", 1000, 750, 3, 1);
+    }
+
+    @Test
+    void rejectsLossyWebpWithoutStartCode() {
+        byte[] webp = webpLossy(100, 100);
+        webp[23] = 0;
+        assertNull(ImageProbe.probe(webp));
+    }
+
+    @Test
+    void readsLosslessWebp() {
+        assertInfo(ImageProbe.probe(webpLossless(16384, 1, false)), "webp", 16384, 1, 3, 1);
+        assertInfo(ImageProbe.probe(webpLossless(300, 200, true)), "webp", 300, 200, 4, 1);
+    }
+
+    @Test
+    void rejectsLosslessWebpWithoutSignature() {
+        byte[] webp = webpLossless(300, 200, false);
+        webp[20] = 0;
+        assertNull(ImageProbe.probe(webp));
+    }
+
+    @Test
+    void readsExtendedWebp() {
+        assertInfo(ImageProbe.probe(webpExtended(5000, 4000, true, null)), "webp", 5000, 4000, 4, 1);
+        assertInfo(ImageProbe.probe(webpExtended(5000, 4000, false, null)), "webp", 5000, 4000, 3, 1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 1, 3, 6, 8 })
+    void readsExtendedWebpOrientation(int orientation) {
+        byte[] tiff = tiff(ByteOrder.LITTLE_ENDIAN, 8, 1, orientation);
+        assertInfo(ImageProbe.probe(webpExtended(60, 80, false, tiff)), "webp", 60, 80, 3, orientation);
+
+        // Some encoders keep the JPEG style prefix
+        byte[] prefixed = concat("Exif\0\0".getBytes(StandardCharsets.US_ASCII), tiff);
+        assertInfo(ImageProbe.probe(webpExtended(60, 80, false, prefixed)), "webp", 60, 80, 3, orientation);
+    }
+
+    @Test
+    void keepsWebpDimensionsWhenTheExifChunkLies() {
+        byte[] webp = webpExtended(60, 80, false, tiff(ByteOrder.LITTLE_ENDIAN, 8, 1, 6));
+        // Size of the EXIF chunk, right after the VP8X chunk
+        ByteBuffer.wrap(webp).order(ByteOrder.LITTLE_ENDIAN).putInt(12 + 18 + 4, 0x7FFFFFF0);
+        assertInfo(ImageProbe.probe(webp), "webp", 60, 80, 3, 1);
+    }
+
+    @Test
+    void rejectsUnknownWebpChunk() {
+        byte[] webp = webpLossy(100, 100);
+        webp[15] = 'Q';
+        assertNull(ImageProbe.probe(webp));
+    }
+
+    @Test
+    void truncatedWebpNeverThrows() {
+        assertTruncationsAreSafe(webpLossy(100, 100), "webp");
+        assertTruncationsAreSafe(webpLossless(100, 100, true), "webp");
+        assertTruncationsAreSafe(webpExtended(100, 100, true, tiff(ByteOrder.BIG_ENDIAN, 8, 1, 6)), "webp");
+    }
+
+    // Anything else
+
+    @Test
+    void rejectsUnknownInput() {
+        assertNull(ImageProbe.probe(null));
+        assertNull(ImageProbe.probe(new byte[0]));
+        assertNull(ImageProbe.probe("GIF89a not supported".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void corruptedHeadersNeverThrow() throws IOException {
+        byte[][] samples = {
+                withJpegExif(encode(BufferedImage.TYPE_INT_RGB, 40, 30, "jpg"), tiff(ByteOrder.BIG_ENDIAN, 8, 1, 6)),
+                encode(BufferedImage.TYPE_INT_ARGB, 16, 16, "png"),
+                webpExtended(100, 100, true, tiff(ByteOrder.LITTLE_ENDIAN, 8, 1, 6)),
+        };
+        Random random = new Random(42);
+        for (byte[] sample : samples) {
+            for (int i = 0; i < 2000; i++) {
+                byte[] corrupted = sample.clone();
+                // Damage the header region, where the parser looks
+                int header = Math.min(corrupted.length, 160);
+                for (int flips = 1 + random.nextInt(4); flips > 0; flips--) {
+                    corrupted[random.nextInt(header)] = (byte) random.nextInt(256);
+                }
+                ImageProbe.probe(corrupted);
+            }
+        }
+    }
+
+    private static void assertInfo(ImageInfo info, String format, int width, int height, int channels,
+            int orientation) {
+        assertNotNull(info, "no header information");
+        assertEquals(format, info.getFormat());
+        assertEquals(width, info.getWidth());
+        assertEquals(height, info.getHeight());
+        assertEquals(channels, info.getChannels());
+        assertEquals(orientation, info.getOrientation());
+        assertEquals(channels == 2 || channels == 4, info.hasAlpha());
+    }
+
+    /**
+     * Every prefix of the file either can't be probed or reports the right format
+     */
+    private static void assertTruncationsAreSafe(byte[] data, String format) {
+        ImageInfo full = ImageProbe.probe(data);
+        assertNotNull(full);
+        for (int length = 0; length < data.length; length++) {
+            ImageInfo info = ImageProbe.probe(Arrays.copyOf(data, length));
+            if (info != null) {
+                assertEquals(format, info.getFormat());
+                assertEquals(full.getWidth(), info.getWidth());
+                assertEquals(full.getHeight(), info.getHeight());
+            }
+        }
+        assertFalse(data.length == 0);
+    }
+
+    private static byte[] encode(int type, int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, type);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, format, out));
+        return out.toByteArray();
+    }
+
+    /**
+     * A TIFF structure with one IFD, whose entries all carry the orientation tag
+     */
+    private static byte[] tiff(ByteOrder order, int ifdOffset, int entryCount, int orientation) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 2 + 12 + 4).order(order);
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        buffer.putShort((short) 42);
+        buffer.putInt(ifdOffset);
+        buffer.putShort((short) entryCount);
+        buffer.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        buffer.putInt(0);
+        return buffer.array();
+    }
+
+    /**
+     * Insert an APP1 EXIF segment right after the start of image marker
+     */
+    private static byte[] withJpegExif(byte[] jpeg, byte[] tiff) {
+        ByteBuffer app1 = ByteBuffer.allocate(4 + 6 + tiff.length);
+        app1.put((byte) 0xFF).put((byte) 0xE1).putShort((short) (2 + 6 + tiff.length));
+        app1.put("Exif\0\0".getBytes(StandardCharsets.US_ASCII)).put(tiff);
+        return concat(Arrays.copyOf(jpeg, 2), app1.array(), Arrays.copyOfRange(jpeg, 2, jpeg.length));
+    }
+
+    private static byte[] png(int width, int height, int colorType, byte[]... chunks) {
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height).put((byte) 8).put((byte) colorType).put(new byte[3]);
+        byte[] signature = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+        return concat(signature, chunk("IHDR", header.array()), concat(chunks), chunk("IEND", new byte[0]));
+    }
+
+    private static byte[] chunk(String type, byte[] payload) {
+        // The probe doesn't check CRCs, zeros will do
+        return ByteBuffer.allocate(12 + payload.length).putInt(payload.length)
+                .put(type.getBytes(StandardCharsets.US_ASCII)).put(payload).putInt(0).array();
+    }
+
+    private static byte[] webpLossy(int width, int height) {
+        ByteBuffer payload = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(new byte[3]).put((byte) 0x9D).put((byte) 0x01).put((byte) 0x2A);
+        payload.putShort((short) width).putShort((short) height);
+        return riff(webpChunk("VP8 ", payload.array()));
+    }
+
+    private static byte[] webpLossless(int width, int height, boolean alpha) {
+        int bits = (width - 1) | ((height - 1) << 14) | ((alpha ? 1 : 0) << 28);
+        ByteBuffer payload = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put((byte) 0x2F).putInt(bits);
+        return riff(webpChunk("VP8L", payload.array()));
+    }
+
+    private static byte[] webpExtended(int width, int height, boolean alpha, byte[] exif) {
+        byte[] payload = new byte[10];
+        payload[0] = (byte) ((alpha ? 0x10 : 0) | (exif != null ? 0x08 : 0));
+        putU24(payload, 4, width - 1);
+        putU24(payload, 7, height - 1);
+        byte[] chunks = webpChunk("VP8X", payload);
+        if (exif != null) {
+            chunks = concat(chunks, webpChunk("EXIF", exif));
+        }
+        return riff(chunks);
+    }
+
+    private static byte[] webpChunk(String type, byte[] payload) {
+        ByteBuffer chunk = ByteBuffer.allocate(8 + payload.length + (payload.length & 1))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        chunk.put(type.getBytes(StandardCharsets.US_ASCII)).putInt(payload.length).put(payload);
+        return chunk.array();
+    }
+
+    private static byte[] riff(byte[] chunks) {
+        ByteBuffer riff = ByteBuffer.allocate(12 + chunks.length).order(ByteOrder.LITTLE_ENDIAN);
+        riff.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(4 + chunks.length)
+                .put("WEBP".getBytes(StandardCharsets.US_ASCII)).put(chunks);
+        return riff.array();
+    }
+
+    private static void putU24(byte[] data, int pos, int value) {
+        data[pos] = (byte) value;
+        data[pos + 1] = (byte) (value >> 8);
+        data[pos + 2] = (byte) (value >> 16);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
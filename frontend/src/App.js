@@ -8,7 +8,7 @@ import {
   AdjustmentsHorizontalIcon,
 } from "@heroicons/react/24/outline";
 import { CropStep } from "./components/Steps";
-import { cropSizes } from "./constants";
+import { cropSizes, API_ENDPOINTS, PREVIEW_MAX_DIMENSION } from "./constants";
 
 function App() {
   // Core application state
@@ -36,6 +36,7 @@ function App() {
   const [backgroundRemovedFile, setBackgroundRemovedFile] = useState(null);
   const [originalImageFile, setOriginalImageFile] = useState(null); // Store original image for adjustments
   const [finalAdjustedImage, setFinalAdjustedImage] = useState(null);
+  const [adjustPreviewImage, setAdjustPreviewImage] = useState(null); // Low-resolution slider preview
 
   // Download state
   const [customFilename, setCustomFilename] = useState("passport-photo");
@@ -46,58 +47,77 @@ function App() {
 
   const [imageSize, setImageSize] = useState(null);
 
-  // Update debouncedSendAdjustments to set finalAdjustedImage after applying adjustments
+  // Editing session for the current original image, so slider moves only send parameters
+  const adjustSessionRef = useRef({ file: null, id: null });
+
+  const getAdjustSession = async (file) => {
+    if (adjustSessionRef.current.file === file && adjustSessionRef.current.id) {
+      return adjustSessionRef.current.id;
+    }
+
+    const formData = new FormData();
+    formData.append("image", file);
+
+    const response = await fetch(API_ENDPOINTS.ADJUST_SESSION, {
+      method: "POST",
+      body: formData,
+    });
+
+    if (!response.ok) {
+      throw new Error(`Failed to start adjustment session: ${response.status}`);
+    }
+
+    const { sessionId } = await response.json();
+    adjustSessionRef.current = { file, id: sessionId };
+    return sessionId;
+  };
+
+  // Send adjustment parameters to the editing session, re-uploading once if it expired
+  const requestAdjustedImage = async (parameters) => {
+    const sendParameters = async (sessionId) =>
+      fetch(`${API_ENDPOINTS.ADJUST_SESSION}/${sessionId}`, {
+        method: "POST",
+        body: new URLSearchParams(parameters),
+      });
+
+    // The original image is uploaded once, later requests only carry the adjustments
+    let response = await sendParameters(
+      await getAdjustSession(originalImageFile)
+    );
+
+    // Session expired on the server - upload the image again and retry once
+    if (response.status === 404) {
+      adjustSessionRef.current = { file: null, id: null };
+      response = await sendParameters(await getAdjustSession(originalImageFile));
+    }
+
+    if (!response.ok) {
+      throw new Error(`Adjustment request failed: ${response.status}`);
+    }
+
+    return response.blob();
+  };
+
+  // Slider moves only render a small preview; the full-resolution image is rendered when leaving the step
   const debouncedSendAdjustments = debounce(
     async ({ brightness, contrast, saturation }) => {
       if (!originalImageFile) return;
 
-      console.log("Sending to /adjust-photo", {
+      console.log("Sending preview to /adjust-session", {
         brightness,
         contrast,
         saturation,
       });
 
-      const formData = new FormData();
-      // Always use the original image for adjustments
-      formData.append("image", originalImageFile);
-      formData.append("brightness", brightness);
-      formData.append("contrast", contrast);
-      formData.append("saturation", saturation);
-      formData.append("format", downloadFormat);
-
-      // Add background parameters if they exist
-      if (backgroundType === "color") {
-        formData.append("backgroundColor", selectedBackgroundColor);
-      } else if (backgroundType === "image" && backgroundImage) {
-        formData.append("backgroundImg", backgroundImage);
-        formData.append("bgScale", backgroundScale);
-        formData.append("bgOffsetX", backgroundOffsetX);
-        formData.append("bgOffsetY", backgroundOffsetY);
-      }
-
       try {
-        const response = await fetch("http://localhost:8080/api/adjust-photo", {
-          method: "POST",
-          body: formData,
-        });
-
-        if (!response.ok) {
-          console.error("Adjustment request failed:", response.status);
-          return;
-        }
-
-        const adjustedBlob = await response.blob();
-        console.log("Received adjusted image blob:", adjustedBlob);
-
-        // Create new File from the adjusted blob
-        const adjustedFile = new File([adjustedBlob], "adjusted.png", {
-          type: adjustedBlob.type,
+        const previewBlob = await requestAdjustedImage({
+          brightness,
+          contrast,
+          saturation,
+          preview: true,
+          maxDimension: PREVIEW_MAX_DIMENSION,
         });
-
-        // Update UI with the adjusted image
-        const adjustedImageUrl = URL.createObjectURL(adjustedBlob);
-        setBackgroundChangedImage(adjustedImageUrl);
-        setFinalAdjustedImage(adjustedImageUrl);
+        setAdjustPreviewImage(URL.createObjectURL(previewBlob));
       } catch (error) {
         console.error("Error during adjustment:", error);
       }
@@ -105,6 +125,41 @@ function App() {
     300
   );
 
+  // Render the adjustments at full resolution, used for the following steps and the download
+  const applyFinalAdjustments = async () => {
+    const unchanged = brightness === 0 && contrast === 1 && saturation === 1;
+    if (!originalImageFile || !adjustPreviewImage || unchanged) {
+      return finalAdjustedImage || backgroundChangedImage;
+    }
+
+    setLoading(true);
+    try {
+      const adjustedBlob = await requestAdjustedImage({
+        brightness,
+        contrast,
+        saturation,
+      });
+      console.log("Received adjusted image blob:", adjustedBlob);
+
+      const adjustedImageUrl = URL.createObjectURL(adjustedBlob);
+      setBackgroundChangedImage(adjustedImageUrl);
+      setFinalAdjustedImage(adjustedImageUrl);
+      setAdjustPreviewImage(null);
+      return adjustedImageUrl;
+    } catch (error) {
+      console.error("Error during adjustment:", error);
+      return finalAdjustedImage || backgroundChangedImage;
+    } finally {
+      setLoading(false);
+    }
+  };
+
+  const goToCropStep = async () => {
+    const adjustedImage = await applyFinalAdjustments();
+    setFinalAdjustedImage(adjustedImage);
+    setStep(4);
+  };
+
   const [isPickingColor, setIsPickingColor] = useState(false);
 
   // Background colors
@@ -569,7 +624,7 @@ function App() {
                     ? "border-primary-500 text-primary-600"
                     : "border-transparent text-gray-500 hover:text-gray-700 hover:border-gray-300"
                 }`}
-                onClick={() => finalAdjustedImage && setStep(4)}
+                onClick={() => finalAdjustedImage && goToCropStep()}
                 disabled={!finalAdjustedImage}
               >
                 <div className="flex justify-center items-center">
@@ -994,7 +1049,11 @@ function App() {
                   {backgroundChangedImage ? (
                     <div className="relative" style={{ maxWidth: "100%" }}>
                       <img
-                        src={finalAdjustedImage || backgroundChangedImage}
+                        src={
+                          adjustPreviewImage ||
+                          finalAdjustedImage ||
+                          backgroundChangedImage
+                        }
                         alt="Preview"
                         className="max-h-64"
                         style={{ display: "block" }}
@@ -1079,6 +1138,7 @@ function App() {
                     setSaturation(1);
 
                     // Create URL for original image and update the UI
+                    setAdjustPreviewImage(null);
                     if (originalImageFile) {
                       const originalImageUrl =
                         URL.createObjectURL(originalImageFile);
@@ -1107,12 +1167,7 @@ function App() {
                 </button>
 
                 <button
-                  onClick={() => {
-                    setFinalAdjustedImage(
-                      finalAdjustedImage || backgroundChangedImage
-                    );
-                    setStep(4);
-                  }}
+                  onClick={goToCropStep}
                   disabled={!backgroundChangedImage || loading}
                   className={`inline-flex items-center px-4 py-2 border border-transparent text-sm font-medium rounded-md shadow-sm text-white ${
                     !backgroundChangedImage || loading
@@ -29,6 +29,9 @@ export const cropSizes = {
   // Standard DPI for passport photos
   export const DPI = 300;
   
+  // Largest side of the low-resolution preview rendered while adjusting sliders
+  export const PREVIEW_MAX_DIMENSION = 512;
+
   // Background color presets
   export const backgroundColors = [
     { name: 'White', value: '#ffffff' },
@@ -41,5 +44,6 @@ export const cropSizes = {
   // API endpoints
   export const API_ENDPOINTS = {
     PROCESS_PHOTO: 'http://localhost:8080/api/process-photo',
-    ADJUST_PHOTO: 'http://localhost:8080/api/adjust-photo'
+    ADJUST_PHOTO: 'http://localhost:8080/api/adjust-photo',
+    ADJUST_SESSION: 'http://localhost:8080/api/adjust-session'
   };
\ No newline at end of file